@@ -138,6 +138,7 @@ public class CameraActivity extends Activity {
 
             // Go back to the parent with the photo data.
             PhotoHolder.getInstance().set(bitmap);
+            PhotoHolder.getInstance().setJpeg(bytes);
 
             Intent upIntent = getParentActivityIntent();
             upIntent.putExtra(EXTRA_PHOTO, true);
@@ -2,62 +2,45 @@ package com.shuheikagawa.rectify;
 
 import android.util.Log;
 
-import org.opencv.core.CvType;
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
-import org.opencv.core.Point;
+import com.shuheikagawa.rectify.core.Polygons;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import org.opencv.core.MatOfPoint2f;
 
 public class GeomUtils {
-    public static MatOfPoint toMatOfPointInt(MatOfPoint2f mat) {
-        MatOfPoint matInt = new MatOfPoint();
-        mat.convertTo(matInt, CvType.CV_32S);
-        return matInt;
-    }
-
-    public static MatOfPoint2f toMatOfPointFloat(MatOfPoint mat) {
-        MatOfPoint2f matFloat = new MatOfPoint2f();
-        mat.convertTo(matFloat, CvType.CV_32FC2);
-        return matFloat;
+    // Signed area of a polygon packed as x0, y0, x1, y1, ... (shoelace formula like Imgproc.contourArea).
+    public static double polygonArea(float[] points, int count) {
+        return Polygons.area(points, 0, count);
     }
 
-    public static double angle(Point p1, Point p2, Point p0) {
-        double dx1 = p1.x - p0.x;
-        double dy1 = p1.y - p0.y;
-        double dx2 = p2.x - p0.x;
-        double dy2 = p2.y - p0.y;
-        return (dx1 * dx2 + dy1 * dy2) / Math.sqrt((dx1 * dx1 + dy1 * dy1) * (dx2 * dx2 + dy2 * dy2) + 1e-10);
+    // Checks convexity like Imgproc.isContourConvex does on the integer version of the polygon.
+    public static boolean isConvex(float[] points, int count) {
+        return Polygons.isConvex(points, count);
     }
 
     public static MatOfPoint2f scaleRectangle(MatOfPoint2f original, double scale) {
-        List<Point> originalPoints = original.toList();
-        List<Point> resultPoints = new ArrayList<Point>();
+        float[] points = new float[original.vertexCount() * 2];
+        int count = original.toArray(points, 0);
 
-        for (Point point : originalPoints) {
-            resultPoints.add(new Point(point.x * scale, point.y * scale));
+        for (int i = 0; i < points.length; i++) {
+            points[i] *= scale;
         }
 
         MatOfPoint2f result = new MatOfPoint2f();
-        result.fromList(resultPoints);
+        result.fromArray(points, 0, count);
         return result;
     }
 
     public static String pointsToString(MatOfPoint2f rectangle) {
         StringBuilder builder = new StringBuilder();
 
-        List<Point> points = rectangle.toList();
-        Iterator<Point> iterator = points.iterator();
+        float[] points = new float[rectangle.vertexCount() * 2];
+        int count = rectangle.toArray(points, 0);
 
-        while (iterator.hasNext()) {
-            boolean isNotLast = iterator.hasNext();
-            Point point = iterator.next();
-            builder.append(point.toString());
-            if (isNotLast) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
                 builder.append(" ");
             }
+            builder.append('{').append(points[i * 2]).append(", ").append(points[i * 2 + 1]).append('}');
         }
 
         return builder.toString();
@@ -0,0 +1,178 @@
+package com.shuheikagawa.rectify;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Encodes result mats with Highgui.imencode and writes them through a FileChannel
+// on a background thread. Mats never go through an Android Bitmap.
+public class ImageExporter {
+    private static final String DEBUG_TAG = "ImageExporter";
+
+    public enum Format {
+        JPEG(".jpg"),
+        PNG(".png");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    // Callbacks are delivered on the main thread.
+    public interface Callback {
+        void onExported(File file);
+
+        void onExportFailed(File file, Exception e);
+    }
+
+    private final PipelineTracer tracer = PipelineTracer.getInstance();
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // The source mat is read on the I/O thread. Do not release it until the callback is called.
+    // Quality is 0-100. For PNG it is mapped to a compression level from 9 (0) to 0 (100).
+    public void export(final Mat src, final File file, final Format format, final int quality, final Callback callback) {
+        final long queued = tracer.begin();
+
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                tracer.end(PipelineTracer.Span.POOL_WAIT, queued);
+
+                try {
+                    long start = tracer.begin();
+                    byte[] encoded = encode(src, format, quality);
+                    tracer.end(PipelineTracer.Span.ENCODE, start);
+                    write(file, encoded);
+                    Log.d(DEBUG_TAG, "Exported " + encoded.length + " bytes to " + file);
+                    deliverSuccess(callback, file);
+                } catch (Exception e) {
+                    Log.e(DEBUG_TAG, "Failed to export to " + file, e);
+                    deliverFailure(callback, file, e);
+                }
+            }
+        });
+    }
+
+    // Lets already queued exports finish and rejects new ones.
+    public void shutdown() {
+        ioExecutor.shutdown();
+    }
+
+    private byte[] encode(Mat src, Format format, int quality) throws IOException {
+        Mat bgr = toBgr(src);
+        MatOfByte buffer = new MatOfByte();
+        MatOfInt params = encodeParams(format, quality);
+
+        try {
+            if (!Highgui.imencode(format.getExtension(), bgr, buffer, params)) {
+                throw new IOException("Failed to encode image as " + format);
+            }
+
+            byte[] encoded = new byte[(int) buffer.total()];
+            buffer.get(0, 0, encoded);
+            return encoded;
+        } finally {
+            if (bgr != src) {
+                bgr.release();
+            }
+            buffer.release();
+            params.release();
+        }
+    }
+
+    // Highgui expects BGR while mats from Android bitmaps are RGBA.
+    private Mat toBgr(Mat src) {
+        int code;
+        switch (src.channels()) {
+            case 4:
+                code = Imgproc.COLOR_RGBA2BGR;
+                break;
+            case 3:
+                code = Imgproc.COLOR_RGB2BGR;
+                break;
+            default:
+                return src;
+        }
+
+        Mat bgr = new Mat();
+        Imgproc.cvtColor(src, bgr, code);
+        return bgr;
+    }
+
+    private MatOfInt encodeParams(Format format, int quality) {
+        int clamped = Math.max(0, Math.min(100, quality));
+
+        if (format == Format.PNG) {
+            return new MatOfInt(Highgui.CV_IMWRITE_PNG_COMPRESSION, (100 - clamped) * 9 / 100);
+        }
+        return new MatOfInt(Highgui.CV_IMWRITE_JPEG_QUALITY, clamped);
+    }
+
+    // Write to a temporary file first so that a failed export does not leave a truncated image.
+    private void write(File file, byte[] bytes) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        boolean written = false;
+
+        try {
+            FileOutputStream stream = new FileOutputStream(tempFile);
+            try {
+                FileChannel channel = stream.getChannel();
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } finally {
+                stream.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private void deliverSuccess(final Callback callback, final File file) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onExported(file);
+            }
+        });
+    }
+
+    private void deliverFailure(final Callback callback, final File file, final Exception e) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onExportFailed(file, e);
+            }
+        });
+    }
+}
@@ -10,6 +10,7 @@ import android.graphics.Paint;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.Environment;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -25,8 +26,11 @@ import org.opencv.android.Utils;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatTracker;
 import org.opencv.core.Scalar;
 
+import java.io.File;
+
 import it.sephiroth.android.library.imagezoom.ImageViewTouch;
 import it.sephiroth.android.library.imagezoom.ImageViewTouchBase;
 import it.sephiroth.android.library.imagezoom.graphics.FastBitmapDrawable;
@@ -39,6 +43,15 @@ public class MainActivity extends Activity {
     private ImageViewTouch sourceImageView;
     private ImageViewTouch destinationImageView;
 
+    private Mat resultMat;
+    // Created once OpenCV is loaded and kept with its buffers and JPEG decoder across clicks.
+    private RectFinder rectFinder;
+    // Capture shown in the source view, and the scale from the capture to the shown bitmap.
+    private byte[] sourceJpeg;
+    private double sourceJpegScale = 1;
+    private ImageExporter exporter = new ImageExporter();
+    private TraceExporter traceExporter = new TraceExporter(PipelineTracer.getInstance());
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         Log.d(DEBUG_TAG, "onCreate");
@@ -76,15 +89,19 @@ public class MainActivity extends Activity {
             Log.d(DEBUG_TAG, "Received a photo from camera.");
 
             Bitmap bitmap = PhotoHolder.getInstance().get();
+            sourceJpeg = PhotoHolder.getInstance().getJpeg();
             PhotoHolder.getInstance().clean();
 
+            int capturedWidth = bitmap.getWidth();
             bitmap = resizeImageToShow(bitmap);
+            sourceJpegScale = (double) bitmap.getWidth() / capturedWidth;
 
             Log.d(DEBUG_TAG, "Showing the photo from camera.");
             sourceImageView.setImageBitmap(bitmap);
 
             // Clear destination image.
             destinationImageView.setImageResource(android.R.color.transparent);
+            resultMat = null;
         }
     }
 
@@ -129,15 +146,38 @@ public class MainActivity extends Activity {
         Bitmap bitmap = drawable.getBitmap();
 
         // Create an OpenCV mat from the bitmap.
+        PipelineTracer tracer = PipelineTracer.getInstance();
+        long start = tracer.begin();
         Mat srcMat = ImageUtils.bitmapToMat(bitmap);
+        tracer.end(PipelineTracer.Span.CONVERT, start);
 
         // Find the largest rectangle.
-        // Find image views.
-        RectFinder rectFinder = new RectFinder(0.2, 0.98);
-        MatOfPoint2f rectangle = rectFinder.findRectangle(srcMat);
+        if (rectFinder == null) {
+            rectFinder = new RectFinder(0.2, 0.98);
+        }
+        MatOfPoint2f rectangle = null;
+        boolean detected = false;
+        if (sourceJpeg != null) {
+            // Detect on the capture decoded at a reduced scale, then map to the shown bitmap.
+            try {
+                MatOfPoint2f found = rectFinder.findRectangle(sourceJpeg);
+                rectangle = found == null ? null : GeomUtils.scaleRectangle(found, sourceJpegScale);
+                if (found != null) {
+                    found.release();
+                }
+                detected = true;
+            } catch (IllegalArgumentException e) {
+                // E.g. a progressive JPEG. The shown bitmap is still fine.
+                Log.w(DEBUG_TAG, "Could not decode the capture, detecting on the bitmap instead", e);
+            }
+        }
+        if (!detected) {
+            rectangle = rectFinder.findRectangle(srcMat);
+        }
 
         if (rectangle == null) {
             Toast.makeText(this, "No rectangles were found.", Toast.LENGTH_LONG).show();
+            srcMat.release();
             rectifyButton.setEnabled(true);
             return;
         }
@@ -145,14 +185,23 @@ public class MainActivity extends Activity {
         // Transform the rectangle.
         PerspectiveTransformation perspective = new PerspectiveTransformation();
         Mat dstMat = perspective.transform(srcMat, rectangle);
+        srcMat.release();
+        rectangle.release();
 
         // Create a bitmap from the result mat.
+        start = tracer.begin();
         Bitmap resultBitmap = ImageUtils.matToBitmap(dstMat);
-        Log.d(DEBUG_TAG, String.format("Result bitmap: %d %d", resultBitmap.getWidth(), resultBitmap.getHeight()));
+        tracer.end(PipelineTracer.Span.CONVERT, start);
+        if (BuildConfig.DEBUG) {
+            Log.d(DEBUG_TAG, String.format("Result bitmap: %d %d", resultBitmap.getWidth(), resultBitmap.getHeight()));
+        }
 
         // Show the result bitmap on the destination image view.
         destinationImageView.setImageBitmap(resultBitmap);
 
+        // Keep the result mat to save it without going through the bitmap.
+        resultMat = dstMat;
+
         rectifyButton.setEnabled(true);
     }
 
@@ -182,6 +231,74 @@ public class MainActivity extends Activity {
         canvas.drawRect(left, top, right, bottom, blackFill);
     }
 
+    private void saveResult() {
+        if (resultMat == null) {
+            Toast.makeText(this, "Nothing to save. Rectify an image first.", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        File directory = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        if (directory == null) {
+            Toast.makeText(this, "Storage is not available.", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        File file = new File(directory, "rectify-" + System.currentTimeMillis() + ImageExporter.Format.JPEG.getExtension());
+        exporter.export(resultMat, file, ImageExporter.Format.JPEG, 90, exportCallback);
+    }
+
+    private void dumpTrace() {
+        File directory = getExternalFilesDir("traces");
+        if (directory == null) {
+            Toast.makeText(this, "Storage is not available.", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        File file = new File(directory, "rectify-" + System.currentTimeMillis() + ".json");
+        traceExporter.export(file, traceCallback);
+    }
+
+    // The first call starts tracking. Later calls log what has been tracked since then.
+    private void reportMats() {
+        if (!MatTracker.isEnabled()) {
+            MatTracker.setEnabled(true);
+            Toast.makeText(this, "Started tracking mats.", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        // Let the collector enqueue unreachable mats so that unreleased ones show up as leaks.
+        // They are reclaimed on a background thread and may appear in the next report.
+        System.gc();
+
+        MatTracker.Snapshot snapshot = MatTracker.snapshot();
+        Log.d(DEBUG_TAG, snapshot.report());
+        Toast.makeText(this, snapshot.toString(), Toast.LENGTH_LONG).show();
+    }
+
+    private ImageExporter.Callback exportCallback = new ImageExporter.Callback() {
+        @Override
+        public void onExported(File file) {
+            Toast.makeText(MainActivity.this, "Saved to " + file.getPath(), Toast.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onExportFailed(File file, Exception e) {
+            Toast.makeText(MainActivity.this, "Failed to save " + file.getName() + ".", Toast.LENGTH_LONG).show();
+        }
+    };
+
+    private TraceExporter.Callback traceCallback = new TraceExporter.Callback() {
+        @Override
+        public void onTraceDumped(File file) {
+            Toast.makeText(MainActivity.this, "Dumped trace to " + file.getPath(), Toast.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onTraceDumpFailed(File file, Exception e) {
+            Toast.makeText(MainActivity.this, "Failed to dump " + file.getName() + ".", Toast.LENGTH_LONG).show();
+        }
+    };
+
     private BaseLoaderCallback openCVLoaderCallback = new BaseLoaderCallback(this) {
         @Override
         public void onManagerConnected(int status) {
@@ -201,6 +318,11 @@ public class MainActivity extends Activity {
 
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
+
+        // Tracing is for field testers on debug builds.
+        menu.findItem(R.id.action_tracing).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_dump_trace).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_mat_report).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -215,6 +337,32 @@ public class MainActivity extends Activity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_save) {
+            saveResult();
+            return true;
+        }
+        if (id == R.id.action_tracing) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            PipelineTracer.getInstance().setEnabled(enabled);
+            return true;
+        }
+        if (id == R.id.action_dump_trace) {
+            dumpTrace();
+            return true;
+        }
+        if (id == R.id.action_mat_report) {
+            reportMats();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
+
+    @Override
+    protected void onDestroy() {
+        exporter.shutdown();
+        traceExporter.shutdown();
+
+        super.onDestroy();
+    }
 }
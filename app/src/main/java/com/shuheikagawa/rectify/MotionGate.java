@@ -0,0 +1,87 @@
+package com.shuheikagawa.rectify;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+// Tells whether a frame differs enough from the last analysed one to be worth analysing.
+// Frames are compared as 64x48 grayscale thumbnails by their mean absolute difference, so a
+// check costs one tiny resize and no allocation.
+//
+//     if (gate.hasChanged(frame)) {
+//         gate.accept();
+//         // Run the detection.
+//     }
+public class MotionGate {
+    private static final Size THUMBNAIL_SIZE = new Size(64, 48);
+    // Mean absolute difference in gray levels below which a frame is considered unchanged.
+    // Above sensor noise and auto exposure flicker, below a small shift of a page.
+    public static final double DEFAULT_THRESHOLD = 4.0;
+
+    private final double threshold;
+    private final Mat resized = new Mat();
+    private Mat thumbnail = new Mat();
+    private Mat reference = new Mat();
+    private double lastDifference;
+
+    public MotionGate() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public MotionGate(double threshold) {
+        this.threshold = threshold;
+    }
+
+    // Makes a thumbnail of an RGBA, RGB or grayscale frame and compares it with the reference.
+    // Always true until a frame is accepted.
+    public boolean hasChanged(Mat frame) {
+        makeThumbnail(frame);
+        if (reference.empty()) {
+            lastDifference = Double.POSITIVE_INFINITY;
+            return true;
+        }
+
+        lastDifference = Core.norm(thumbnail, reference, Core.NORM_L1) / (THUMBNAIL_SIZE.width * THUMBNAIL_SIZE.height);
+        return lastDifference >= threshold;
+    }
+
+    // Makes the frame last passed to hasChanged() the reference for the next ones.
+    public void accept() {
+        Mat swap = reference;
+        reference = thumbnail;
+        thumbnail = swap;
+    }
+
+    // Mean absolute difference computed by the last hasChanged() call.
+    public double getLastDifference() {
+        return lastDifference;
+    }
+
+    // Makes the next frame count as changed.
+    public void reset() {
+        reference.release();
+    }
+
+    public void release() {
+        resized.release();
+        thumbnail.release();
+        reference.release();
+    }
+
+    private void makeThumbnail(Mat frame) {
+        switch (frame.channels()) {
+            case 4:
+                Imgproc.resize(frame, resized, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+                Imgproc.cvtColor(resized, thumbnail, Imgproc.COLOR_RGBA2GRAY);
+                break;
+            case 3:
+                Imgproc.resize(frame, resized, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+                Imgproc.cvtColor(resized, thumbnail, Imgproc.COLOR_RGB2GRAY);
+                break;
+            default:
+                Imgproc.resize(frame, thumbnail, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+                break;
+        }
+    }
+}
@@ -2,7 +2,13 @@ package com.shuheikagawa.rectify;
 
 import android.util.Log;
 
+import com.shuheikagawa.rectify.core.Homography;
+import com.shuheikagawa.rectify.core.ImageBuffer;
+import com.shuheikagawa.rectify.core.ImageBufferPool;
+import com.shuheikagawa.rectify.core.PerspectiveWarper;
+
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
@@ -15,24 +21,104 @@ import java.util.List;
 public class PerspectiveTransformation {
     private static final String DEBUG_TAG = "PerspectiveTransformation";
 
+    // Pixels of the Java backend, on the heap for Mat.get() and put().
+    private static final long MAX_POOLED_BYTES = 64 * 1024 * 1024;
+
+    // Shared by all instances with the Java backend. Its threads are daemons.
+    private static PerspectiveWarper warper;
+    private static ImageBufferPool pool;
+
+    private final PipelineTracer tracer = PipelineTracer.getInstance();
+    private final RectFinder.Backend backend;
+
     public PerspectiveTransformation() {
+        this(RectFinder.Backend.OPENCV);
+    }
+
+    public PerspectiveTransformation(RectFinder.Backend backend) {
+        this.backend = backend;
+    }
+
+    private static synchronized PerspectiveWarper getWarper() {
+        if (warper == null) {
+            warper = new PerspectiveWarper();
+            // The warp span covers the whole warp on the calling thread, these each band on its own.
+            final PipelineTracer tracer = PipelineTracer.getInstance();
+            warper.setBandObserver(new PerspectiveWarper.BandObserver() {
+                @Override
+                public long bandStarted(int startRow, int endRow) {
+                    return tracer.begin();
+                }
+
+                @Override
+                public void bandFinished(long token) {
+                    tracer.end(PipelineTracer.Span.WARP_BAND, token);
+                }
+            });
+        }
+        return warper;
+    }
+
+    private static synchronized ImageBufferPool getPool() {
+        if (pool == null) {
+            pool = new ImageBufferPool(false, MAX_POOLED_BYTES);
+            pool.setLeakDetection(BuildConfig.DEBUG);
+        }
+        return pool;
     }
 
     public Mat transform(Mat src, MatOfPoint2f corners) {
+        long start = tracer.begin();
         MatOfPoint2f sortedCorners = sortCorners(corners);
         Size size = getRectangleSize(sortedCorners);
 
-        Log.d(DEBUG_TAG, String.format("Transforming to: %f %f", size.width, size.height));
+        if (BuildConfig.DEBUG) {
+            Log.d(DEBUG_TAG, String.format("Transforming to: %f %f", size.width, size.height));
+        }
 
         Mat result = Mat.zeros(size, src.type());
-        MatOfPoint2f imageOutline = getOutline(result);
 
-        Mat transformation = Imgproc.getPerspectiveTransform(sortedCorners, imageOutline);
-        Imgproc.warpPerspective(src, result, transformation, size);
+        // Same matrix as Imgproc.getPerspectiveTransform() from the corners to the outline of the
+        // result, solved in closed form.
+        float[] quad = new float[8];
+        sortedCorners.toArray(quad, 0);
+        sortedCorners.release();
+        Homography homography = Homography.quadToRect(quad, 0, result.cols(), result.rows());
+
+        // The Java warp handles 8 bit RGBA only. Other types go through OpenCV.
+        if (backend == RectFinder.Backend.JAVA && src.type() == CvType.CV_8UC4) {
+            warpJava(src, result, homography);
+        } else {
+            double[] matrix = new double[9];
+            homography.toArray(matrix, 0);
+            Mat transformation = new Mat(3, 3, CvType.CV_64F);
+            transformation.put(0, 0, matrix);
+            Imgproc.warpPerspective(src, result, transformation, size);
+            transformation.release();
+        }
+        tracer.end(PipelineTracer.Span.WARP, start);
 
         return result;
     }
 
+    // Warps on pooled copies of CV_8UC4 mats. The warper maps result pixels back into src.
+    private void warpJava(Mat src, Mat result, Homography homography) {
+        ImageBufferPool pool = getPool();
+        ImageBuffer srcPixels = pool.acquire(ImageBuffer.Format.RGBA, src.cols(), src.rows());
+        ImageBuffer resultPixels = pool.acquire(ImageBuffer.Format.RGBA, result.cols(), result.rows());
+        try {
+            // The pooled arrays are larger than the images. Mat.get() and put() copy the whole mat,
+            // no more, from the start of the array, which is where acquired buffers begin. The warp
+            // stays within the regions of the buffers.
+            src.get(0, 0, srcPixels.array());
+            getWarper().warp(srcPixels, resultPixels, homography.invert());
+            result.put(0, 0, resultPixels.array());
+        } finally {
+            srcPixels.release();
+            resultPixels.release();
+        }
+    }
+
     private Size getRectangleSize(MatOfPoint2f rectangle) {
         Point[] corners = rectangle.toArray();
 
@@ -53,19 +139,6 @@ public class PerspectiveTransformation {
         return Math.sqrt(dx * dx + dy * dy);
     }
 
-    private MatOfPoint2f getOutline(Mat image) {
-        Point topLeft = new Point(0, 0);
-        Point topRight = new Point(image.cols(), 0);
-        Point bottomRight = new Point(image.cols(), image.rows());
-        Point bottomLeft = new Point(0, image.rows());
-        Point[] points = {topLeft, topRight, bottomRight, bottomLeft};
-
-        MatOfPoint2f result = new MatOfPoint2f();
-        result.fromArray(points);
-
-        return result;
-    }
-
     private MatOfPoint2f sortCorners(MatOfPoint2f corners) {
         Point center = getMassCenter(corners);
         List<Point> points = corners.toList();
@@ -85,11 +158,13 @@ public class PerspectiveTransformation {
         Point bottomLeft = bottomPoints.get(0).x > bottomPoints.get(1).x ? bottomPoints.get(1) : bottomPoints.get(0);
         Point bottomRight = bottomPoints.get(0).x > bottomPoints.get(1).x ? bottomPoints.get(0) : bottomPoints.get(1);
 
-        Log.d(DEBUG_TAG, "Sorted corners:");
-        Log.d(DEBUG_TAG, String.format("      top left: %f %f", topLeft.x, topLeft.y));
-        Log.d(DEBUG_TAG, String.format("     top right: %f %f", topRight.x, topRight.y));
-        Log.d(DEBUG_TAG, String.format("   bottom left: %f %f", bottomLeft.x, bottomLeft.y));
-        Log.d(DEBUG_TAG, String.format("  bottom right: %f %f", bottomRight.x, bottomRight.y));
+        if (BuildConfig.DEBUG) {
+            Log.d(DEBUG_TAG, "Sorted corners:");
+            Log.d(DEBUG_TAG, String.format("      top left: %f %f", topLeft.x, topLeft.y));
+            Log.d(DEBUG_TAG, String.format("     top right: %f %f", topRight.x, topRight.y));
+            Log.d(DEBUG_TAG, String.format("   bottom left: %f %f", bottomLeft.x, bottomLeft.y));
+            Log.d(DEBUG_TAG, String.format("  bottom right: %f %f", bottomRight.x, bottomRight.y));
+        }
 
         MatOfPoint2f result = new MatOfPoint2f();
         Point[] sortedPoints = {topLeft, topRight, bottomRight, bottomLeft};
@@ -8,6 +8,8 @@ public class PhotoHolder {
     private static final PhotoHolder theInstance = new PhotoHolder();
 
     private Bitmap bitmap;
+    // JPEG data the bitmap was decoded from, if any.
+    private byte[] jpeg;
 
     public static PhotoHolder getInstance() {
         return theInstance;
@@ -28,7 +30,16 @@ public class PhotoHolder {
         this.bitmap = bitmap;
     }
 
+    public byte[] getJpeg() {
+        return jpeg;
+    }
+
+    public void setJpeg(byte[] jpeg) {
+        this.jpeg = jpeg;
+    }
+
     public void clean() {
         bitmap = null;
+        jpeg = null;
     }
 }
@@ -0,0 +1,256 @@
+package com.shuheikagawa.rectify;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Records per-stage timings and counters of the rectify pipeline into a preallocated ring buffer.
+// When disabled, begin() and end() only read a volatile flag. No strings, no allocation.
+//
+//     long start = tracer.begin();
+//     Imgproc.medianBlur(src, blurred, 9);
+//     tracer.end(PipelineTracer.Span.BLUR, start);
+public class PipelineTracer {
+    private static final String DEBUG_TAG = "PipelineTracer";
+    // Must be a power of two.
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final int KIND_SPAN = 0;
+    private static final int KIND_COUNTER = 1;
+    // Sequence of a slot while an entry is written into it.
+    private static final long WRITING = -1;
+
+    public enum Span {
+        DOWNSCALE("downscale"),
+        BLUR("blur"),
+        MIX_CHANNELS("mixChannels"),
+        CANNY("canny"),
+        THRESHOLD("threshold"),
+        FIND_CONTOURS("findContours"),
+        APPROX("approx"),
+        FILTER("filter"),
+        SELECT("select"),
+        WARP("warp"),
+        // One band of a parallel warp, on the thread that warped it.
+        WARP_BAND("warpBand"),
+        TRACK("track"),
+        MOTION_GATE("motionGate"),
+        CONVERT("convert"),
+        DECODE("decode"),
+        ENCODE("encode"),
+        // Time a task spent queued in an executor before running.
+        POOL_WAIT("poolWait");
+
+        private final String label;
+
+        Span(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    public enum Counter {
+        CONTOURS("contours"),
+        CANDIDATES("candidates");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    public interface Visitor {
+        void visitSpan(Span span, long threadId, long startNanos, long durationNanos);
+
+        void visitCounter(Counter counter, long threadId, long timeNanos, long value);
+    }
+
+    private static final PipelineTracer theInstance = new PipelineTracer();
+    private static final Span[] SPANS = Span.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private volatile boolean enabled = false;
+
+    private final AtomicLong cursor = new AtomicLong();
+    // Position of the entry in each slot, written last so that readers can skip slots that are being
+    // written or were overwritten while they read them.
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final byte[] kinds = new byte[CAPACITY];
+    private final byte[] ids = new byte[CAPACITY];
+    private final long[] threadIds = new long[CAPACITY];
+    private final long[] timestamps = new long[CAPACITY];
+    private final long[] values = new long[CAPACITY];
+
+    public static PipelineTracer getInstance() {
+        return theInstance;
+    }
+
+    private PipelineTracer() {
+        clear();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // Returns the start time to pass to end(), or 0 if tracing is disabled.
+    public long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void end(Span span, long startNanos) {
+        if (startNanos == 0 || !enabled) {
+            return;
+        }
+        record(KIND_SPAN, span.ordinal(), startNanos, System.nanoTime() - startNanos);
+    }
+
+    public void count(Counter counter, long value) {
+        if (!enabled) {
+            return;
+        }
+        record(KIND_COUNTER, counter.ordinal(), System.nanoTime(), value);
+    }
+
+    private void record(int kind, int id, long timestamp, long value) {
+        long sequence = cursor.getAndIncrement();
+        int index = (int) sequence & MASK;
+        // getAndSet() also keeps the writes below from moving before it.
+        sequences.getAndSet(index, WRITING);
+        kinds[index] = (byte) kind;
+        ids[index] = (byte) id;
+        threadIds[index] = Thread.currentThread().getId();
+        timestamps[index] = timestamp;
+        values[index] = value;
+        sequences.set(index, sequence);
+    }
+
+    public void clear() {
+        cursor.set(0);
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, WRITING);
+        }
+    }
+
+    // Visits the recorded entries from the oldest. Only the latest CAPACITY entries are kept.
+    // Entries that are written or overwritten while visiting are skipped.
+    public void accept(Visitor visitor) {
+        long end = cursor.get();
+        long start = Math.max(0, end - CAPACITY);
+
+        for (long i = start; i < end; i++) {
+            int index = (int) i & MASK;
+            if (sequences.get(index) != i) {
+                continue;
+            }
+            int kind = kinds[index];
+            int id = ids[index];
+            long threadId = threadIds[index];
+            long timestamp = timestamps[index];
+            long value = values[index];
+            // getAndAdd() keeps the reads above from moving after the check.
+            if (sequences.getAndAdd(index, 0) != i) {
+                continue;
+            }
+
+            if (kind == KIND_SPAN && id >= 0 && id < SPANS.length) {
+                visitor.visitSpan(SPANS[id], threadId, timestamp, value);
+            } else if (kind == KIND_COUNTER && id >= 0 && id < COUNTERS.length) {
+                visitor.visitCounter(COUNTERS[id], threadId, timestamp, value);
+            }
+        }
+    }
+
+    // Copies the recorded entries, so that they can be visited more than once and while recording goes
+    // on, e.g. on another thread.
+    public Snapshot snapshot() {
+        final Snapshot snapshot = new Snapshot();
+        accept(new Visitor() {
+            @Override
+            public void visitSpan(Span span, long threadId, long startNanos, long durationNanos) {
+                snapshot.add(KIND_SPAN, span.ordinal(), threadId, startNanos, durationNanos);
+            }
+
+            @Override
+            public void visitCounter(Counter counter, long threadId, long timeNanos, long value) {
+                snapshot.add(KIND_COUNTER, counter.ordinal(), threadId, timeNanos, value);
+            }
+        });
+        return snapshot;
+    }
+
+    // Logs the total time and call count of each span.
+    public void logSummary() {
+        final long[] totals = new long[SPANS.length];
+        final int[] calls = new int[SPANS.length];
+
+        accept(new Visitor() {
+            @Override
+            public void visitSpan(Span span, long threadId, long startNanos, long durationNanos) {
+                totals[span.ordinal()] += durationNanos;
+                calls[span.ordinal()]++;
+            }
+
+            @Override
+            public void visitCounter(Counter counter, long threadId, long timeNanos, long value) {
+            }
+        });
+
+        for (Span span : SPANS) {
+            if (calls[span.ordinal()] > 0) {
+                Log.d(DEBUG_TAG, String.format("%12s: %8.2f ms in %d calls",
+                        span.getLabel(), totals[span.ordinal()] / 1e6, calls[span.ordinal()]));
+            }
+        }
+    }
+
+    public static final class Snapshot {
+        private final byte[] kinds = new byte[CAPACITY];
+        private final byte[] ids = new byte[CAPACITY];
+        private final long[] threadIds = new long[CAPACITY];
+        private final long[] timestamps = new long[CAPACITY];
+        private final long[] values = new long[CAPACITY];
+        private int size = 0;
+
+        private Snapshot() {
+        }
+
+        private void add(int kind, int id, long threadId, long timestamp, long value) {
+            kinds[size] = (byte) kind;
+            ids[size] = (byte) id;
+            threadIds[size] = threadId;
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Visits the entries from the oldest.
+        public void accept(Visitor visitor) {
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] == KIND_SPAN) {
+                    visitor.visitSpan(SPANS[ids[i]], threadIds[i], timestamps[i], values[i]);
+                } else {
+                    visitor.visitCounter(COUNTERS[ids[i]], threadIds[i], timestamps[i], values[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.shuheikagawa.rectify;
+
+// Smooths document corners with a constant velocity Kalman filter and predicts them between
+// detections. The state is the position and velocity of each of the 8 corner coordinates.
+// With independent noise per coordinate the 16x16 filter splits into 8 filters of 2x2,
+// which are updated here in plain Java.
+//
+// org.opencv.video.KalmanFilter in 2.4.9 does not expose transitionMatrix, measurementMatrix or
+// the noise covariances to Java, so it cannot be set up for this model.
+//
+// Coordinates are in pixels and times are System.nanoTime() values. Not thread safe.
+public class QuadEstimator {
+    private static final int COORDINATES = 8;
+    // Predicted position standard deviation, in pixels, at which the confidence is 1/e.
+    private static final double CONFIDENCE_STD_PX = 8;
+    // Weight of the latest measurement in the average normalized innovation.
+    private static final double INNOVATION_SMOOTHING = 0.2;
+    // A measurement this many standard deviations away from the prediction on every
+    // coordinate is taken as a different document and restarts the filter.
+    private static final double RESTART_INNOVATION_SIGMAS = 6;
+
+    private final double measurementVariance;
+    private final double accelerationVariance;
+
+    private final double[] position = new double[COORDINATES];
+    private final double[] velocity = new double[COORDINATES];
+    // Covariance of each (position, velocity) pair.
+    private final double[] p00 = new double[COORDINATES];
+    private final double[] p01 = new double[COORDINATES];
+    private final double[] p11 = new double[COORDINATES];
+
+    private boolean initialized = false;
+    private long stateTimeNanos;
+    // Running average of the squared innovation divided by its expected variance. About 1 when
+    // the measurements agree with the model.
+    private double averageInnovation;
+
+    // measurementNoisePx: standard deviation of the detected corner positions.
+    // accelerationNoise: standard deviation of the corner acceleration in pixels/s^2.
+    public QuadEstimator(double measurementNoisePx, double accelerationNoise) {
+        this.measurementVariance = measurementNoisePx * measurementNoisePx;
+        this.accelerationVariance = accelerationNoise * accelerationNoise;
+    }
+
+    public boolean hasState() {
+        return initialized;
+    }
+
+    public void reset() {
+        initialized = false;
+    }
+
+    // Writes the corners predicted at timeNanos to quad. Returns false if there is no state yet.
+    public boolean predict(long timeNanos, float[] quad) {
+        if (!initialized) {
+            return false;
+        }
+        advance(timeNanos);
+        for (int i = 0; i < COORDINATES; i++) {
+            quad[i] = (float) position[i];
+        }
+        return true;
+    }
+
+    // Absorbs corners detected at timeNanos as x0, y0, ..., x3, y3.
+    public void correct(long timeNanos, float[] measuredQuad) {
+        if (!initialized) {
+            start(timeNanos, measuredQuad);
+            return;
+        }
+        advance(timeNanos);
+
+        double innovationSum = 0;
+        int outliers = 0;
+        for (int i = 0; i < COORDINATES; i++) {
+            double innovation = measuredQuad[i] - position[i];
+            double innovationVariance = p00[i] + measurementVariance;
+            double normalized = innovation * innovation / innovationVariance;
+            innovationSum += normalized;
+            if (normalized > RESTART_INNOVATION_SIGMAS * RESTART_INNOVATION_SIGMAS) {
+                outliers++;
+            }
+        }
+        if (outliers == COORDINATES) {
+            start(timeNanos, measuredQuad);
+            return;
+        }
+        averageInnovation += INNOVATION_SMOOTHING * (innovationSum / COORDINATES - averageInnovation);
+
+        for (int i = 0; i < COORDINATES; i++) {
+            double innovation = measuredQuad[i] - position[i];
+            double innovationVariance = p00[i] + measurementVariance;
+            double gainPosition = p00[i] / innovationVariance;
+            double gainVelocity = p01[i] / innovationVariance;
+
+            position[i] += gainPosition * innovation;
+            velocity[i] += gainVelocity * innovation;
+
+            p11[i] -= gainVelocity * p01[i];
+            p01[i] *= 1 - gainPosition;
+            p00[i] *= 1 - gainPosition;
+        }
+    }
+
+    // From 0 to 1. High when the predicted corners are precise and recent measurements agreed with
+    // the model, so detection can run less often. Drops as time passes without measurements.
+    public double getConfidence(long timeNanos) {
+        if (!initialized) {
+            return 0;
+        }
+        double dt = Math.max(0, (timeNanos - stateTimeNanos) / 1e9);
+        double variance = 0;
+        for (int i = 0; i < COORDINATES; i++) {
+            double predictedVariance = p00[i] + 2 * dt * p01[i] + dt * dt * p11[i] +
+                    accelerationVariance * dt * dt * dt * dt / 4;
+            variance += predictedVariance / COORDINATES;
+        }
+        double precision = Math.exp(-Math.sqrt(variance) / CONFIDENCE_STD_PX);
+        double consistency = 1 / (1 + Math.max(0, averageInnovation - 1));
+        return precision * consistency;
+    }
+
+    private void start(long timeNanos, float[] quad) {
+        for (int i = 0; i < COORDINATES; i++) {
+            position[i] = quad[i];
+            velocity[i] = 0;
+            p00[i] = measurementVariance;
+            p01[i] = 0;
+            // Unknown velocity: allow a corner to cross a large part of the frame per second.
+            p11[i] = 100 * measurementVariance + accelerationVariance;
+        }
+        averageInnovation = 1;
+        stateTimeNanos = timeNanos;
+        initialized = true;
+    }
+
+    // Moves the state to timeNanos. Process noise is white acceleration.
+    private void advance(long timeNanos) {
+        double dt = (timeNanos - stateTimeNanos) / 1e9;
+        if (dt <= 0) {
+            return;
+        }
+        double dt2 = dt * dt;
+        double q00 = accelerationVariance * dt2 * dt2 / 4;
+        double q01 = accelerationVariance * dt2 * dt / 2;
+        double q11 = accelerationVariance * dt2;
+
+        for (int i = 0; i < COORDINATES; i++) {
+            position[i] += velocity[i] * dt;
+            p00[i] += 2 * dt * p01[i] + dt2 * p11[i] + q00;
+            p01[i] += dt * p11[i] + q01;
+            p11[i] += q11;
+        }
+        stateTimeNanos = timeNanos;
+    }
+}
@@ -2,15 +2,20 @@ package com.shuheikagawa.rectify;
 
 import android.util.Log;
 
+import com.shuheikagawa.rectify.core.ContourTracer;
+import com.shuheikagawa.rectify.core.DetectionProfile;
+import com.shuheikagawa.rectify.core.JpegDecoder;
+import com.shuheikagawa.rectify.core.RectDetector;
+
+import org.opencv.core.ContourBuffer;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfInt;
-import org.opencv.core.MatOfPoint;
 import org.opencv.core.MatOfPoint2f;
-import org.opencv.core.Point;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
+import org.opencv.utils.Converters;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -19,30 +24,69 @@ import java.util.List;
 
 public class RectFinder {
     private static final String DEBUG_TAG = "RectFinder";
-    private static final int N = 5; // 11 in the original sample.
-    private static final int CANNY_THRESHOLD = 50;
-    private static final double DOWNSCALE_IMAGE_SIZE = 600f;
 
-    private double areaLowerThresholdRatio;
-    private double areaUpperThresholdRatio;
+    // Implementation of the image processing front-end: downscale, blur, channel split, Canny,
+    // threshold, dilate and contour tracing.
+    public enum Backend {
+        OPENCV,
+        // Kernels of the core module, which also run on a desktop or server JVM.
+        JAVA
+    }
+
+    private final PipelineTracer tracer = PipelineTracer.getInstance();
+
+    private final ContourBuffer contours = new ContourBuffer();
+    // Created on first use by findRectangle(byte[]).
+    private JpegDecoder jpegDecoder;
+
+    private final DetectionProfile profile;
+    private final Backend backend;
+
+    // Approximates and filters the contours of both backends. Its pixel buffers, reused while the
+    // image size stays the same, are used by the Java backend only.
+    private final RectDetector detector;
+    // Java backend only.
+    private byte[] sourcePixels = new byte[0];
 
     public RectFinder(double areaLowerThresholdRatio, double areaUpperThresholdRatio) {
-        this.areaLowerThresholdRatio = areaLowerThresholdRatio;
-        this.areaUpperThresholdRatio = areaUpperThresholdRatio;
+        this(areaLowerThresholdRatio, areaUpperThresholdRatio, Backend.OPENCV);
+    }
+
+    public RectFinder(double areaLowerThresholdRatio, double areaUpperThresholdRatio, Backend backend) {
+        this.profile = new DetectionProfile(areaLowerThresholdRatio, areaUpperThresholdRatio);
+        this.backend = backend;
+        this.detector = new RectDetector(profile);
     }
 
     public MatOfPoint2f findRectangle(Mat src) {
         // Downscale image for better performance.
-        double ratio = DOWNSCALE_IMAGE_SIZE / Math.max(src.width(), src.height());
-        Size downscaledSize = new Size(src.width() * ratio, src.height() * ratio);
-        Log.d(DEBUG_TAG, "Before downscaling: " + src.size());
-        Mat downscaled = new Mat(downscaledSize, src.type());
-        Log.d(DEBUG_TAG, "After downscaling: " + downscaled.size());
-        Imgproc.resize(src, downscaled, downscaledSize);
+        long start = tracer.begin();
+        double ratio = detector.downscaleRatio(src.width(), src.height());
+        int downscaledWidth = (int) (src.width() * ratio);
+        int downscaledHeight = (int) (src.height() * ratio);
+        Mat downscaled = null;
+        if (backend == Backend.JAVA) {
+            downscaleJava(src, downscaledWidth, downscaledHeight);
+        } else {
+            Size downscaledSize = new Size(downscaledWidth, downscaledHeight);
+            downscaled = new Mat(downscaledSize, src.type());
+            Imgproc.resize(src, downscaled, downscaledSize);
+        }
+        tracer.end(PipelineTracer.Span.DOWNSCALE, start);
+        if (BuildConfig.DEBUG) {
+            Log.d(DEBUG_TAG, "Downscaled from " + src.size() + " to " + downscaledWidth + "x" + downscaledHeight);
+        }
 
-        // Find rectangles.
-        List<MatOfPoint2f> rectangles = findRectangles(downscaled);
-        Log.d(DEBUG_TAG, rectangles.size() + " rectangles found.");
+        // Find rectangles. The Java backend works on the downscaled image in the detector, without
+        // a round trip through a Mat.
+        List<MatOfPoint2f> rectangles = new ArrayList<MatOfPoint2f>();
+        if (downscaled == null) {
+            findRectanglesJava(rectangles);
+        } else {
+            findRectanglesOpenCV(downscaled, rectangles);
+            downscaled.release();
+        }
+        tracer.count(PipelineTracer.Counter.CANDIDATES, rectangles.size());
 
         if (rectangles.size() == 0) {
             Log.d(DEBUG_TAG, "No rectangles found.");
@@ -50,16 +94,54 @@ public class RectFinder {
         }
 
         // Pick up the largest rectangle.
+        start = tracer.begin();
         Collections.sort(rectangles, AreaDescendingComparator);
-        Log.d(DEBUG_TAG, "Sorted rectangles.");
-
         MatOfPoint2f largestRectangle = rectangles.get(0);
-        Log.d(DEBUG_TAG, "Before scaling up: " + GeomUtils.pointsToString(largestRectangle));
 
         // Take back the scale.
         MatOfPoint2f result = GeomUtils.scaleRectangle(largestRectangle, 1f / ratio);
-        Log.d(DEBUG_TAG, "After scaling up: " + GeomUtils.pointsToString(result));
+        tracer.end(PipelineTracer.Span.SELECT, start);
+
+        if (BuildConfig.DEBUG) {
+            Log.d(DEBUG_TAG, rectangles.size() + " rectangles found.");
+            Log.d(DEBUG_TAG, "Before scaling up: " + GeomUtils.pointsToString(largestRectangle));
+            Log.d(DEBUG_TAG, "After scaling up: " + GeomUtils.pointsToString(result));
+        }
+
+        for (MatOfPoint2f rectangle : rectangles) {
+            rectangle.release();
+        }
+
+        return result;
+    }
+
+    // Finds the largest rectangle in a JPEG image such as a camera capture. The image is decoded at
+    // the smallest DCT scale that still covers the detection size, so the decoding cost no longer
+    // grows with the resolution of the capture. Returns corners in the coordinates of the full image.
+    public MatOfPoint2f findRectangle(byte[] jpeg) {
+        if (jpegDecoder == null) {
+            jpegDecoder = new JpegDecoder();
+        }
+
+        long start = tracer.begin();
+        jpegDecoder.readHeader(jpeg);
+        int scale = JpegDecoder.scaleFor(jpegDecoder.getWidth(), jpegDecoder.getHeight(),
+                (int) profile.getDownscaleImageSize());
+        jpegDecoder.decode(jpeg, scale, false);
+        Mat decoded = new Mat(jpegDecoder.getOutputHeight(), jpegDecoder.getOutputWidth(), CvType.CV_8UC4);
+        decoded.put(0, 0, jpegDecoder.getPixels());
+        tracer.end(PipelineTracer.Span.DECODE, start);
+        if (BuildConfig.DEBUG) {
+            Log.d(DEBUG_TAG, "Decoded " + jpegDecoder.getWidth() + "x" + jpegDecoder.getHeight() + " JPEG at 1/" + scale);
+        }
 
+        MatOfPoint2f found = findRectangle(decoded);
+        decoded.release();
+        if (found == null) {
+            return null;
+        }
+        MatOfPoint2f result = GeomUtils.scaleRectangle(found, scale);
+        found.release();
         return result;
     }
 
@@ -73,98 +155,153 @@ public class RectFinder {
     };
 
     public List<MatOfPoint2f> findRectangles(Mat src) {
+        List<MatOfPoint2f> rectangles = new ArrayList<MatOfPoint2f>();
+        if (backend == Backend.JAVA) {
+            src.get(0, 0, detector.prepareImage(src.cols(), src.rows(), src.channels()));
+            findRectanglesJava(rectangles);
+        } else {
+            findRectanglesOpenCV(src, rectangles);
+        }
+        return rectangles;
+    }
+
+    private void findRectanglesOpenCV(Mat src, List<MatOfPoint2f> rectangles) {
         // Blur the image to filter out the noise.
+        long start = tracer.begin();
         Mat blurred = new Mat();
-        Imgproc.medianBlur(src, blurred, 9);
+        Imgproc.medianBlur(src, blurred, DetectionProfile.MEDIAN_KERNEL_SIZE);
+        tracer.end(PipelineTracer.Span.BLUR, start);
 
         // Set up images to use.
         Mat gray0 = new Mat(blurred.size(), CvType.CV_8U);
         Mat gray = new Mat();
 
-        // For Core.mixChannels.
-        List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
-        List<MatOfPoint2f> rectangles = new ArrayList<MatOfPoint2f>();
+        // Dilation kernel for Canny output.
+        Mat kernel = Mat.ones(new Size(3, 3), 0);
 
+        // For Core.mixChannels.
         List<Mat> sources = new ArrayList<Mat>();
         sources.add(blurred);
         List<Mat> destinations = new ArrayList<Mat>();
         destinations.add(gray0);
+        int[] ch = new int[2];
+        MatOfInt fromTo = new MatOfInt();
 
         // To filter rectangles by their areas.
         int srcArea = src.rows() * src.cols();
+        detector.clearCandidates();
 
         // Find squares in every color plane of the image.
         for (int c = 0; c < 3; c++) {
-            int[] ch = {c, 0};
-            MatOfInt fromTo = new MatOfInt(ch);
+            ch[0] = c;
 
+            start = tracer.begin();
+            Converters.vector_int_to_Mat(ch, 2, fromTo);
             Core.mixChannels(sources, destinations, fromTo);
+            tracer.end(PipelineTracer.Span.MIX_CHANNELS, start);
 
             // Try several threshold levels.
-            for (int l = 0; l < N; l++) {
+            for (int l = 0; l < profile.getThresholdLevels(); l++) {
+                start = tracer.begin();
                 if (l == 0) {
                     // HACK: Use Canny instead of zero threshold level.
                     // Canny helps to catch squares with gradient shading.
                     // NOTE: No kernel size parameters on Java API.
-                    Imgproc.Canny(gray0, gray, 0, CANNY_THRESHOLD);
+                    Imgproc.Canny(gray0, gray, 0, profile.getCannyThreshold());
 
                     // Dilate Canny output to remove potential holes between edge segments.
-                    Imgproc.dilate(gray, gray, Mat.ones(new Size(3, 3), 0));
+                    Imgproc.dilate(gray, gray, kernel);
+                    tracer.end(PipelineTracer.Span.CANNY, start);
                 } else {
-                    int threshold = (l + 1) * 255 / N;
-                    Imgproc.threshold(gray0, gray, threshold, 255, Imgproc.THRESH_BINARY);
+                    Imgproc.threshold(gray0, gray, profile.thresholdAt(l), 255, Imgproc.THRESH_BINARY);
+                    tracer.end(PipelineTracer.Span.THRESHOLD, start);
                 }
 
-                // Find contours and store them all as a list.
-                Imgproc.findContours(gray, contours, new Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
-
-                for (MatOfPoint contour : contours) {
-                    MatOfPoint2f contourFloat = GeomUtils.toMatOfPointFloat(contour);
-                    double arcLen = Imgproc.arcLength(contourFloat, true) * 0.02;
-
-                    // Approximate polygonal curves.
-                    MatOfPoint2f approx = new MatOfPoint2f();
-                    Imgproc.approxPolyDP(contourFloat, approx, arcLen, true);
+                // Find contours into the packed buffer. No Java object per contour.
+                start = tracer.begin();
+                Imgproc.findContours(gray, contours, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+                tracer.end(PipelineTracer.Span.FIND_CONTOURS, start);
 
-                    if (isRectangle(approx, srcArea)) {
-                        rectangles.add(approx);
-                    }
-                }
+                collectCandidates(contours.getPoints(), contours.getOffsets(), contours.getLengths(),
+                        contours.size(), srcArea);
             }
         }
+        addCandidates(rectangles);
 
-        return rectangles;
+        blurred.release();
+        gray0.release();
+        gray.release();
+        kernel.release();
+        fromTo.release();
     }
 
-    private boolean isRectangle(MatOfPoint2f polygon, int srcArea) {
-        MatOfPoint polygonInt = GeomUtils.toMatOfPointInt(polygon);
-
-        if (polygon.rows() != 4) {
-            return false;
-        }
+    // Same steps as findRectanglesOpenCV() with the stages of the core RectDetector, on the image
+    // already in the detector.
+    private void findRectanglesJava(List<MatOfPoint2f> rectangles) {
+        int srcArea = detector.getWidth() * detector.getHeight();
+        detector.clearCandidates();
 
-        double area = Math.abs(Imgproc.contourArea(polygon));
-        if (area < srcArea * areaLowerThresholdRatio || area > srcArea * areaUpperThresholdRatio) {
-            return false;
-        }
+        long start = tracer.begin();
+        detector.blur();
+        tracer.end(PipelineTracer.Span.BLUR, start);
 
-        if (!Imgproc.isContourConvex(polygonInt)) {
-            return false;
+        for (int c = 0; c < 3; c++) {
+            start = tracer.begin();
+            detector.extractPlane(c);
+            tracer.end(PipelineTracer.Span.MIX_CHANNELS, start);
+
+            for (int l = 0; l < profile.getThresholdLevels(); l++) {
+                start = tracer.begin();
+                detector.binarize(l);
+                tracer.end(l == 0 ? PipelineTracer.Span.CANNY : PipelineTracer.Span.THRESHOLD, start);
+
+                start = tracer.begin();
+                detector.traceContours();
+                tracer.end(PipelineTracer.Span.FIND_CONTOURS, start);
+
+                ContourTracer contourTracer = detector.getContours();
+                collectCandidates(contourTracer.getPoints(), contourTracer.getOffsets(), contourTracer.getLengths(),
+                        contourTracer.size(), srcArea);
+            }
         }
+        addCandidates(rectangles);
+    }
 
-        // Check if the all angles are more than 72.54 degrees (cos 0.3).
-        double maxCosine = 0;
-        Point[] approxPoints = polygon.toArray();
+    // Keeps the rectangles among the packed contours as candidates of the detector. Both
+    // ContourBuffer and ContourTracer store contours this way.
+    private void collectCandidates(int[] points, int[] offsets, int[] lengths, int count, int srcArea) {
+        tracer.count(PipelineTracer.Counter.CONTOURS, count);
+        // Polygon approximation, stopping early on anything but small polygons.
+        long start = tracer.begin();
+        detector.approximateQuads(points, offsets, lengths, count, srcArea);
+        tracer.end(PipelineTracer.Span.APPROX, start);
+
+        start = tracer.begin();
+        detector.filterQuads(srcArea);
+        tracer.end(PipelineTracer.Span.FILTER, start);
+    }
 
-        for (int i = 2; i < 5; i++) {
-            double cosine = Math.abs(GeomUtils.angle(approxPoints[i % 4], approxPoints[i - 2], approxPoints[i - 1]));
-            maxCosine = Math.max(cosine, maxCosine);
+    // Adds a copy of every candidate of the detector to rectangles.
+    private void addCandidates(List<MatOfPoint2f> rectangles) {
+        float[] candidates = detector.getCandidates();
+        for (int i = 0; i < detector.getCandidateCount(); i++) {
+            MatOfPoint2f rectangle = new MatOfPoint2f();
+            rectangle.fromArray(candidates, i * 8, 4);
+            rectangles.add(rectangle);
         }
+    }
 
-        if (maxCosine >= 0.3) {
-            return false;
-        }
+    // Area downscale of the Java backend into the image of the detector. Reads the whole source
+    // image once.
+    private void downscaleJava(Mat src, int width, int height) {
+        int channels = src.channels();
+        sourcePixels = resize(sourcePixels, (int) src.total() * channels);
+        src.get(0, 0, sourcePixels);
+        detector.downscale(sourcePixels, src.cols(), src.rows(), channels, width, height);
+    }
 
-        return true;
+    // Keeps buffers at the exact image size for Mat.get() and put().
+    private static byte[] resize(byte[] buffer, int length) {
+        return buffer.length == length ? buffer : new byte[length];
     }
 }
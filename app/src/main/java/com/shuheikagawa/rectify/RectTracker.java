@@ -0,0 +1,306 @@
+package com.shuheikagawa.rectify;
+
+import android.util.Log;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+// Follows a document across camera frames. RectFinder runs only on keyframes. In between, the four
+// corners and a few features inside the document are tracked with pyramidal Lucas-Kanade optical flow
+// on a small grayscale copy of the frame. Full detection runs again when the track degrades.
+// Keyframe detections also feed a QuadEstimator. Its prediction is the starting guess of the optical
+// flow in between, and the less it trusts that prediction, the sooner the next keyframe comes.
+// Frames that barely differ from the last analysed one are not analysed at all, see MotionGate.
+//
+// As a CvCameraViewAnalyzer, it runs on the analysis thread of a CameraBridgeViewBase and the found
+// document is drawn over the preview.
+//
+// Nothing creates a RectTracker yet. CameraActivity shows its preview through CameraPreview, a
+// SurfaceView that android.hardware.Camera draws into directly, so no frames reach the app before the
+// shutter. Live tracking needs a JavaCameraView in the camera layout instead, with the tracker passed
+// to setCvCameraViewAnalyzer().
+//
+// Not thread safe. Call update() from a single thread and release() when done.
+public class RectTracker implements CameraBridgeViewBase.CvCameraViewAnalyzer {
+    private static final String DEBUG_TAG = "RectTracker";
+    // Longer side of the grayscale image used for tracking.
+    private static final double TRACK_IMAGE_SIZE = 320;
+    // Frames between keyframes when the estimator has no confidence and when it is fully confident.
+    // Full detection runs at least this often even when the track looks fine.
+    private static final int MIN_KEYFRAME_INTERVAL = 5;
+    private static final int MAX_KEYFRAME_INTERVAL = 60;
+    // Estimator noise in tracking image pixels: detected corner jitter and hand shake acceleration.
+    private static final double MEASUREMENT_NOISE_PX = 1;
+    private static final double ACCELERATION_NOISE = 100;
+    private static final int MAX_FEATURES = 12;
+    private static final Size WINDOW_SIZE = new Size(15, 15);
+    private static final int MAX_PYRAMID_LEVEL = 2;
+    // Defaults of calcOpticalFlowPyrLK, spelled out to pass OPTFLOW_USE_INITIAL_FLOW.
+    private static final TermCriteria TERM_CRITERIA = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 30, 0.01);
+    private static final double MIN_EIGEN_THRESHOLD = 1e-4;
+    // Mean intensity difference in the window above which a point counts as lost.
+    private static final float MAX_TRACK_ERROR = 30f;
+    // Fraction of the interior features that must survive.
+    private static final double MIN_FEATURE_RATIO = 0.5;
+    // Maximum area change between two consecutive frames.
+    private static final double MAX_AREA_CHANGE = 1.25;
+
+    private final RectFinder rectFinder;
+    private final PipelineTracer tracer = PipelineTracer.getInstance();
+    private final MotionGate motionGate = new MotionGate();
+    // Corners of keyframe detections, in tracking image coordinates.
+    private final QuadEstimator estimator = new QuadEstimator(MEASUREMENT_NOISE_PX, ACCELERATION_NOISE);
+
+    private final Mat resized = new Mat();
+    private Mat previousGray = new Mat();
+    private Mat gray = new Mat();
+    private final Mat mask = new Mat();
+    private final MatOfPoint maskPolygon = new MatOfPoint();
+    private final MatOfPoint features = new MatOfPoint();
+    private final MatOfPoint2f previousPoints = new MatOfPoint2f();
+    private final MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfFloat errors = new MatOfFloat();
+
+    // Points in tracking image coordinates: the 4 corners followed by the features.
+    private final float[] points = new float[(4 + MAX_FEATURES) * 2];
+    private final float[] trackedPoints = new float[(4 + MAX_FEATURES) * 2];
+    private final int[] featureBuffer = new int[MAX_FEATURES * 2];
+    private final int[] polygonBuffer = new int[8];
+    private final byte[] statusBuffer = new byte[4 + MAX_FEATURES];
+    private final float[] errorBuffer = new float[4 + MAX_FEATURES];
+    private final float[] quadBuffer = new float[8];
+    private final float[] predictedQuad = new float[8];
+
+    private boolean tracking = false;
+    private boolean hasResult = false;
+    private boolean lastFound;
+    private boolean lastWasSkipped;
+    private int featureCount;
+    private int framesSinceKeyframe;
+    private double scale;
+    private boolean lastWasKeyframe;
+
+    public RectTracker(RectFinder rectFinder) {
+        this.rectFinder = rectFinder;
+    }
+
+    // Finds the document in an RGBA frame and writes its corners in frame coordinates to quad
+    // as x0, y0, ..., x3, y3. Returns false if no document is found.
+    public boolean update(Mat rgba, float[] quad) {
+        // Reuse the previous result while the scene is static. The gate must see every frame,
+        // as accept() below takes the thumbnail made by hasChanged().
+        long start = tracer.begin();
+        boolean changed = motionGate.hasChanged(rgba) || !hasResult;
+        tracer.end(PipelineTracer.Span.MOTION_GATE, start);
+        lastWasSkipped = !changed;
+        if (!changed) {
+            lastWasKeyframe = false;
+            return lastFound && writeQuad(quad);
+        }
+        motionGate.accept();
+        hasResult = true;
+
+        start = tracer.begin();
+        scale = TRACK_IMAGE_SIZE / Math.max(rgba.width(), rgba.height());
+        Imgproc.resize(rgba, resized, new Size(rgba.width() * scale, rgba.height() * scale), 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(resized, gray, Imgproc.COLOR_RGBA2GRAY);
+
+        long now = System.nanoTime();
+        boolean found;
+        if (tracking && framesSinceKeyframe < keyframeInterval(now) && track(now)) {
+            framesSinceKeyframe++;
+            lastWasKeyframe = false;
+            found = true;
+        } else {
+            found = detect(rgba, now);
+            framesSinceKeyframe = 0;
+            lastWasKeyframe = true;
+        }
+        tracer.end(PipelineTracer.Span.TRACK, start);
+
+        // The current image becomes the reference for the next frame.
+        Mat swap = previousGray;
+        previousGray = gray;
+        gray = swap;
+
+        lastFound = found;
+        return found && writeQuad(quad);
+    }
+
+    // Returns a new array, as the view keeps drawing the result while the next frame is analysed.
+    @Override
+    public float[] analyzeFrame(Mat rgba) {
+        float[] quad = new float[8];
+        return update(rgba, quad) ? quad : null;
+    }
+
+    private boolean writeQuad(float[] quad) {
+        for (int i = 0; i < 8; i++) {
+            quad[i] = (float) (points[i] / scale);
+        }
+        return true;
+    }
+
+    // True if the last update() ran full detection.
+    public boolean isKeyframe() {
+        return lastWasKeyframe;
+    }
+
+    // True if the last update() reused the previous result because the scene did not change.
+    public boolean isSkipped() {
+        return lastWasSkipped;
+    }
+
+    // Forces full detection on the next frame.
+    public void reset() {
+        tracking = false;
+        hasResult = false;
+        estimator.reset();
+        motionGate.reset();
+    }
+
+    public void release() {
+        motionGate.release();
+        resized.release();
+        previousGray.release();
+        gray.release();
+        mask.release();
+        maskPolygon.release();
+        features.release();
+        previousPoints.release();
+        nextPoints.release();
+        status.release();
+        errors.release();
+    }
+
+    // Frames to track before the next keyframe, fewer as the estimator grows less confident.
+    private int keyframeInterval(long timeNanos) {
+        double confidence = estimator.getConfidence(timeNanos);
+        return MIN_KEYFRAME_INTERVAL + (int) Math.round(confidence * (MAX_KEYFRAME_INTERVAL - MIN_KEYFRAME_INTERVAL));
+    }
+
+    private boolean detect(Mat rgba, long timeNanos) {
+        MatOfPoint2f rectangle = rectFinder.findRectangle(rgba);
+        tracking = rectangle != null;
+        if (!tracking) {
+            // The document is gone. Its motion says nothing about the next one.
+            estimator.reset();
+            return false;
+        }
+
+        rectangle.toArray(quadBuffer, 0);
+        rectangle.release();
+        for (int i = 0; i < 8; i++) {
+            points[i] = (float) (quadBuffer[i] * scale);
+        }
+        estimator.correct(timeNanos, points);
+        findFeatures();
+        return true;
+    }
+
+    // Picks well textured points inside the document to check the health of the track.
+    private void findFeatures() {
+        for (int i = 0; i < 8; i++) {
+            polygonBuffer[i] = Math.round(points[i]);
+        }
+        maskPolygon.fromArray(polygonBuffer, 0, 4);
+        mask.create(gray.size(), CvType.CV_8UC1);
+        mask.setTo(Scalar.all(0));
+        Core.fillConvexPoly(mask, maskPolygon, Scalar.all(255));
+
+        Imgproc.goodFeaturesToTrack(gray, features, MAX_FEATURES, 0.01, TRACK_IMAGE_SIZE / 20, mask, 3, false, 0.04);
+        featureCount = features.toArray(featureBuffer, 0);
+        for (int i = 0; i < featureCount * 2; i++) {
+            points[8 + i] = featureBuffer[i];
+        }
+    }
+
+    private boolean track(long timeNanos) {
+        int count = 4 + featureCount;
+        previousPoints.fromArray(points, 0, count);
+        int flags = 0;
+        if (estimator.predict(timeNanos, predictedQuad)) {
+            guessPoints(count);
+            nextPoints.fromArray(trackedPoints, 0, count);
+            flags = Video.OPTFLOW_USE_INITIAL_FLOW;
+        }
+        Video.calcOpticalFlowPyrLK(previousGray, gray, previousPoints, nextPoints, status, errors,
+                WINDOW_SIZE, MAX_PYRAMID_LEVEL, TERM_CRITERIA, flags, MIN_EIGEN_THRESHOLD);
+        nextPoints.toArray(trackedPoints, 0);
+        status.get(0, 0, statusBuffer);
+        errors.get(0, 0, errorBuffer);
+
+        // All corners are required.
+        for (int i = 0; i < 4; i++) {
+            if (!isTracked(i)) {
+                return lost("corner " + i);
+            }
+        }
+
+        // Keep the surviving features only.
+        int survivors = 0;
+        for (int i = 4; i < count; i++) {
+            if (isTracked(i)) {
+                trackedPoints[(4 + survivors) * 2] = trackedPoints[i * 2];
+                trackedPoints[(4 + survivors) * 2 + 1] = trackedPoints[i * 2 + 1];
+                survivors++;
+            }
+        }
+        if (survivors < featureCount * MIN_FEATURE_RATIO) {
+            return lost(survivors + " of " + featureCount + " features");
+        }
+
+        // The document must stay a convex quadrangle of about the same size.
+        double previousArea = Math.abs(GeomUtils.polygonArea(points, 4));
+        double area = Math.abs(GeomUtils.polygonArea(trackedPoints, 4));
+        if (!GeomUtils.isConvex(trackedPoints, 4) ||
+                area * MAX_AREA_CHANGE < previousArea || area > previousArea * MAX_AREA_CHANGE) {
+            return lost("shape");
+        }
+
+        System.arraycopy(trackedPoints, 0, points, 0, (4 + survivors) * 2);
+        featureCount = survivors;
+        return true;
+    }
+
+    // Starts the corners at their predicted positions and moves the features by the mean predicted
+    // corner motion, so that fast pans stay within the search window.
+    private void guessPoints(int count) {
+        float dx = 0;
+        float dy = 0;
+        for (int i = 0; i < 4; i++) {
+            trackedPoints[i * 2] = predictedQuad[i * 2];
+            trackedPoints[i * 2 + 1] = predictedQuad[i * 2 + 1];
+            dx += (predictedQuad[i * 2] - points[i * 2]) / 4;
+            dy += (predictedQuad[i * 2 + 1] - points[i * 2 + 1]) / 4;
+        }
+        for (int i = 4; i < count; i++) {
+            trackedPoints[i * 2] = points[i * 2] + dx;
+            trackedPoints[i * 2 + 1] = points[i * 2 + 1] + dy;
+        }
+    }
+
+    private boolean isTracked(int index) {
+        return statusBuffer[index] != 0 && errorBuffer[index] <= MAX_TRACK_ERROR;
+    }
+
+    private boolean lost(String reason) {
+        if (BuildConfig.DEBUG) {
+            Log.d(DEBUG_TAG, "Track lost: " + reason);
+        }
+        tracking = false;
+        return false;
+    }
+}
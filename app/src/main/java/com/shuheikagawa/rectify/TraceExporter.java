@@ -0,0 +1,179 @@
+package com.shuheikagawa.rectify;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Dumps the spans recorded by PipelineTracer as Chrome trace-event JSON.
+// Open the file with chrome://tracing or https://ui.perfetto.dev.
+public class TraceExporter {
+    private static final String DEBUG_TAG = "TraceExporter";
+
+    private final PipelineTracer tracer;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Callbacks are delivered on the main thread.
+    public interface Callback {
+        void onTraceDumped(File file);
+
+        void onTraceDumpFailed(File file, Exception e);
+    }
+
+    public TraceExporter(PipelineTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    // Writes the trace on a background thread and calls back on the main thread. The entries are
+    // copied right away, so that spans recorded while writing, including those of the I/O thread,
+    // don't race with the serialisation.
+    public void export(final File file, final Callback callback) {
+        final PipelineTracer.Snapshot snapshot = tracer.snapshot();
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(snapshot, file);
+                    Log.d(DEBUG_TAG, "Dumped trace to " + file);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onTraceDumped(file);
+                        }
+                    });
+                } catch (final IOException e) {
+                    Log.e(DEBUG_TAG, "Failed to dump trace to " + file, e);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onTraceDumpFailed(file, e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        ioExecutor.shutdown();
+    }
+
+    // Writes to a temporary file first, like ImageExporter, so that a failed dump does not leave a
+    // truncated trace.
+    public void write(PipelineTracer.Snapshot snapshot, File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        boolean written = false;
+
+        try {
+            FileOutputStream stream = new FileOutputStream(tempFile);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+            try {
+                write(snapshot, writer);
+                writer.flush();
+                stream.getChannel().force(false);
+            } finally {
+                writer.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    public void write(PipelineTracer.Snapshot snapshot, final Writer writer) throws IOException {
+        final long origin = findOrigin(snapshot);
+        final int pid = Process.myPid();
+        final StringBuilder event = new StringBuilder(128);
+        // Visitor methods cannot throw IOException.
+        final IOException[] error = new IOException[1];
+
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+
+        snapshot.accept(new PipelineTracer.Visitor() {
+            private boolean first = true;
+
+            @Override
+            public void visitSpan(PipelineTracer.Span span, long threadId, long startNanos, long durationNanos) {
+                event.setLength(0);
+                event.append("{\"name\":\"").append(span.getLabel())
+                        .append("\",\"cat\":\"rectify\",\"ph\":\"X\",\"ts\":").append(toMicros(startNanos - origin))
+                        .append(",\"dur\":").append(toMicros(durationNanos))
+                        .append(",\"pid\":").append(pid)
+                        .append(",\"tid\":").append(threadId).append('}');
+                append();
+            }
+
+            @Override
+            public void visitCounter(PipelineTracer.Counter counter, long threadId, long timeNanos, long value) {
+                event.setLength(0);
+                event.append("{\"name\":\"").append(counter.getLabel())
+                        .append("\",\"cat\":\"rectify\",\"ph\":\"C\",\"ts\":").append(toMicros(timeNanos - origin))
+                        .append(",\"pid\":").append(pid)
+                        .append(",\"tid\":").append(threadId)
+                        .append(",\"args\":{\"value\":").append(value).append("}}");
+                append();
+            }
+
+            private void append() {
+                if (error[0] != null) {
+                    return;
+                }
+                try {
+                    if (!first) {
+                        writer.write(",\n");
+                    }
+                    first = false;
+                    writer.append(event);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        });
+
+        if (error[0] != null) {
+            throw error[0];
+        }
+
+        writer.write("\n]}\n");
+    }
+
+    // Timestamps are written relative to the oldest entry to keep them short.
+    private static long findOrigin(PipelineTracer.Snapshot snapshot) {
+        final long[] origin = {Long.MAX_VALUE};
+
+        snapshot.accept(new PipelineTracer.Visitor() {
+            @Override
+            public void visitSpan(PipelineTracer.Span span, long threadId, long startNanos, long durationNanos) {
+                origin[0] = Math.min(origin[0], startNanos);
+            }
+
+            @Override
+            public void visitCounter(PipelineTracer.Counter counter, long threadId, long timeNanos, long value) {
+                origin[0] = Math.min(origin[0], timeNanos);
+            }
+        });
+
+        return origin[0] == Long.MAX_VALUE ? 0 : origin[0];
+    }
+
+    private static String toMicros(long nanos) {
+        return String.format(Locale.US, "%d.%03d", nanos / 1000, nanos % 1000);
+    }
+}
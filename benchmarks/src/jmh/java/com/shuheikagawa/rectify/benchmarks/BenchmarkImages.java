@@ -0,0 +1,24 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import com.shuheikagawa.rectify.core.SceneGenerator;
+
+// The document scene every suite runs on, regenerated from a fixed seed instead of stored.
+final class BenchmarkImages {
+    static final int CHANNELS = SceneGenerator.CHANNELS;
+    private static final long SEED = 42;
+
+    private BenchmarkImages() {
+    }
+
+    // Parses a "640x480" parameter into {width, height}.
+    static int[] parseSize(String size) {
+        int separator = size.indexOf('x');
+        return new int[]{Integer.parseInt(size.substring(0, separator)), Integer.parseInt(size.substring(separator + 1))};
+    }
+
+    static SceneGenerator.Scene document(int width, int height) {
+        SceneGenerator generator = new SceneGenerator(width, height);
+        generator.setNoise(4);
+        return generator.generate(SEED);
+    }
+}
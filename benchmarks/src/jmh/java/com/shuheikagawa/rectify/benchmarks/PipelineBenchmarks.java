@@ -0,0 +1,84 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import com.shuheikagawa.rectify.core.DetectionProfile;
+import com.shuheikagawa.rectify.core.Homography;
+import com.shuheikagawa.rectify.core.PerspectiveWarper;
+import com.shuheikagawa.rectify.core.RectDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+// Detection end to end, and detection followed by the warp of the document found.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PipelineBenchmarks {
+    @Param({"640x480", "1920x1080", "3264x2448"})
+    public String size;
+
+    @Param({"0.2", "0.05"})
+    public double areaLowerThresholdRatio;
+
+    private byte[] image;
+    private int width;
+    private int height;
+    private RectDetector detector;
+    private PerspectiveWarper warper;
+    private final float[] quad = new float[8];
+    // Grows to the largest result seen.
+    private byte[] result = new byte[0];
+
+    @Setup
+    public void setUp() {
+        int[] dimensions = BenchmarkImages.parseSize(size);
+        width = dimensions[0];
+        height = dimensions[1];
+        image = BenchmarkImages.document(width, height).getPixels();
+        detector = new RectDetector(new DetectionProfile(areaLowerThresholdRatio, 0.98));
+        warper = new PerspectiveWarper();
+        if (!detector.detect(image, width, height, BenchmarkImages.CHANNELS, quad)) {
+            throw new IllegalStateException("No document found in the " + size + " benchmark image");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        warper.shutdown();
+    }
+
+    @Benchmark
+    public boolean detect() {
+        return detector.detect(image, width, height, BenchmarkImages.CHANNELS, quad);
+    }
+
+    @Benchmark
+    public byte[] detectAndWarp() {
+        if (!detector.detect(image, width, height, BenchmarkImages.CHANNELS, quad)) {
+            return null;
+        }
+        // The corners come in the order of the contour, so take the bounding box as the size. Good
+        // enough for timing.
+        float minX = Math.min(Math.min(quad[0], quad[2]), Math.min(quad[4], quad[6]));
+        float maxX = Math.max(Math.max(quad[0], quad[2]), Math.max(quad[4], quad[6]));
+        float minY = Math.min(Math.min(quad[1], quad[3]), Math.min(quad[5], quad[7]));
+        float maxY = Math.max(Math.max(quad[1], quad[3]), Math.max(quad[5], quad[7]));
+        int resultWidth = (int) (maxX - minX);
+        int resultHeight = (int) (maxY - minY);
+        int length = resultWidth * resultHeight * BenchmarkImages.CHANNELS;
+        if (result.length < length) {
+            result = new byte[length];
+        }
+        Homography homography = Homography.quadToRect(quad, 0, resultWidth, resultHeight).invert();
+        warper.warp(image, width, height, result, resultWidth, resultHeight, BenchmarkImages.CHANNELS, homography);
+        return result;
+    }
+}
@@ -0,0 +1,208 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import com.shuheikagawa.rectify.core.ContourTracer;
+import com.shuheikagawa.rectify.core.DetectionProfile;
+import com.shuheikagawa.rectify.core.PolygonApproximator;
+import com.shuheikagawa.rectify.core.RectDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// The detection stages of RectDetector one by one, each on the output of the previous stages.
+//
+// Each stage takes the state with the parameters it depends on only, so that JMH doesn't run a
+// stage again for parameters that don't change its input.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StageBenchmarks {
+
+    // The downscaled image in the detector. The area thresholds don't matter before the contours
+    // are filtered.
+    @State(Scope.Thread)
+    public static class ImageState {
+        @Param({"640x480", "1920x1080", "3264x2448"})
+        public String size;
+
+        byte[] image;
+        int width;
+        int height;
+        int downscaledWidth;
+        int downscaledHeight;
+        RectDetector detector;
+
+        @Setup
+        public void setUp() {
+            prepare();
+        }
+
+        // Subclasses extend the setup here, after super.prepare().
+        void prepare() {
+            int[] dimensions = BenchmarkImages.parseSize(size);
+            width = dimensions[0];
+            height = dimensions[1];
+            image = BenchmarkImages.document(width, height).getPixels();
+            detector = new RectDetector(new DetectionProfile(areaLowerThresholdRatio(), 0.98));
+
+            double ratio = detector.downscaleRatio(width, height);
+            downscaledWidth = (int) (width * ratio);
+            downscaledHeight = (int) (height * ratio);
+            detector.downscale(image, width, height, BenchmarkImages.CHANNELS, downscaledWidth, downscaledHeight);
+        }
+
+        // MainActivity uses 0.2.
+        double areaLowerThresholdRatio() {
+            return 0.2;
+        }
+    }
+
+    // The blurred first colour plane, to binarize at a level.
+    @State(Scope.Thread)
+    public static class PlaneState extends ImageState {
+        // 0 for Canny, a threshold level otherwise.
+        @Param({"0", "2"})
+        public int level;
+
+        @Override
+        void prepare() {
+            super.prepare();
+            detector.blur();
+            detector.extractPlane(0);
+            detector.binarize(level);
+        }
+    }
+
+    // Contours of the binary plane, copied out of the detector, to approximate and filter.
+    @State(Scope.Thread)
+    public static class ContourState extends PlaneState {
+        // Lower area threshold of the DetectionProfile.
+        @Param({"0.2", "0.05"})
+        public double areaLowerThresholdRatio;
+
+        final PolygonApproximator approximator = new PolygonApproximator(4);
+        int[] points;
+        int[] offsets;
+        int[] lengths;
+        int contourCount;
+        double minArea;
+
+        @Override
+        void prepare() {
+            super.prepare();
+            detector.traceContours();
+            ContourTracer contours = detector.getContours();
+            contourCount = contours.size();
+            points = contours.getPoints().clone();
+            offsets = contours.getOffsets().clone();
+            lengths = contours.getLengths().clone();
+            minArea = downscaledWidth * downscaledHeight * areaLowerThresholdRatio;
+        }
+
+        @Override
+        double areaLowerThresholdRatio() {
+            return areaLowerThresholdRatio;
+        }
+    }
+
+    // Quads approximated from the contours of every plane and level, before the rectangle filter.
+    @State(Scope.Thread)
+    public static class QuadState extends ImageState {
+        // Lower area threshold of the DetectionProfile.
+        @Param({"0.2", "0.05"})
+        public double areaLowerThresholdRatio;
+
+        final float[] quad = new float[8];
+        float[] quads = new float[0];
+        int quadCount;
+
+        @Override
+        void prepare() {
+            super.prepare();
+            detector.blur();
+            int imageArea = downscaledWidth * downscaledHeight;
+            for (int c = 0; c < 3; c++) {
+                detector.extractPlane(c);
+                for (int l = 0; l < detector.getProfile().getThresholdLevels(); l++) {
+                    detector.binarize(l);
+                    detector.traceContours();
+                    ContourTracer contours = detector.getContours();
+                    detector.approximateQuads(contours.getPoints(), contours.getOffsets(), contours.getLengths(),
+                            contours.size(), imageArea);
+                    quads = Arrays.copyOf(quads, (quadCount + detector.getQuadCount()) * 8);
+                    System.arraycopy(detector.getQuads(), 0, quads, quadCount * 8, detector.getQuadCount() * 8);
+                    quadCount += detector.getQuadCount();
+                }
+            }
+        }
+
+        @Override
+        double areaLowerThresholdRatio() {
+            return areaLowerThresholdRatio;
+        }
+    }
+
+    @Benchmark
+    public void downscale(ImageState state) {
+        state.detector.downscale(state.image, state.width, state.height, BenchmarkImages.CHANNELS,
+                state.downscaledWidth, state.downscaledHeight);
+    }
+
+    @Benchmark
+    public void blur(ImageState state) {
+        state.detector.blur();
+    }
+
+    // Canny and dilation, or a threshold, of one colour plane.
+    @Benchmark
+    public void edge(PlaneState state) {
+        state.detector.binarize(state.level);
+    }
+
+    @Benchmark
+    public int traceContours(PlaneState state) {
+        state.detector.traceContours();
+        return state.detector.getContours().size();
+    }
+
+    @Benchmark
+    public int approximate(ContourState state) {
+        int vertices = 0;
+        for (int i = 0; i < state.contourCount; i++) {
+            vertices += state.approximator.approximate(state.points, state.offsets[i], state.lengths[i],
+                    DetectionProfile.APPROX_EPSILON_RATIO, state.minArea);
+        }
+        return vertices;
+    }
+
+    // Rectangle filter over the quads of the whole pipeline, rejected ones included.
+    @Benchmark
+    public int filter(QuadState state) {
+        DetectionProfile profile = state.detector.getProfile();
+        int imageArea = state.downscaledWidth * state.downscaledHeight;
+        int accepted = 0;
+        for (int i = 0; i < state.quadCount; i++) {
+            System.arraycopy(state.quads, i * 8, state.quad, 0, 8);
+            if (profile.isRectangle(state.quad, imageArea)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    // Approximation, filter and selection of the largest rectangle from the traced contours.
+    @Benchmark
+    public int collectAndSelect(ContourState state) {
+        RectDetector detector = state.detector;
+        detector.clearCandidates();
+        detector.collectCandidates(state.points, state.offsets, state.lengths, state.contourCount);
+        return detector.selectLargest();
+    }
+}
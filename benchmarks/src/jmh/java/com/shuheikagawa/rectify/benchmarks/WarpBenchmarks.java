@@ -0,0 +1,93 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import com.shuheikagawa.rectify.core.Homography;
+import com.shuheikagawa.rectify.core.PerspectiveWarper;
+import com.shuheikagawa.rectify.core.SceneGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+// Homography solving and mapping, and the warp of the document to its rectified size.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WarpBenchmarks {
+    private static final int MAPPED_POINTS = 1024;
+
+    @Param({"640x480", "1920x1080", "3264x2448"})
+    public String size;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private byte[] image;
+    private int width;
+    private int height;
+    private float[] quad;
+    private int resultWidth;
+    private int resultHeight;
+    private byte[] result;
+    private Homography homography;
+    private PerspectiveWarper warper;
+    private final float[] gridPoints = new float[MAPPED_POINTS * 2];
+    private final float[] mappedPoints = new float[MAPPED_POINTS * 2];
+
+    @Setup
+    public void setUp() {
+        int[] dimensions = BenchmarkImages.parseSize(size);
+        width = dimensions[0];
+        height = dimensions[1];
+        SceneGenerator.Scene scene = BenchmarkImages.document(width, height);
+        image = scene.getPixels();
+        quad = scene.getQuad();
+
+        // Average side lengths, like PerspectiveTransformation.
+        resultWidth = (int) ((distance(quad, 0, 1) + distance(quad, 3, 2)) / 2);
+        resultHeight = (int) ((distance(quad, 1, 2) + distance(quad, 0, 3)) / 2);
+        result = new byte[resultWidth * resultHeight * BenchmarkImages.CHANNELS];
+        homography = Homography.quadToRect(quad, 0, resultWidth, resultHeight).invert();
+        warper = new PerspectiveWarper(threads);
+
+        for (int i = 0; i < MAPPED_POINTS; i++) {
+            gridPoints[i * 2] = (i % 32) * resultWidth / 32f;
+            gridPoints[i * 2 + 1] = (i / 32) * resultHeight / 32f;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        warper.shutdown();
+    }
+
+    @Benchmark
+    public Homography solveHomography() {
+        return Homography.quadToRect(quad, 0, resultWidth, resultHeight);
+    }
+
+    @Benchmark
+    public float[] mapPoints() {
+        homography.map(gridPoints, 0, mappedPoints, 0, MAPPED_POINTS);
+        return mappedPoints;
+    }
+
+    @Benchmark
+    public byte[] warp() {
+        warper.warp(image, width, height, result, resultWidth, resultHeight, BenchmarkImages.CHANNELS, homography);
+        return result;
+    }
+
+    private static double distance(float[] quad, int i, int j) {
+        double dx = quad[j * 2] - quad[i * 2];
+        double dy = quad[j * 2 + 1] - quad[i * 2 + 1];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
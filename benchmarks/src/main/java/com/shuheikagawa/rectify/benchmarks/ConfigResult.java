@@ -0,0 +1,110 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import java.util.Arrays;
+
+// Accuracy and latency of one configuration over a corpus.
+//
+// A detection is correct when its mean corner error is within the tolerance, a fraction of the image
+// diagonal. Corner errors are averaged over correct detections only, so that misses and false
+// positives show up in the rates instead of swamping the error.
+final class ConfigResult {
+    final DetectorConfig config;
+    private final double tolerance;
+
+    private int samples = 0;
+    private int detected = 0;
+    private int correct = 0;
+    private double errorSum = 0;
+    private double relativeErrorSum = 0;
+    private long[] latencies = new long[256];
+
+    ConfigResult(DetectorConfig config, double tolerance) {
+        this.config = config;
+        this.tolerance = tolerance;
+    }
+
+    // found is null when nothing was detected.
+    void add(Corpus.Sample sample, float[] found, long latencyNanos) {
+        if (samples == latencies.length) {
+            latencies = Arrays.copyOf(latencies, samples * 2);
+        }
+        latencies[samples++] = latencyNanos;
+        if (found == null) {
+            return;
+        }
+        detected++;
+
+        double error = cornerError(sample.quad, found);
+        double relativeError = error / Math.hypot(sample.width, sample.height);
+        if (relativeError <= tolerance) {
+            correct++;
+            errorSum += error;
+            relativeErrorSum += relativeError;
+        }
+    }
+
+    int getSamples() {
+        return samples;
+    }
+
+    double getDetectionRate() {
+        return samples == 0 ? Double.NaN : (double) correct / samples;
+    }
+
+    // Detections that are not the page, e.g. a distractor or the page with a corner cut off.
+    double getFalsePositiveRate() {
+        return samples == 0 ? Double.NaN : (double) (detected - correct) / samples;
+    }
+
+    // In pixels of the full image.
+    double getMeanCornerError() {
+        return correct == 0 ? Double.NaN : errorSum / correct;
+    }
+
+    // As a fraction of the image diagonal, comparable across image sizes.
+    double getMeanRelativeCornerError() {
+        return correct == 0 ? Double.NaN : relativeErrorSum / correct;
+    }
+
+    // Nearest rank percentile, in milliseconds.
+    double getLatencyMillis(double percentile) {
+        if (samples == 0) {
+            return Double.NaN;
+        }
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * samples);
+        return sorted[Math.max(rank - 1, 0)] / 1e6;
+    }
+
+    void writeJson(JsonWriter writer) {
+        writer.beginObject();
+        config.writeJson(writer);
+        writer.field("detected", detected);
+        writer.field("correct", correct);
+        writer.field("detectionRate", getDetectionRate());
+        writer.field("falsePositiveRate", getFalsePositiveRate());
+        writer.field("meanCornerError", getMeanCornerError());
+        writer.field("meanRelativeCornerError", getMeanRelativeCornerError());
+        writer.field("latencyP50Ms", getLatencyMillis(50));
+        writer.field("latencyP99Ms", getLatencyMillis(99));
+        writer.endObject();
+    }
+
+    // Mean distance between corresponding corners, for the best match of the corners of found to
+    // those of truth. The detection starts its quads at any corner and may go either way round.
+    static double cornerError(float[] truth, float[] found) {
+        double best = Double.MAX_VALUE;
+        for (int start = 0; start < 4; start++) {
+            for (int direction = -1; direction <= 1; direction += 2) {
+                double sum = 0;
+                for (int i = 0; i < 4; i++) {
+                    int j = (start + direction * i + 4) % 4;
+                    sum += Math.hypot(found[j * 2] - truth[i * 2], found[j * 2 + 1] - truth[i * 2 + 1]);
+                }
+                best = Math.min(best, sum / 4);
+            }
+        }
+        return best;
+    }
+}
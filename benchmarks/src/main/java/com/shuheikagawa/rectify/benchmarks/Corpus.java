@@ -0,0 +1,218 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import com.shuheikagawa.rectify.core.SceneGenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+// Images with ground-truth quads, loaded one at a time so that a corpus of camera captures does not
+// have to fit in memory.
+abstract class Corpus {
+    static final int CHANNELS = SceneGenerator.CHANNELS;
+
+    // Identifies the corpus in reports. Baselines only compare with reports of the same corpus.
+    abstract String describe();
+
+    abstract int size();
+
+    abstract Sample load(int index) throws IOException;
+
+    static final class Sample {
+        final String name;
+        final int width;
+        final int height;
+        // RGBA.
+        final byte[] pixels;
+        // Corners x0, y0, ..., x3, y3 in any cyclic order.
+        final float[] quad;
+
+        Sample(String name, int width, int height, byte[] pixels, float[] quad) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            this.quad = quad;
+        }
+    }
+
+    // Scenes of SceneGenerator, e.g. "count=500,size=1280x960,seed=0,blur=1,noise=4,shadow=0.3".
+    // Scene i is rendered from seed + i.
+    static Corpus synthetic(String spec) {
+        int count = 200;
+        int width = 1280;
+        int height = 960;
+        long seed = 0;
+        List<String[]> effects = new ArrayList<String[]>();
+        for (String[] entry : Options.parse(spec)) {
+            String key = entry[0];
+            String value = entry[1];
+            if (key.equals("count")) {
+                count = Integer.parseInt(value);
+            } else if (key.equals("size")) {
+                int[] size = parseSize(value);
+                width = size[0];
+                height = size[1];
+            } else if (key.equals("seed")) {
+                seed = Long.parseLong(value);
+            } else {
+                effects.add(entry);
+            }
+        }
+
+        SceneGenerator generator = new SceneGenerator(width, height);
+        for (String[] entry : effects) {
+            String key = entry[0];
+            String value = entry[1];
+            if (key.equals("blur")) {
+                generator.setBlurRadius(Integer.parseInt(value));
+            } else if (key.equals("noise")) {
+                generator.setNoise(Double.parseDouble(value));
+            } else if (key.equals("shadow")) {
+                generator.setShadow(Double.parseDouble(value));
+            } else if (key.equals("occlusion")) {
+                generator.setOcclusion(Double.parseDouble(value));
+            } else if (key.equals("distractors")) {
+                generator.setDistractorCount(Integer.parseInt(value));
+            } else if (key.equals("perspective")) {
+                generator.setPerspective(Double.parseDouble(value));
+            } else if (key.equals("rotation")) {
+                generator.setMaxRotationDegrees(Double.parseDouble(value));
+            } else {
+                throw new IllegalArgumentException("Unknown corpus key " + key + " in " + spec);
+            }
+        }
+        return new SyntheticCorpus(generator, count, seed, spec);
+    }
+
+    // PNG and JPEG images of a directory, each with its corners in a text file of the same base
+    // name and the extension .quad: eight numbers x0 y0 ... x3 y3 separated by white space.
+    static Corpus directory(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        List<File> images = new ArrayList<File>();
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+                images.add(file);
+            }
+        }
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("No images in " + directory);
+        }
+        File[] sorted = images.toArray(new File[images.size()]);
+        Arrays.sort(sorted);
+        return new DirectoryCorpus(directory, sorted);
+    }
+
+    static int[] parseSize(String size) {
+        int separator = size.indexOf('x');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected WIDTHxHEIGHT: " + size);
+        }
+        return new int[]{Integer.parseInt(size.substring(0, separator)), Integer.parseInt(size.substring(separator + 1))};
+    }
+
+    private static final class SyntheticCorpus extends Corpus {
+        private final SceneGenerator generator;
+        private final int count;
+        private final long seed;
+        private final String spec;
+
+        SyntheticCorpus(SceneGenerator generator, int count, long seed, String spec) {
+            this.generator = generator;
+            this.count = count;
+            this.seed = seed;
+            this.spec = spec;
+        }
+
+        @Override
+        String describe() {
+            return "synthetic " + spec;
+        }
+
+        @Override
+        int size() {
+            return count;
+        }
+
+        @Override
+        Sample load(int index) {
+            SceneGenerator.Scene scene = generator.generate(seed + index);
+            return new Sample("seed " + scene.getSeed(), scene.getWidth(), scene.getHeight(), scene.getPixels(),
+                    scene.getQuad());
+        }
+    }
+
+    private static final class DirectoryCorpus extends Corpus {
+        private final File directory;
+        private final File[] images;
+
+        DirectoryCorpus(File directory, File[] images) {
+            this.directory = directory;
+            this.images = images;
+        }
+
+        @Override
+        String describe() {
+            return "directory " + directory.getName() + " (" + images.length + " images)";
+        }
+
+        @Override
+        int size() {
+            return images.length;
+        }
+
+        @Override
+        Sample load(int index) throws IOException {
+            File file = images[index];
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                throw new IOException("Can't decode " + file);
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            byte[] pixels = new byte[width * height * CHANNELS];
+            int[] row = new int[width];
+            int i = 0;
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    int argb = row[x];
+                    pixels[i++] = (byte) (argb >> 16);
+                    pixels[i++] = (byte) (argb >> 8);
+                    pixels[i++] = (byte) argb;
+                    pixels[i++] = (byte) 0xff;
+                }
+            }
+            return new Sample(file.getName(), width, height, pixels, readQuad(file));
+        }
+
+        private static float[] readQuad(File image) throws IOException {
+            String name = image.getName();
+            File file = new File(image.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".quad");
+            if (!file.isFile()) {
+                throw new IOException("No ground truth for " + image + ": expected " + file);
+            }
+            String[] values = new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8")).trim()
+                    .split("\\s+");
+            if (values.length != 8) {
+                throw new IOException("Expected 8 numbers in " + file + ", found " + values.length);
+            }
+            float[] quad = new float[8];
+            for (int i = 0; i < 8; i++) {
+                quad[i] = Float.parseFloat(values[i]);
+            }
+            return quad;
+        }
+    }
+}
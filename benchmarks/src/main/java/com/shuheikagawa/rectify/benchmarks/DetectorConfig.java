@@ -0,0 +1,61 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import com.shuheikagawa.rectify.core.DetectionProfile;
+
+// A named DetectionProfile, given on the command line as
+//
+//   name:lower=0.2,upper=0.98,levels=5,canny=50,size=600
+//
+// Omitted values take the defaults of the app, e.g. "default" alone is the MainActivity profile.
+final class DetectorConfig {
+    final String name;
+    final DetectionProfile profile;
+
+    private DetectorConfig(String name, DetectionProfile profile) {
+        this.name = name;
+        this.profile = profile;
+    }
+
+    static DetectorConfig parse(String spec) {
+        int colon = spec.indexOf(':');
+        String name = colon < 0 ? spec : spec.substring(0, colon);
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Configuration without a name: " + spec);
+        }
+
+        double lower = 0.2;
+        double upper = 0.98;
+        int levels = DetectionProfile.DEFAULT_THRESHOLD_LEVELS;
+        int canny = DetectionProfile.DEFAULT_CANNY_THRESHOLD;
+        double size = DetectionProfile.DEFAULT_DOWNSCALE_IMAGE_SIZE;
+        if (colon >= 0) {
+            for (String[] entry : Options.parse(spec.substring(colon + 1))) {
+                String key = entry[0];
+                String value = entry[1];
+                if (key.equals("lower")) {
+                    lower = Double.parseDouble(value);
+                } else if (key.equals("upper")) {
+                    upper = Double.parseDouble(value);
+                } else if (key.equals("levels")) {
+                    levels = Integer.parseInt(value);
+                } else if (key.equals("canny")) {
+                    canny = Integer.parseInt(value);
+                } else if (key.equals("size")) {
+                    size = Double.parseDouble(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown configuration key " + key + " in " + spec);
+                }
+            }
+        }
+        return new DetectorConfig(name, new DetectionProfile(lower, upper, levels, canny, size));
+    }
+
+    void writeJson(JsonWriter writer) {
+        writer.field("name", name);
+        writer.field("areaLowerThresholdRatio", profile.getAreaLowerThresholdRatio());
+        writer.field("areaUpperThresholdRatio", profile.getAreaUpperThresholdRatio());
+        writer.field("thresholdLevels", profile.getThresholdLevels());
+        writer.field("cannyThreshold", profile.getCannyThreshold());
+        writer.field("downscaleImageSize", profile.getDownscaleImageSize());
+    }
+}
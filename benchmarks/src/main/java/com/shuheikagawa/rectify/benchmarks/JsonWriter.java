@@ -0,0 +1,126 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Indented JSON for the reports, one field per line so that reports diff well. Non finite numbers
+// are written as null.
+final class JsonWriter {
+    private final StringBuilder out = new StringBuilder();
+    // Whether the object or array at each depth has no element yet.
+    private final List<Boolean> empty = new ArrayList<Boolean>();
+
+    JsonWriter beginObject() {
+        beginValue();
+        out.append('{');
+        empty.add(true);
+        return this;
+    }
+
+    JsonWriter beginObject(String name) {
+        name(name);
+        out.append('{');
+        empty.add(true);
+        return this;
+    }
+
+    JsonWriter endObject() {
+        end('}');
+        return this;
+    }
+
+    JsonWriter beginArray(String name) {
+        name(name);
+        out.append('[');
+        empty.add(true);
+        return this;
+    }
+
+    JsonWriter endArray() {
+        end(']');
+        return this;
+    }
+
+    JsonWriter field(String name, String value) {
+        name(name);
+        quote(value);
+        return this;
+    }
+
+    JsonWriter field(String name, double value) {
+        name(name);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+        } else {
+            out.append(value);
+        }
+        return this;
+    }
+
+    JsonWriter field(String name, long value) {
+        name(name);
+        out.append(value);
+        return this;
+    }
+
+    JsonWriter field(String name, boolean value) {
+        name(name);
+        out.append(value);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        if (!empty.isEmpty()) {
+            throw new IllegalStateException("Unclosed object or array");
+        }
+        return out.toString();
+    }
+
+    private void name(String name) {
+        beginValue();
+        quote(name);
+        out.append(": ");
+    }
+
+    private void beginValue() {
+        int depth = empty.size();
+        if (depth > 0) {
+            if (!empty.get(depth - 1)) {
+                out.append(',');
+            }
+            empty.set(depth - 1, false);
+            newLine(depth);
+        }
+    }
+
+    private void end(char bracket) {
+        boolean wasEmpty = empty.remove(empty.size() - 1);
+        if (!wasEmpty) {
+            newLine(empty.size());
+        }
+        out.append(bracket);
+    }
+
+    private void newLine(int depth) {
+        out.append('\n');
+        for (int i = 0; i < depth; i++) {
+            out.append("  ");
+        }
+    }
+
+    private void quote(String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
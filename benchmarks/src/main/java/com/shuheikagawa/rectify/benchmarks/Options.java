@@ -0,0 +1,26 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// "key=value,key=value" lists of the command line.
+final class Options {
+    private Options() {
+    }
+
+    // {key, value} pairs in order.
+    static List<String[]> parse(String list) {
+        List<String[]> entries = new ArrayList<String[]>();
+        if (list.isEmpty()) {
+            return entries;
+        }
+        for (String entry : list.split(",")) {
+            int equals = entry.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected key=value: " + entry);
+            }
+            entries.add(new String[]{entry.substring(0, equals).trim(), entry.substring(equals + 1).trim()});
+        }
+        return entries;
+    }
+}
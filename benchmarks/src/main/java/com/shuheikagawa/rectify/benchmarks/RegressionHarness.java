@@ -0,0 +1,261 @@
+package com.shuheikagawa.rectify.benchmarks;
+
+import com.shuheikagawa.rectify.core.RectDetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs detector configurations over a corpus with ground truth and reports detection rate, corner
+// error and latency as JSON. Given a baseline report, it lists the configurations that got worse
+// and exits with status 1, so that a faster configuration can't quietly lose accuracy.
+//
+//   ./gradlew :benchmarks:regression -PharnessArgs="--synthetic count=500,noise=4 --config default
+//       --config fast:size=400 --baseline baseline.json --output report.json"
+//
+// Every image is loaded once and detected by all configurations in parallel, each on its own
+// RectDetector. Latency is the time of RectDetector.detect() on the full image, downscale included.
+public final class RegressionHarness {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String USAGE = "Usage: RegressionHarness (--synthetic SPEC | --images DIR)\n" +
+            "    [--config NAME[:lower=0.2,upper=0.98,levels=5,canny=50,size=600]]...\n" +
+            "    [--output FILE] [--baseline FILE] [--threads N] [--warmup N] [--tolerance F]\n" +
+            "    [--max-rate-drop F] [--max-false-positive-rise F] [--max-error-growth F]\n" +
+            "    [--max-slowdown F] [--max-tail-slowdown F]";
+
+    private Corpus corpus;
+    private final List<DetectorConfig> configs = new ArrayList<DetectorConfig>();
+    private File output;
+    private File baseline;
+    private int threads = 0;
+    // Detections of the first image per configuration before measuring, for the JIT.
+    private int warmup = 20;
+    // Corner error of a correct detection, as a fraction of the image diagonal.
+    private double tolerance = 0.02;
+    // Allowed drop of the detection rate. Detection is deterministic, so any drop is real.
+    private double maxRateDrop = 0;
+    // Allowed rise of the false positive rate, deterministic as well.
+    private double maxFalsePositiveRise = 0;
+    // Allowed relative growth of the mean corner error.
+    private double maxErrorGrowth = 0.05;
+    // Allowed relative growth of the p50 latency. Off by default as it depends on the machine.
+    private double maxSlowdown = Double.NaN;
+    // Same for the p99 latency, which needs a larger corpus to be stable.
+    private double maxTailSlowdown = Double.NaN;
+
+    public static void main(String[] args) throws Exception {
+        RegressionHarness harness = new RegressionHarness();
+        try {
+            harness.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        List<ConfigResult> results = harness.run();
+        String report = harness.report(results);
+        if (harness.output != null) {
+            Files.write(harness.output.toPath(), report.getBytes(UTF_8));
+        } else {
+            System.out.println(report);
+        }
+
+        if (harness.baseline != null) {
+            List<String> regressions = harness.compare(results,
+                    new String(Files.readAllBytes(harness.baseline.toPath()), UTF_8));
+            for (String regression : regressions) {
+                System.err.println("REGRESSION " + regression);
+            }
+            if (!regressions.isEmpty()) {
+                System.exit(1);
+            }
+            System.err.println("No regressions against " + harness.baseline);
+        }
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of " + option);
+            }
+            String value = args[++i];
+            if (option.equals("--synthetic")) {
+                corpus = Corpus.synthetic(value);
+            } else if (option.equals("--images")) {
+                corpus = Corpus.directory(new File(value));
+            } else if (option.equals("--config")) {
+                configs.add(DetectorConfig.parse(value));
+            } else if (option.equals("--output")) {
+                output = new File(value);
+            } else if (option.equals("--baseline")) {
+                baseline = new File(value);
+            } else if (option.equals("--threads")) {
+                threads = Integer.parseInt(value);
+            } else if (option.equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (option.equals("--tolerance")) {
+                tolerance = Double.parseDouble(value);
+            } else if (option.equals("--max-rate-drop")) {
+                maxRateDrop = Double.parseDouble(value);
+            } else if (option.equals("--max-false-positive-rise")) {
+                maxFalsePositiveRise = Double.parseDouble(value);
+            } else if (option.equals("--max-error-growth")) {
+                maxErrorGrowth = Double.parseDouble(value);
+            } else if (option.equals("--max-slowdown")) {
+                maxSlowdown = Double.parseDouble(value);
+            } else if (option.equals("--max-tail-slowdown")) {
+                maxTailSlowdown = Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (corpus == null) {
+            throw new IllegalArgumentException("No corpus given");
+        }
+        if (configs.isEmpty()) {
+            configs.add(DetectorConfig.parse("default"));
+        }
+        if (threads <= 0) {
+            threads = Math.min(configs.size(), Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private List<ConfigResult> run() throws IOException, InterruptedException {
+        final List<ConfigResult> results = new ArrayList<ConfigResult>();
+        final List<RectDetector> detectors = new ArrayList<RectDetector>();
+        for (DetectorConfig config : configs) {
+            results.add(new ConfigResult(config, tolerance));
+            detectors.add(new RectDetector(config.profile));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int index = 0; index < corpus.size(); index++) {
+                final Corpus.Sample sample = corpus.load(index);
+                final int repetitions = index == 0 ? warmup + 1 : 1;
+                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+                for (int c = 0; c < configs.size(); c++) {
+                    final ConfigResult result = results.get(c);
+                    final RectDetector detector = detectors.get(c);
+                    tasks.add(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            float[] quad = new float[8];
+                            boolean found = false;
+                            long latency = 0;
+                            for (int r = 0; r < repetitions; r++) {
+                                long start = System.nanoTime();
+                                found = detector.detect(sample.pixels, sample.width, sample.height,
+                                        Corpus.CHANNELS, quad);
+                                latency = System.nanoTime() - start;
+                            }
+                            result.add(sample, found ? quad : null, latency);
+                            return null;
+                        }
+                    });
+                }
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException("Detection failed on " + sample.name, e.getCause());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return results;
+    }
+
+    private String report(List<ConfigResult> results) {
+        JsonWriter writer = new JsonWriter();
+        writer.beginObject();
+        writer.field("corpus", corpus.describe());
+        writer.field("samples", corpus.size());
+        writer.field("tolerance", tolerance);
+        writer.beginArray("results");
+        for (ConfigResult result : results) {
+            result.writeJson(writer);
+        }
+        writer.endArray();
+        writer.endObject();
+        return writer.toString();
+    }
+
+    // Descriptions of the regressions against the baseline report. Configurations match by name.
+    @SuppressWarnings("unchecked")
+    private List<String> compare(List<ConfigResult> results, String baselineJson) {
+        Map<String, Object> base = (Map<String, Object>) JsonReader.parse(baselineJson);
+        List<String> regressions = new ArrayList<String>();
+        if (!corpus.describe().equals(base.get("corpus")) || tolerance != number(base, "tolerance")) {
+            regressions.add("baseline was made on " + base.get("corpus") + " with tolerance " +
+                    base.get("tolerance") + ", not comparable");
+            return regressions;
+        }
+
+        Map<String, Map<String, Object>> baseResults = new HashMap<String, Map<String, Object>>();
+        for (Object entry : (List<Object>) base.get("results")) {
+            Map<String, Object> baseResult = (Map<String, Object>) entry;
+            baseResults.put((String) baseResult.get("name"), baseResult);
+        }
+
+        for (ConfigResult result : results) {
+            String name = result.config.name;
+            Map<String, Object> baseResult = baseResults.get(name);
+            if (baseResult == null) {
+                System.err.println("No baseline for " + name);
+                continue;
+            }
+
+            double rate = result.getDetectionRate();
+            double baseRate = number(baseResult, "detectionRate");
+            if (rate < baseRate - maxRateDrop) {
+                regressions.add(name + ": detection rate " + baseRate + " -> " + rate);
+            }
+
+            double falsePositiveRate = result.getFalsePositiveRate();
+            double baseFalsePositiveRate = number(baseResult, "falsePositiveRate");
+            if (falsePositiveRate > baseFalsePositiveRate + maxFalsePositiveRise) {
+                regressions.add(name + ": false positive rate " + baseFalsePositiveRate + " -> " + falsePositiveRate);
+            }
+
+            double error = result.getMeanRelativeCornerError();
+            double baseError = number(baseResult, "meanRelativeCornerError");
+            if (error > baseError * (1 + maxErrorGrowth) || Double.isNaN(error) && !Double.isNaN(baseError)) {
+                regressions.add(name + ": mean relative corner error " + baseError + " -> " + error);
+            }
+
+            double latency = result.getLatencyMillis(50);
+            double baseLatency = number(baseResult, "latencyP50Ms");
+            if (!Double.isNaN(maxSlowdown) && latency > baseLatency * (1 + maxSlowdown)) {
+                regressions.add(name + ": p50 latency " + baseLatency + " ms -> " + latency + " ms");
+            }
+
+            double tailLatency = result.getLatencyMillis(99);
+            double baseTailLatency = number(baseResult, "latencyP99Ms");
+            if (!Double.isNaN(maxTailSlowdown) && tailLatency > baseTailLatency * (1 + maxTailSlowdown)) {
+                regressions.add(name + ": p99 latency " + baseTailLatency + " ms -> " + tailLatency + " ms");
+            }
+        }
+        return regressions;
+    }
+
+    // null, e.g. the error of a configuration without correct detections, reads as NaN.
+    private static double number(Map<String, Object> object, String name) {
+        Object value = object.get(name);
+        return value == null ? Double.NaN : (Double) value;
+    }
+}
@@ -0,0 +1,241 @@
+package com.shuheikagawa.rectify.core;
+
+// Finds the contours of a binary image by Suzuki and Abe border following, with the same output
+// as Imgproc.findContours with RETR_LIST and CHAIN_APPROX_SIMPLE: the same points, contours in the
+// same order (the last one found comes first) and the same hierarchy.
+//
+// The result is packed like org.opencv.core.ContourBuffer. All points of all contours are stored in
+// one array as x0, y0, x1, y1, ... Contour i starts at getOffsets()[i] in that array and has
+// getLengths()[i] points. The hierarchy holds next, previous, first child and parent for each
+// contour. The arrays are reused across calls and may be longer than the data.
+//
+// Not thread safe.
+public class ContourTracer {
+    // Pixel values of the working image, as in OpenCV. A traced pixel gets BORDER, or
+    // RIGHT_BORDER when the pixel to its right is background.
+    private static final byte FOREGROUND = 1;
+    private static final byte BORDER = 2;
+    private static final byte RIGHT_BORDER = (byte) (BORDER | -128);
+
+    // Directions counterclockwise from the right, in image coordinates where y goes down.
+    private static final int[] DELTA_X = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DELTA_Y = {0, -1, -1, -1, 0, 1, 1, 1};
+
+    private int size = 0;
+    private int totalPoints = 0;
+    private int[] points = new int[4096];
+    private int[] offsets = new int[256];
+    private int[] lengths = new int[256];
+    private int[] hierarchy = new int[256 * 4];
+
+    // Binary copy of the input with a background border, marked while tracing.
+    private byte[] image = new byte[0];
+    // Offsets of the 8 neighbours, repeated once so that a search can run past direction 7.
+    private final int[] deltas = new int[16];
+    // Offsets into points in the order the contours were found.
+    private int[] foundOffsets = new int[256];
+    private int[] foundLengths = new int[256];
+
+    public int size() {
+        return size;
+    }
+
+    public int totalPoints() {
+        return totalPoints;
+    }
+
+    public int[] getPoints() {
+        return points;
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getLengths() {
+        return lengths;
+    }
+
+    public int[] getHierarchy() {
+        return hierarchy;
+    }
+
+    // Replaces the content with the contours of a width x height image where nonzero bytes are
+    // foreground. The input is not modified. As in OpenCV, the one pixel frame of the image is
+    // treated as background.
+    public void findContours(byte[] binary, int width, int height) {
+        size = 0;
+        totalPoints = 0;
+        if (width < 3 || height < 3) {
+            return;
+        }
+
+        byte[] img = prepare(binary, width, height);
+        for (int i = 0; i < 8; i++) {
+            deltas[i] = DELTA_Y[i] * width + DELTA_X[i];
+            deltas[i + 8] = deltas[i];
+        }
+
+        for (int y = 1; y < height - 1; y++) {
+            int prev = 0;
+            for (int x = 1; x < width - 1; x++) {
+                int p = img[y * width + x];
+                if (p == prev) {
+                    continue;
+                }
+
+                boolean isHole;
+                if (prev == 0 && p == FOREGROUND) {
+                    isHole = false;
+                } else if (p == 0 && prev >= 1) {
+                    // Background right after an unmarked or left-bordered foreground pixel.
+                    isHole = true;
+                } else {
+                    prev = p;
+                    continue;
+                }
+
+                int originX = isHole ? x - 1 : x;
+                traceBorder(img, width, originX, y, isHole);
+
+                // Resume with the pixel as marked by the tracing.
+                prev = img[y * width + x];
+            }
+        }
+
+        reorder();
+    }
+
+    // Copies the input as 0 and 1 with a background frame.
+    private byte[] prepare(byte[] binary, int width, int height) {
+        int length = width * height;
+        if (image.length < length) {
+            image = new byte[length];
+        }
+        byte[] img = image;
+        for (int i = 0; i < length; i++) {
+            // 1 for any nonzero byte, without a branch.
+            img[i] = (byte) ((binary[i] | -binary[i]) >>> 31);
+        }
+        for (int x = 0; x < width; x++) {
+            img[x] = 0;
+            img[(height - 1) * width + x] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            img[y * width] = 0;
+            img[y * width + width - 1] = 0;
+        }
+        return img;
+    }
+
+    // Follows one border from its first pixel, marks it in img and appends its points,
+    // keeping only the ends of horizontal, vertical and diagonal segments.
+    private void traceBorder(byte[] img, int width, int originX, int originY, boolean isHole) {
+        int start = totalPoints * 2;
+        int count = 0;
+        int i0 = originY * width + originX;
+        int x = originX;
+        int y = originY;
+
+        // Look for a foreground neighbour, clockwise from the left for outer borders and from the
+        // right for holes.
+        int s = isHole ? 0 : 4;
+        int sEnd = s;
+        int i1;
+        do {
+            s = (s - 1) & 7;
+            i1 = i0 + deltas[s];
+            if (img[i1] != 0) {
+                break;
+            }
+        } while (s != sEnd);
+
+        if (s == sEnd) {
+            // Single pixel.
+            img[i0] = RIGHT_BORDER;
+            ensurePoints(start + 2);
+            points[start] = x;
+            points[start + 1] = y;
+            count = 1;
+        } else {
+            int i3 = i0;
+            int prevS = s ^ 4;
+
+            while (true) {
+                sEnd = s;
+                int i4;
+                do {
+                    i4 = i3 + deltas[++s];
+                } while (img[i4] == 0);
+                s &= 7;
+
+                // Mark the pixel, remembering whether the border leaves it on the right.
+                if (s > 0 && s <= sEnd) {
+                    img[i3] = RIGHT_BORDER;
+                } else if (img[i3] == FOREGROUND) {
+                    img[i3] = BORDER;
+                }
+
+                if (s != prevS) {
+                    ensurePoints(start + (count + 1) * 2);
+                    points[start + count * 2] = x;
+                    points[start + count * 2 + 1] = y;
+                    count++;
+                    prevS = s;
+                }
+                x += DELTA_X[s];
+                y += DELTA_Y[s];
+
+                if (i4 == i0 && i3 == i1) {
+                    break;
+                }
+                i3 = i4;
+                s = (s + 4) & 7;
+            }
+        }
+
+        if (foundOffsets.length <= size) {
+            foundOffsets = grow(foundOffsets, size + 1);
+            foundLengths = grow(foundLengths, size + 1);
+        }
+        foundOffsets[size] = start;
+        foundLengths[size] = count;
+        size++;
+        totalPoints += count;
+    }
+
+    // OpenCV links each new contour in front of the previous ones, so the last found comes first.
+    private void reorder() {
+        if (offsets.length < size) {
+            offsets = grow(offsets, size);
+            lengths = grow(lengths, size);
+        }
+        if (hierarchy.length < size * 4) {
+            hierarchy = grow(hierarchy, size * 4);
+        }
+        for (int i = 0; i < size; i++) {
+            offsets[i] = foundOffsets[size - 1 - i];
+            lengths[i] = foundLengths[size - 1 - i];
+            hierarchy[i * 4] = i + 1 < size ? i + 1 : -1;
+            hierarchy[i * 4 + 1] = i - 1;
+            hierarchy[i * 4 + 2] = -1;
+            hierarchy[i * 4 + 3] = -1;
+        }
+    }
+
+    private void ensurePoints(int length) {
+        if (points.length < length) {
+            points = grow(points, length);
+        }
+    }
+
+    private static int[] grow(int[] buffer, int required) {
+        int length = Math.max(buffer.length, 4);
+        while (length < required) {
+            length *= 2;
+        }
+        int[] grown = new int[length];
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        return grown;
+    }
+}
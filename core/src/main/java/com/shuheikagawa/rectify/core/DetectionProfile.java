@@ -0,0 +1,88 @@
+package com.shuheikagawa.rectify.core;
+
+// Parameters of the rectangle detection, shared by the OpenCV and the pure Java backends.
+public class DetectionProfile {
+    // Number of threshold levels per color plane. 11 in the original sample.
+    public static final int DEFAULT_THRESHOLD_LEVELS = 5;
+    public static final int DEFAULT_CANNY_THRESHOLD = 50;
+    // Longer side of the image the detection runs on.
+    public static final double DEFAULT_DOWNSCALE_IMAGE_SIZE = 600;
+    public static final int MEDIAN_KERNEL_SIZE = 9;
+    // Rectangles approximate contours within this fraction of their perimeter.
+    public static final double APPROX_EPSILON_RATIO = 0.02;
+    // Maximum cosine of the rectangle angles (72.54 degrees).
+    public static final double MAX_COSINE = 0.3;
+
+    private final double areaLowerThresholdRatio;
+    private final double areaUpperThresholdRatio;
+    private final int thresholdLevels;
+    private final int cannyThreshold;
+    private final double downscaleImageSize;
+
+    public DetectionProfile(double areaLowerThresholdRatio, double areaUpperThresholdRatio) {
+        this(areaLowerThresholdRatio, areaUpperThresholdRatio, DEFAULT_THRESHOLD_LEVELS, DEFAULT_CANNY_THRESHOLD,
+                DEFAULT_DOWNSCALE_IMAGE_SIZE);
+    }
+
+    // For tuning. The app uses the defaults.
+    public DetectionProfile(double areaLowerThresholdRatio, double areaUpperThresholdRatio, int thresholdLevels,
+                            int cannyThreshold, double downscaleImageSize) {
+        if (thresholdLevels < 1) {
+            throw new IllegalArgumentException("At least 1 threshold level is needed: " + thresholdLevels);
+        }
+        if (downscaleImageSize < 1) {
+            throw new IllegalArgumentException("Invalid downscale image size: " + downscaleImageSize);
+        }
+        this.areaLowerThresholdRatio = areaLowerThresholdRatio;
+        this.areaUpperThresholdRatio = areaUpperThresholdRatio;
+        this.thresholdLevels = thresholdLevels;
+        this.cannyThreshold = cannyThreshold;
+        this.downscaleImageSize = downscaleImageSize;
+    }
+
+    public double getAreaLowerThresholdRatio() {
+        return areaLowerThresholdRatio;
+    }
+
+    public double getAreaUpperThresholdRatio() {
+        return areaUpperThresholdRatio;
+    }
+
+    public int getThresholdLevels() {
+        return thresholdLevels;
+    }
+
+    public int getCannyThreshold() {
+        return cannyThreshold;
+    }
+
+    public double getDownscaleImageSize() {
+        return downscaleImageSize;
+    }
+
+    // Whether the quad x0, y0, ..., x3, y3 passes as a rectangle in an image of imageArea pixels:
+    // large enough, convex and with all angles close to 90 degrees.
+    public boolean isRectangle(float[] corners, int imageArea) {
+        double area = Math.abs(Polygons.area(corners, 0, 4));
+        if (area < imageArea * areaLowerThresholdRatio || area > imageArea * areaUpperThresholdRatio) {
+            return false;
+        }
+
+        if (!Polygons.isConvex(corners, 4)) {
+            return false;
+        }
+
+        // Check if the all angles are more than 72.54 degrees (cos 0.3).
+        double maxCosine = 0;
+        for (int i = 2; i < 5; i++) {
+            double cosine = Math.abs(Polygons.angle(corners, i % 4, i - 2, i - 1));
+            maxCosine = Math.max(cosine, maxCosine);
+        }
+        return maxCosine < MAX_COSINE;
+    }
+
+    // Threshold of the given level. Level 0 uses Canny instead.
+    public int thresholdAt(int level) {
+        return (level + 1) * 255 / thresholdLevels;
+    }
+}
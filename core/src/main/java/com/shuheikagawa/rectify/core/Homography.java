@@ -0,0 +1,181 @@
+package com.shuheikagawa.rectify.core;
+
+// Immutable 3x3 projective transformation of the plane, in the row major layout of the matrices
+// of Imgproc.getPerspectiveTransform and warpPerspective:
+//
+//   x' = (m00 x + m01 y + m02) / (m20 x + m21 y + m22)
+//   y' = (m10 x + m11 y + m12) / (m20 x + m21 y + m22)
+//
+// Quads are packed as x0, y0, ..., x3, y3 in the order top left, top right, bottom right and
+// bottom left, which the unit square corners (0, 0), (1, 0), (1, 1) and (0, 1) map to.
+public final class Homography {
+    private static final Homography IDENTITY = new Homography(1, 0, 0, 0, 1, 0, 0, 0, 1);
+
+    private final double m00, m01, m02;
+    private final double m10, m11, m12;
+    private final double m20, m21, m22;
+
+    // Computed on first use. Racing threads compute the same matrix.
+    private Homography inverse;
+
+    public Homography(double m00, double m01, double m02,
+                      double m10, double m11, double m12,
+                      double m20, double m21, double m22) {
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m02 = m02;
+        this.m10 = m10;
+        this.m11 = m11;
+        this.m12 = m12;
+        this.m20 = m20;
+        this.m21 = m21;
+        this.m22 = m22;
+    }
+
+    public static Homography identity() {
+        return IDENTITY;
+    }
+
+    public static Homography translation(double tx, double ty) {
+        return new Homography(1, 0, tx, 0, 1, ty, 0, 0, 1);
+    }
+
+    public static Homography scale(double sx, double sy) {
+        return new Homography(sx, 0, 0, 0, sy, 0, 0, 0, 1);
+    }
+
+    // Rotation about the origin. Positive angles turn x toward y, i.e. clockwise on screen.
+    public static Homography rotation(double radians) {
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        return new Homography(cos, -sin, 0, sin, cos, 0, 0, 0, 1);
+    }
+
+    // Maps the unit square to the quad at quad[offset], in closed form (Heckbert 1989).
+    public static Homography squareToQuad(float[] quad, int offset) {
+        double x0 = quad[offset], y0 = quad[offset + 1];
+        double x1 = quad[offset + 2], y1 = quad[offset + 3];
+        double x2 = quad[offset + 4], y2 = quad[offset + 5];
+        double x3 = quad[offset + 6], y3 = quad[offset + 7];
+
+        double sx = x0 - x1 + x2 - x3;
+        double sy = y0 - y1 + y2 - y3;
+        if (sx == 0 && sy == 0) {
+            // Parallelogram.
+            return new Homography(x1 - x0, x2 - x1, x0, y1 - y0, y2 - y1, y0, 0, 0, 1);
+        }
+
+        double dx1 = x1 - x2;
+        double dx2 = x3 - x2;
+        double dy1 = y1 - y2;
+        double dy2 = y3 - y2;
+        double den = dx1 * dy2 - dx2 * dy1;
+        if (den == 0) {
+            throw new IllegalArgumentException("Degenerate quad: three corners are collinear");
+        }
+        double g = (sx * dy2 - dx2 * sy) / den;
+        double h = (dx1 * sy - sx * dy1) / den;
+        return new Homography(x1 - x0 + g * x1, x3 - x0 + h * x3, x0,
+                y1 - y0 + g * y1, y3 - y0 + h * y3, y0,
+                g, h, 1);
+    }
+
+    public static Homography quadToSquare(float[] quad, int offset) {
+        return squareToQuad(quad, offset).invert();
+    }
+
+    // Maps the quad at quad[offset] to the rectangle (0, 0) - (width, height), like
+    // getPerspectiveTransform from the quad to the rectangle outline.
+    public static Homography quadToRect(float[] quad, int offset, double width, double height) {
+        return scale(width, height).multiply(quadToSquare(quad, offset));
+    }
+
+    public static Homography quadToQuad(float[] src, int srcOffset, float[] dst, int dstOffset) {
+        return squareToQuad(dst, dstOffset).multiply(quadToSquare(src, srcOffset));
+    }
+
+    // Returns the transformation that applies o first and then this.
+    public Homography multiply(Homography o) {
+        return new Homography(
+                m00 * o.m00 + m01 * o.m10 + m02 * o.m20,
+                m00 * o.m01 + m01 * o.m11 + m02 * o.m21,
+                m00 * o.m02 + m01 * o.m12 + m02 * o.m22,
+                m10 * o.m00 + m11 * o.m10 + m12 * o.m20,
+                m10 * o.m01 + m11 * o.m11 + m12 * o.m21,
+                m10 * o.m02 + m11 * o.m12 + m12 * o.m22,
+                m20 * o.m00 + m21 * o.m10 + m22 * o.m20,
+                m20 * o.m01 + m21 * o.m11 + m22 * o.m21,
+                m20 * o.m02 + m21 * o.m12 + m22 * o.m22);
+    }
+
+    public double determinant() {
+        return m00 * (m11 * m22 - m12 * m21)
+                - m01 * (m10 * m22 - m12 * m20)
+                + m02 * (m10 * m21 - m11 * m20);
+    }
+
+    public Homography invert() {
+        Homography result = inverse;
+        if (result != null) {
+            return result;
+        }
+
+        double det = determinant();
+        if (det == 0) {
+            throw new IllegalStateException("Singular homography");
+        }
+        // Adjugate over the determinant.
+        double s = 1 / det;
+        result = new Homography(
+                (m11 * m22 - m12 * m21) * s, (m02 * m21 - m01 * m22) * s, (m01 * m12 - m02 * m11) * s,
+                (m12 * m20 - m10 * m22) * s, (m00 * m22 - m02 * m20) * s, (m02 * m10 - m00 * m12) * s,
+                (m10 * m21 - m11 * m20) * s, (m01 * m20 - m00 * m21) * s, (m00 * m11 - m01 * m10) * s);
+        result.inverse = this;
+        inverse = result;
+        return result;
+    }
+
+    public double mapX(double x, double y) {
+        return (m00 * x + m01 * y + m02) / (m20 * x + m21 * y + m22);
+    }
+
+    public double mapY(double x, double y) {
+        return (m10 * x + m11 * y + m12) / (m20 * x + m21 * y + m22);
+    }
+
+    // Maps count points packed as x0, y0, x1, y1, ... from src to dst. src and dst may be the same
+    // array.
+    public void map(float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count * 2; i += 2) {
+            double x = src[srcOffset + i];
+            double y = src[srcOffset + i + 1];
+            double w = 1 / (m20 * x + m21 * y + m22);
+            dst[dstOffset + i] = (float) ((m00 * x + m01 * y + m02) * w);
+            dst[dstOffset + i + 1] = (float) ((m10 * x + m11 * y + m12) * w);
+        }
+    }
+
+    // Maps points back, e.g. from the rectified image to the camera frame.
+    public void mapInverse(float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        invert().map(src, srcOffset, dst, dstOffset, count);
+    }
+
+    // Writes the 9 elements in row major order, e.g. for Mat.put() into a 3x3 CV_64F Mat.
+    public void toArray(double[] dst, int offset) {
+        dst[offset] = m00;
+        dst[offset + 1] = m01;
+        dst[offset + 2] = m02;
+        dst[offset + 3] = m10;
+        dst[offset + 4] = m11;
+        dst[offset + 5] = m12;
+        dst[offset + 6] = m20;
+        dst[offset + 7] = m21;
+        dst[offset + 8] = m22;
+    }
+
+    @Override
+    public String toString() {
+        return "Homography [" + m00 + ", " + m01 + ", " + m02 + "; " + m10 + ", " + m11 + ", " + m12 + "; "
+                + m20 + ", " + m21 + ", " + m22 + "]";
+    }
+}
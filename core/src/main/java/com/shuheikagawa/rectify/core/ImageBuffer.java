@@ -0,0 +1,185 @@
+package com.shuheikagawa.rectify.core;
+
+import java.nio.ByteBuffer;
+
+// An image in pooled storage, acquired from an ImageBufferPool and given back with release().
+//
+// Pixels start at getOffset() in buffer() and rows are getStride() bytes apart. Views from roi(),
+// yPlane() and vuPlane() share the storage of the acquired buffer without copying and become
+// invalid when it is released. Only the acquired buffer itself can be released.
+//
+// The storage ByteBuffer is shared. Access it with absolute gets and puts, or through array() and
+// arrayOffset() when the pool is heap backed.
+public final class ImageBuffer {
+    public enum Format {
+        // One byte per pixel.
+        GRAY(1),
+        // R, G, B and A bytes per pixel, the memory layout of Bitmap.Config.ARGB_8888 and CV_8UC4.
+        RGBA(4),
+        // Interleaved V and U bytes per chroma sample, the second plane of NV21.
+        VU(2),
+        // Full resolution Y plane followed by the VU plane at half resolution.
+        NV21(1);
+
+        // Bytes per pixel of the first plane.
+        public final int pixelStride;
+
+        Format(int pixelStride) {
+            this.pixelStride = pixelStride;
+        }
+
+        public int byteCount(int width, int height) {
+            if (this == NV21) {
+                return width * height + (width / 2) * (height / 2) * 2;
+            }
+            return width * height * pixelStride;
+        }
+    }
+
+    // Null for views.
+    private final ImageBufferPool pool;
+    // The acquired buffer that owns the storage. this for acquired buffers.
+    private final ImageBuffer owner;
+    private final ByteBuffer storage;
+    private final Format format;
+    private final int width;
+    private final int height;
+    private final int offset;
+    private final int stride;
+
+    private boolean released = false;
+    // Set by the pool while leak detection is on.
+    ImageBufferPool.LeakRecord leakRecord;
+
+    // Acquired buffer.
+    ImageBuffer(ImageBufferPool pool, ByteBuffer storage, Format format, int width, int height) {
+        this.pool = pool;
+        this.owner = this;
+        this.storage = storage;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.offset = 0;
+        this.stride = width * format.pixelStride;
+    }
+
+    // View.
+    private ImageBuffer(ImageBuffer owner, Format format, int width, int height, int offset, int stride) {
+        this.pool = null;
+        this.owner = owner;
+        this.storage = owner.storage;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Byte offset of the first pixel in buffer().
+    public int getOffset() {
+        return offset;
+    }
+
+    // Bytes from one row to the next.
+    public int getStride() {
+        return stride;
+    }
+
+    // Whether the rows follow each other without gaps, as the kernels of this module expect.
+    public boolean isContinuous() {
+        return stride == width * format.pixelStride;
+    }
+
+    public ByteBuffer buffer() {
+        checkValid();
+        return storage;
+    }
+
+    // Backing array of heap buffers. Throws UnsupportedOperationException for direct buffers.
+    public byte[] array() {
+        checkValid();
+        return storage.array();
+    }
+
+    // Index of the first pixel in array().
+    public int arrayOffset() {
+        checkValid();
+        return storage.arrayOffset() + offset;
+    }
+
+    // A width x height region starting at (x, y) of a GRAY, RGBA or VU image.
+    public ImageBuffer roi(int x, int y, int width, int height) {
+        checkValid();
+        if (format == Format.NV21) {
+            throw new IllegalStateException("Take the region of yPlane() or vuPlane() of an NV21 image");
+        }
+        if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height) {
+            throw new IllegalArgumentException("Region " + x + ", " + y + ", " + width + "x" + height +
+                    " is outside of the " + this.width + "x" + this.height + " image");
+        }
+        return new ImageBuffer(owner, format, width, height, offset + y * stride + x * format.pixelStride, stride);
+    }
+
+    // The luminance plane of an NV21 image, as a GRAY image.
+    public ImageBuffer yPlane() {
+        checkNv21();
+        return new ImageBuffer(owner, Format.GRAY, width, height, offset, stride);
+    }
+
+    // The chroma plane of an NV21 image, as a VU image at half resolution.
+    public ImageBuffer vuPlane() {
+        checkNv21();
+        return new ImageBuffer(owner, Format.VU, width / 2, height / 2, offset + stride * height, stride);
+    }
+
+    public boolean isReleased() {
+        return owner.released;
+    }
+
+    // Gives the storage back to the pool. Views of this buffer must not be used afterwards.
+    public void release() {
+        if (pool == null) {
+            throw new IllegalStateException("Views can't be released. Release the acquired buffer instead.");
+        }
+        if (released) {
+            throw new IllegalStateException("Already released");
+        }
+        released = true;
+        pool.recycle(this);
+    }
+
+    ByteBuffer storage() {
+        return storage;
+    }
+
+    private void checkNv21() {
+        checkValid();
+        if (format != Format.NV21) {
+            throw new IllegalStateException("Not an NV21 image: " + format);
+        }
+    }
+
+    private void checkValid() {
+        if (owner.released) {
+            throw new IllegalStateException("Used after release");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImageBuffer [ " + format + " " + width + "x" + height + ", offset=" + offset + ", stride=" + stride +
+                (owner.released ? ", released" : "") + " ]";
+    }
+}
@@ -0,0 +1,183 @@
+package com.shuheikagawa.rectify.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Pool of image storage in power of two size classes, so that a pipeline running on the same image
+// sizes frame after frame allocates nothing once warmed up.
+//
+// Storage is either direct, e.g. for Bitmap.copyPixelsFromBuffer() or native code, or on the heap
+// with a backing array for the kernels of this module, Mat.get() and Mat.put().
+//
+// With leak detection on, every acquire records its call site. Buffers that are reclaimed by the
+// garbage collector without release() are reported by getLeaks(). Keep it off in release builds.
+//
+// Thread safe.
+public class ImageBufferPool {
+    private static final int MIN_SIZE_CLASS_BITS = 12;
+    private static final int MAX_SIZE_CLASS_BITS = 30;
+    private static final int MAX_LEAK_REPORTS = 64;
+
+    private final boolean direct;
+    private final long maxRetainedBytes;
+
+    // Free storage per size class, indexed by log2 of the capacity.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[MAX_SIZE_CLASS_BITS + 1];
+    private long retainedBytes = 0;
+    private long allocationCount = 0;
+    private int outstandingCount = 0;
+
+    private volatile boolean leakDetection = false;
+    private final ReferenceQueue<ImageBuffer> reclaimed = new ReferenceQueue<ImageBuffer>();
+    // Keeps the records of outstanding buffers reachable.
+    private final Set<LeakRecord> leakRecords = new HashSet<LeakRecord>();
+    private final List<String> leaks = new ArrayList<String>();
+    private long leakCount = 0;
+
+    // Keeps at most maxRetainedBytes of free storage. Larger releases are dropped.
+    public ImageBufferPool(boolean direct, long maxRetainedBytes) {
+        this.direct = direct;
+        this.maxRetainedBytes = maxRetainedBytes;
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<ByteBuffer>();
+        }
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public void setLeakDetection(boolean enable) {
+        leakDetection = enable;
+    }
+
+    public synchronized ImageBuffer acquire(ImageBuffer.Format format, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        if (format == ImageBuffer.Format.NV21 && (width % 2 != 0 || height % 2 != 0)) {
+            throw new IllegalArgumentException("NV21 needs an even size: " + width + "x" + height);
+        }
+        pollReclaimed();
+
+        if ((long) width * height * 4 > 1L << MAX_SIZE_CLASS_BITS) {
+            throw new IllegalArgumentException("Image too large: " + width + "x" + height);
+        }
+        int bits = sizeClass(format.byteCount(width, height));
+        ByteBuffer storage = free[bits].pollFirst();
+        if (storage != null) {
+            retainedBytes -= storage.capacity();
+        } else {
+            storage = direct ? ByteBuffer.allocateDirect(1 << bits) : ByteBuffer.allocate(1 << bits);
+            allocationCount++;
+        }
+        storage.clear();
+
+        ImageBuffer buffer = new ImageBuffer(this, storage, format, width, height);
+        outstandingCount++;
+        if (leakDetection) {
+            LeakRecord record = new LeakRecord(buffer, reclaimed, findCallSite(new Throwable().getStackTrace()));
+            buffer.leakRecord = record;
+            leakRecords.add(record);
+        }
+        return buffer;
+    }
+
+    // Called by ImageBuffer.release().
+    synchronized void recycle(ImageBuffer buffer) {
+        outstandingCount--;
+        if (buffer.leakRecord != null) {
+            leakRecords.remove(buffer.leakRecord);
+            buffer.leakRecord.clear();
+            buffer.leakRecord = null;
+        }
+
+        ByteBuffer storage = buffer.storage();
+        if (retainedBytes + storage.capacity() <= maxRetainedBytes) {
+            free[Integer.numberOfTrailingZeros(storage.capacity())].addFirst(storage);
+            retainedBytes += storage.capacity();
+        }
+    }
+
+    // Drops all free storage.
+    public synchronized void clear() {
+        for (ArrayDeque<ByteBuffer> deque : free) {
+            deque.clear();
+        }
+        retainedBytes = 0;
+    }
+
+    // Number of storage allocations since creation. Stops growing in steady state.
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    // Buffers acquired and not released yet. Leaked buffers count as well unless leak detection is on.
+    public synchronized int getOutstandingCount() {
+        return outstandingCount;
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public synchronized long getLeakCount() {
+        pollReclaimed();
+        return leakCount;
+    }
+
+    // Call sites of the latest buffers reclaimed without release().
+    public synchronized List<String> getLeaks() {
+        pollReclaimed();
+        return new ArrayList<String>(leaks);
+    }
+
+    // Must be called with the lock held.
+    private void pollReclaimed() {
+        LeakRecord record;
+        while ((record = (LeakRecord) reclaimed.poll()) != null) {
+            if (!leakRecords.remove(record)) {
+                continue;
+            }
+            outstandingCount--;
+            leakCount++;
+            if (leaks.size() >= MAX_LEAK_REPORTS) {
+                leaks.remove(0);
+            }
+            leaks.add(record.callSite);
+        }
+    }
+
+    private static int sizeClass(int byteCount) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(byteCount, 1) - 1);
+        return Math.max(bits, MIN_SIZE_CLASS_BITS);
+    }
+
+    private static String findCallSite(StackTraceElement[] stack) {
+        String pool = ImageBufferPool.class.getName();
+        for (StackTraceElement element : stack) {
+            // The pool and its nested classes, but not other classes that share the prefix.
+            String name = element.getClassName();
+            if (!name.equals(pool) && !name.startsWith(pool + "$")) {
+                return element.toString();
+            }
+        }
+        return stack.length > 0 ? stack[stack.length - 1].toString() : "unknown";
+    }
+
+    static class LeakRecord extends WeakReference<ImageBuffer> {
+        final String callSite;
+
+        LeakRecord(ImageBuffer buffer, ReferenceQueue<ImageBuffer> queue, String callSite) {
+            super(buffer, queue);
+            this.callSite = callSite;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.shuheikagawa.rectify.core;
+
+import java.util.Arrays;
+
+// Image kernels of the detection front-end in plain Java, matching the OpenCV calls of RectFinder.
+// Images are rows of width * channels unsigned bytes with no padding between rows.
+//
+// The inner loops run over contiguous arrays without calls or object access so that the JIT can
+// unroll and vectorise them. Scratch buffers grow as needed and are reused across calls.
+// Not thread safe. Use one instance per thread.
+public class ImageKernels {
+    // tan(22.5 degrees) in 15 bit fixed point, as in OpenCV's Canny.
+    private static final int CANNY_TG22 = 13573;
+    private static final int CANNY_SHIFT = 15;
+
+    private static final byte NOT_EDGE = 1;
+    private static final byte MAYBE_EDGE = 0;
+    private static final byte EDGE = 2;
+
+    private float[] rowSums = new float[0];
+    private int[] sourceColumns = new int[0];
+    private float[] columnWeights = new float[0];
+    private int[] columnHistograms = new int[0];
+    private int[] coarseColumnHistograms = new int[0];
+    private final int[] kernelHistogram = new int[256];
+    private final int[] coarseKernelHistogram = new int[16];
+    // Column after the last one added to each 16 bin segment of the kernel histogram.
+    private final int[] segmentEnds = new int[16];
+    private int[] gradientsX = new int[0];
+    private int[] gradientsY = new int[0];
+    private int[] magnitudes = new int[0];
+    private byte[] edgeMap = new byte[0];
+    private int[] edgeStack = new int[0];
+    private byte[] rowMaxima = new byte[0];
+
+    // Downscales by averaging the source pixels covered by each destination pixel, with fractional
+    // weights at the edges, like Imgproc.resize with INTER_AREA. Upscales bilinearly instead, like
+    // the default INTER_LINEAR of Imgproc.resize that the OpenCV backend uses on small images.
+    public void resizeArea(byte[] src, int srcWidth, int srcHeight, int channels,
+                           byte[] dst, int dstWidth, int dstHeight) {
+        boolean up = dstWidth > srcWidth || dstHeight > srcHeight;
+        if (up && (dstWidth < srcWidth || dstHeight < srcHeight)) {
+            throw new IllegalArgumentException("Can't upscale one side and downscale the other: " + srcWidth + "x" +
+                    srcHeight + " to " + dstWidth + "x" + dstHeight);
+        }
+        if (up) {
+            resizeLinear(src, srcWidth, srcHeight, channels, dst, dstWidth, dstHeight);
+            return;
+        }
+
+        double scaleX = (double) srcWidth / dstWidth;
+        double scaleY = (double) srcHeight / dstHeight;
+        float norm = (float) (1 / (scaleX * scaleY));
+        int rowLength = srcWidth * channels;
+        float[] sums = rowSums = ensure(rowSums, rowLength);
+
+        for (int dy = 0; dy < dstHeight; dy++) {
+            // Weighted sum of the source rows covered by this destination row.
+            double y0 = dy * scaleY;
+            double y1 = Math.min((dy + 1) * scaleY, srcHeight);
+            Arrays.fill(sums, 0, rowLength, 0f);
+            for (int sy = (int) y0; sy < y1; sy++) {
+                float weight = (float) (Math.min(sy + 1, y1) - Math.max(sy, y0));
+                int offset = sy * rowLength;
+                for (int i = 0; i < rowLength; i++) {
+                    sums[i] += weight * (src[offset + i] & 0xff);
+                }
+            }
+
+            // Then the weighted sum of the covered columns.
+            int dstOffset = dy * dstWidth * channels;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                double x0 = dx * scaleX;
+                double x1 = Math.min((dx + 1) * scaleX, srcWidth);
+                for (int c = 0; c < channels; c++) {
+                    float sum = 0;
+                    for (int sx = (int) x0; sx < x1; sx++) {
+                        float weight = (float) (Math.min(sx + 1, x1) - Math.max(sx, x0));
+                        sum += weight * sums[sx * channels + c];
+                    }
+                    dst[dstOffset + dx * channels + c] = (byte) Math.min(255, (int) (sum * norm + 0.5f));
+                }
+            }
+        }
+    }
+
+    // Bilinear with pixel centres aligned and replicated borders. The source position of each
+    // destination column is computed once per call.
+    private void resizeLinear(byte[] src, int srcWidth, int srcHeight, int channels,
+                              byte[] dst, int dstWidth, int dstHeight) {
+        double scaleX = (double) srcWidth / dstWidth;
+        double scaleY = (double) srcHeight / dstHeight;
+        int[] columns = sourceColumns = ensure(sourceColumns, dstWidth);
+        float[] weights = columnWeights = ensure(columnWeights, dstWidth);
+        for (int dx = 0; dx < dstWidth; dx++) {
+            double sx = Math.max((dx + 0.5) * scaleX - 0.5, 0);
+            int x0 = Math.min((int) sx, srcWidth - 1);
+            columns[dx] = x0;
+            weights[dx] = x0 < srcWidth - 1 ? (float) (sx - x0) : 0f;
+        }
+
+        int rowLength = srcWidth * channels;
+        for (int dy = 0; dy < dstHeight; dy++) {
+            double sy = Math.max((dy + 0.5) * scaleY - 0.5, 0);
+            int y0 = Math.min((int) sy, srcHeight - 1);
+            float wy = y0 < srcHeight - 1 ? (float) (sy - y0) : 0f;
+            int row0 = y0 * rowLength;
+            int row1 = Math.min(y0 + 1, srcHeight - 1) * rowLength;
+            int dstOffset = dy * dstWidth * channels;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                int i0 = columns[dx] * channels;
+                int i1 = columns[dx] < srcWidth - 1 ? i0 + channels : i0;
+                float wx = weights[dx];
+                for (int c = 0; c < channels; c++) {
+                    int p00 = src[row0 + i0 + c] & 0xff;
+                    int p01 = src[row0 + i1 + c] & 0xff;
+                    int p10 = src[row1 + i0 + c] & 0xff;
+                    int p11 = src[row1 + i1 + c] & 0xff;
+                    float top = p00 + wx * (p01 - p00);
+                    float bottom = p10 + wx * (p11 - p10);
+                    dst[dstOffset + dx * channels + c] = (byte) (int) (top + wy * (bottom - top) + 0.5f);
+                }
+            }
+        }
+    }
+
+    // Median filter with a square odd kernel and replicated borders, like Imgproc.medianBlur.
+    // Constant time per pixel whatever the kernel size (Perreault and Hebert): one histogram per
+    // column slides down the image and the kernel histogram slides along the row. The 16 bin coarse
+    // kernel histogram is updated at every pixel and locates the 16 bin segment of the fine one that
+    // holds the median. Fine segments are only brought up to date when the search reaches them,
+    // like OpenCV's medianBlur_8u_O1, so most pixels touch one segment instead of 256 bins.
+    public void medianBlur(byte[] src, byte[] dst, int width, int height, int channels, int ksize) {
+        if (ksize < 3 || ksize % 2 == 0) {
+            throw new IllegalArgumentException("ksize must be odd and greater than 1: " + ksize);
+        }
+        if (src == dst) {
+            throw new IllegalArgumentException("In place filtering is not supported");
+        }
+
+        int radius = ksize / 2;
+        int rank = ksize * ksize / 2;
+        int stride = width * channels;
+        int[] fine = columnHistograms = ensure(columnHistograms, width * 256);
+        int[] coarse = coarseColumnHistograms = ensure(coarseColumnHistograms, width * 16);
+        int[] kernelFine = kernelHistogram;
+        int[] kernelCoarse = coarseKernelHistogram;
+        int[] ends = segmentEnds;
+
+        for (int c = 0; c < channels; c++) {
+            Arrays.fill(fine, 0, width * 256, 0);
+            Arrays.fill(coarse, 0, width * 16, 0);
+            for (int dy = -radius; dy <= radius; dy++) {
+                addRow(src, clamp(dy, height) * stride + c, channels, width, fine, coarse, 1);
+            }
+
+            for (int y = 0; y < height; y++) {
+                if (y > 0) {
+                    addRow(src, clamp(y - radius - 1, height) * stride + c, channels, width, fine, coarse, -1);
+                    addRow(src, clamp(y + radius, height) * stride + c, channels, width, fine, coarse, 1);
+                }
+
+                // Every fine segment is stale at the start of a row.
+                Arrays.fill(ends, Integer.MIN_VALUE);
+                Arrays.fill(kernelCoarse, 0);
+                for (int dx = -radius; dx <= radius; dx++) {
+                    int column = clamp(dx, width);
+                    for (int i = 0; i < 16; i++) {
+                        kernelCoarse[i] += coarse[column * 16 + i];
+                    }
+                }
+
+                int dstOffset = y * stride + c;
+                for (int x = 0; x < width; x++) {
+                    if (x > 0) {
+                        int added = clamp(x + radius, width);
+                        int removed = clamp(x - radius - 1, width);
+                        for (int i = 0; i < 16; i++) {
+                            kernelCoarse[i] += coarse[added * 16 + i] - coarse[removed * 16 + i];
+                        }
+                    }
+
+                    int seen = 0;
+                    int segment = 0;
+                    while (seen + kernelCoarse[segment] <= rank) {
+                        seen += kernelCoarse[segment++];
+                    }
+                    updateSegment(fine, kernelFine, ends, segment, x, radius, width);
+
+                    int value = segment * 16;
+                    while (seen + kernelFine[value] <= rank) {
+                        seen += kernelFine[value++];
+                    }
+                    dst[dstOffset + x * channels] = (byte) value;
+                }
+            }
+        }
+    }
+
+    private static void addRow(byte[] src, int offset, int channels, int width, int[] fine, int[] coarse, int delta) {
+        for (int x = 0; x < width; x++) {
+            int value = src[offset + x * channels] & 0xff;
+            fine[x * 256 + value] += delta;
+            coarse[x * 16 + (value >> 4)] += delta;
+        }
+    }
+
+    // Makes a segment of the kernel histogram cover columns x - radius to x + radius. It covers the
+    // ksize columns before ends[segment]. Slides it column by column when the two windows overlap,
+    // and sums it again from the column histograms otherwise, which costs no more.
+    private static void updateSegment(int[] fine, int[] kernelFine, int[] ends, int segment,
+                                      int x, int radius, int width) {
+        int ksize = radius * 2 + 1;
+        int end = x + radius + 1;
+        int base = segment * 16;
+        if (ends[segment] <= x - radius) {
+            Arrays.fill(kernelFine, base, base + 16, 0);
+            for (int column = x - radius; column < end; column++) {
+                int offset = clamp(column, width) * 256 + base;
+                for (int i = 0; i < 16; i++) {
+                    kernelFine[base + i] += fine[offset + i];
+                }
+            }
+        } else {
+            for (int column = ends[segment]; column < end; column++) {
+                int added = clamp(column, width) * 256 + base;
+                int removed = clamp(column - ksize, width) * 256 + base;
+                for (int i = 0; i < 16; i++) {
+                    kernelFine[base + i] += fine[added + i] - fine[removed + i];
+                }
+            }
+        }
+        ends[segment] = end;
+    }
+
+    // Copies one channel of an interleaved image, like Core.mixChannels with a single pair.
+    public static void extractChannel(byte[] src, int channels, int channel, byte[] dst, int pixelCount) {
+        for (int i = 0; i < pixelCount; i++) {
+            dst[i] = src[i * channels + channel];
+        }
+    }
+
+    // Like Imgproc.threshold with THRESH_BINARY and 255 as the maximum value.
+    public static void threshold(byte[] src, byte[] dst, int length, int threshold) {
+        for (int i = 0; i < length; i++) {
+            // The sign bit of threshold - value is set when value > threshold. No branch.
+            dst[i] = (byte) ((threshold - (src[i] & 0xff)) >> 31);
+        }
+    }
+
+    // Like Imgproc.dilate with a 3x3 kernel of ones: pixels outside the image are ignored.
+    // src and dst may be the same array.
+    public void dilate3x3(byte[] src, byte[] dst, int width, int height) {
+        byte[] rows = rowMaxima = ensure(rowMaxima, width * height);
+
+        // Horizontal maximum, then vertical. Clamping to the border is the same as ignoring
+        // the outside for a maximum.
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int left = src[offset + Math.max(x - 1, 0)] & 0xff;
+                int center = src[offset + x] & 0xff;
+                int right = src[offset + Math.min(x + 1, width - 1)] & 0xff;
+                rows[offset + x] = (byte) Math.max(center, Math.max(left, right));
+            }
+        }
+
+        for (int y = 0; y < height; y++) {
+            int up = Math.max(y - 1, 0) * width;
+            int offset = y * width;
+            int down = Math.min(y + 1, height - 1) * width;
+            for (int x = 0; x < width; x++) {
+                int value = Math.max(rows[offset + x] & 0xff, Math.max(rows[up + x] & 0xff, rows[down + x] & 0xff));
+                dst[offset + x] = (byte) value;
+            }
+        }
+    }
+
+    // Like Imgproc.Canny with the default 3x3 Sobel aperture and L1 gradient. Edges are 255 in dst.
+    public void canny(byte[] src, byte[] dst, int width, int height, int lowThreshold, int highThreshold) {
+        if (lowThreshold > highThreshold) {
+            int swap = lowThreshold;
+            lowThreshold = highThreshold;
+            highThreshold = swap;
+        }
+
+        int size = width * height;
+        // Magnitudes and the edge map have a border of one pixel on every side.
+        int mapWidth = width + 2;
+        int mapSize = mapWidth * (height + 2);
+        int[] dx = gradientsX = ensure(gradientsX, size);
+        int[] dy = gradientsY = ensure(gradientsY, size);
+        int[] mag = magnitudes = ensure(magnitudes, mapSize);
+        byte[] map = edgeMap = ensure(edgeMap, mapSize);
+        int[] stack = edgeStack = ensure(edgeStack, size);
+
+        // Sobel with replicated borders.
+        Arrays.fill(mag, 0, mapSize, 0);
+        for (int y = 0; y < height; y++) {
+            int up = Math.max(y - 1, 0) * width;
+            int row = y * width;
+            int down = Math.min(y + 1, height - 1) * width;
+            for (int x = 0; x < width; x++) {
+                int left = Math.max(x - 1, 0);
+                int right = Math.min(x + 1, width - 1);
+                int gx = (src[up + right] & 0xff) - (src[up + left] & 0xff)
+                        + 2 * ((src[row + right] & 0xff) - (src[row + left] & 0xff))
+                        + (src[down + right] & 0xff) - (src[down + left] & 0xff);
+                int gy = (src[down + left] & 0xff) + 2 * (src[down + x] & 0xff) + (src[down + right] & 0xff)
+                        - (src[up + left] & 0xff) - 2 * (src[up + x] & 0xff) - (src[up + right] & 0xff);
+                dx[row + x] = gx;
+                dy[row + x] = gy;
+                mag[(y + 1) * mapWidth + x + 1] = Math.abs(gx) + Math.abs(gy);
+            }
+        }
+
+        // Non-maximum suppression along the quantized gradient direction. Strong edges go on the stack.
+        Arrays.fill(map, 0, mapSize, NOT_EDGE);
+        int top = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int j = (y + 1) * mapWidth + x + 1;
+                int m = mag[j];
+                if (m <= lowThreshold) {
+                    continue;
+                }
+
+                int gx = dx[y * width + x];
+                int gy = dy[y * width + x];
+                int xs = Math.abs(gx);
+                int ys = Math.abs(gy) << CANNY_SHIFT;
+                int tg22x = xs * CANNY_TG22;
+                boolean isMaximum;
+                if (ys < tg22x) {
+                    isMaximum = m > mag[j - 1] && m >= mag[j + 1];
+                } else {
+                    int tg67x = tg22x + (xs << (CANNY_SHIFT + 1));
+                    if (ys > tg67x) {
+                        isMaximum = m > mag[j - mapWidth] && m >= mag[j + mapWidth];
+                    } else {
+                        int s = (gx ^ gy) < 0 ? -1 : 1;
+                        isMaximum = m > mag[j - mapWidth - s] && m > mag[j + mapWidth + s];
+                    }
+                }
+                if (!isMaximum) {
+                    continue;
+                }
+
+                if (m > highThreshold) {
+                    map[j] = EDGE;
+                    stack[top++] = j;
+                } else {
+                    map[j] = MAYBE_EDGE;
+                }
+            }
+        }
+
+        // Hysteresis: weak edges connected to strong ones become edges. The border is never a candidate.
+        while (top > 0) {
+            int j = stack[--top];
+            top = follow(map, stack, top, j - mapWidth - 1);
+            top = follow(map, stack, top, j - mapWidth);
+            top = follow(map, stack, top, j - mapWidth + 1);
+            top = follow(map, stack, top, j - 1);
+            top = follow(map, stack, top, j + 1);
+            top = follow(map, stack, top, j + mapWidth - 1);
+            top = follow(map, stack, top, j + mapWidth);
+            top = follow(map, stack, top, j + mapWidth + 1);
+        }
+
+        for (int y = 0; y < height; y++) {
+            int offset = (y + 1) * mapWidth + 1;
+            int dstOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                // EDGE >> 1 is 1, the others are 0.
+                dst[dstOffset + x] = (byte) -(map[offset + x] >> 1);
+            }
+        }
+    }
+
+    private static int follow(byte[] map, int[] stack, int top, int j) {
+        if (map[j] == MAYBE_EDGE) {
+            map[j] = EDGE;
+            stack[top++] = j;
+        }
+        return top;
+    }
+
+    private static int clamp(int value, int length) {
+        return value < 0 ? 0 : (value >= length ? length - 1 : value);
+    }
+
+    private static int[] ensure(int[] buffer, int length) {
+        return buffer.length >= length ? buffer : new int[length];
+    }
+
+    private static float[] ensure(float[] buffer, int length) {
+        return buffer.length >= length ? buffer : new float[length];
+    }
+
+    private static byte[] ensure(byte[] buffer, int length) {
+        return buffer.length >= length ? buffer : new byte[length];
+    }
+}
@@ -0,0 +1,604 @@
+package com.shuheikagawa.rectify.core;
+
+import java.util.Arrays;
+
+// Decodes baseline JPEG images such as camera captures at 1/1, 1/2, 1/4 or 1/8 of their size.
+//
+// The scaling happens in the DCT domain: each 8x8 block goes through an inverse DCT of only its
+// lowest 8 / scale frequencies per direction, which yields the block at the reduced size directly.
+// At 1/8 only the DC coefficients are used. The remaining coefficients are still entropy decoded
+// but neither dequantized nor transformed, and with grayOnly the chroma blocks are skipped the same
+// way and there is no colour conversion. The work after entropy decoding thus no longer depends
+// on the resolution of the capture.
+//
+// Output is GRAY or RGBA bytes in getPixels(), reused across calls. Chroma is upsampled by nearest
+// neighbour and the EXIF orientation is not applied. Progressive, lossless, arithmetic coded and
+// CMYK images are rejected with an IllegalArgumentException.
+//
+// Not thread safe.
+public class JpegDecoder {
+    // Natural order index of each coefficient in zigzag order.
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    // Huffman codes up to this length are decoded with one table lookup.
+    private static final int LOOKUP_BITS = 9;
+
+    private byte[] data;
+    private int pos;
+    private int bitBuffer;
+    private int bitCount;
+
+    private int width;
+    private int height;
+    private int componentCount;
+    private final Component[] components = new Component[3];
+    private int hMax;
+    private int vMax;
+    private int restartInterval;
+    private boolean frameRead;
+
+    private final int[][] quantTables = new int[4][64];
+    private final HuffmanTable[] dcTables = new HuffmanTable[4];
+    private final HuffmanTable[] acTables = new HuffmanTable[4];
+
+    // Inverse DCT of the current block size.
+    private int blockSize;
+    private float[] basis = new float[0];
+    private final boolean[] kept = new boolean[64];
+    private final int[] coefficients = new int[64];
+    private final float[] rows = new float[64];
+
+    private int outputWidth;
+    private int outputHeight;
+    private int channels;
+    private byte[] pixels = new byte[0];
+
+    public JpegDecoder() {
+        for (int i = 0; i < 4; i++) {
+            dcTables[i] = new HuffmanTable();
+            acTables[i] = new HuffmanTable();
+        }
+        for (int i = 0; i < components.length; i++) {
+            components[i] = new Component();
+        }
+    }
+
+    // Largest of 1, 2, 4 and 8 that keeps the longer side of a width x height image at least minSize.
+    public static int scaleFor(int width, int height, int minSize) {
+        int longer = Math.max(width, height);
+        int scale = 8;
+        while (scale > 1 && longer / scale < minSize) {
+            scale /= 2;
+        }
+        return scale;
+    }
+
+    // Reads the size of the image without decoding it, for getWidth() and getHeight().
+    public void readHeader(byte[] jpeg) {
+        parse(jpeg, 1, true, false);
+    }
+
+    // Decodes the image at 1 / scale of its size, into getOutputWidth() x getOutputHeight() pixels of
+    // getChannels() bytes each.
+    public void decode(byte[] jpeg, int scale, boolean grayOnly) {
+        if (scale != 1 && scale != 2 && scale != 4 && scale != 8) {
+            throw new IllegalArgumentException("scale must be 1, 2, 4 or 8: " + scale);
+        }
+        parse(jpeg, scale, grayOnly, true);
+    }
+
+    // Size of the full image.
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    // 1 for GRAY or 4 for RGBA.
+    public int getChannels() {
+        return channels;
+    }
+
+    // May be longer than the image.
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    private void parse(byte[] jpeg, int scale, boolean grayOnly, boolean decode) {
+        data = jpeg;
+        pos = 0;
+        frameRead = false;
+        restartInterval = 0;
+        try {
+            if (readByte() != 0xff || readByte() != 0xd8) {
+                throw new IllegalArgumentException("Not a JPEG image");
+            }
+            while (true) {
+                int marker = readMarker();
+                switch (marker) {
+                    case 0xc0:
+                    case 0xc1:
+                        readFrame();
+                        if (!decode) {
+                            return;
+                        }
+                        break;
+                    case 0xc4:
+                        readHuffmanTables();
+                        break;
+                    case 0xdb:
+                        readQuantTables();
+                        break;
+                    case 0xdd:
+                        readLength();
+                        restartInterval = readShort();
+                        break;
+                    case 0xda:
+                        readScan(scale, grayOnly);
+                        return;
+                    case 0xd9:
+                        throw new IllegalArgumentException("No image data");
+                    default:
+                        if (marker >= 0xc2 && marker <= 0xcf) {
+                            throw new IllegalArgumentException(String.format("Unsupported JPEG process: 0x%02x", marker));
+                        }
+                        // APPn, COM and others.
+                        pos += readLength();
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated JPEG image", e);
+        } finally {
+            data = null;
+        }
+    }
+
+    private int readMarker() {
+        // Skip fill bytes and anything else up to the next marker.
+        while (readByte() != 0xff) {
+        }
+        int marker;
+        do {
+            marker = readByte();
+        } while (marker == 0xff);
+        return marker;
+    }
+
+    private int readByte() {
+        return data[pos++] & 0xff;
+    }
+
+    private int readShort() {
+        return (readByte() << 8) | readByte();
+    }
+
+    // Length of the segment after the length field.
+    private int readLength() {
+        int length = readShort() - 2;
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid segment length");
+        }
+        return length;
+    }
+
+    private void readFrame() {
+        int end = readLength() + pos;
+        int precision = readByte();
+        if (precision != 8) {
+            throw new IllegalArgumentException("Unsupported sample precision: " + precision);
+        }
+        height = readShort();
+        width = readShort();
+        componentCount = readByte();
+        if (width == 0 || height == 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+        if (componentCount != 1 && componentCount != 3) {
+            throw new IllegalArgumentException("Unsupported number of components: " + componentCount);
+        }
+
+        hMax = 1;
+        vMax = 1;
+        for (int i = 0; i < componentCount; i++) {
+            Component c = components[i];
+            c.id = readByte();
+            int sampling = readByte();
+            c.h = sampling >> 4;
+            c.v = sampling & 15;
+            c.quantTable = readByte() & 3;
+            if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4) {
+                throw new IllegalArgumentException("Invalid sampling factors");
+            }
+            hMax = Math.max(hMax, c.h);
+            vMax = Math.max(vMax, c.v);
+        }
+        if (componentCount == 1) {
+            // A single component scan is not interleaved: one block per MCU.
+            components[0].h = 1;
+            components[0].v = 1;
+            hMax = 1;
+            vMax = 1;
+        }
+        pos = end;
+        frameRead = true;
+    }
+
+    private void readQuantTables() {
+        int end = readLength() + pos;
+        while (pos < end) {
+            int info = readByte();
+            int[] table = quantTables[info & 3];
+            boolean sixteenBits = (info >> 4) != 0;
+            for (int i = 0; i < 64; i++) {
+                table[ZIGZAG[i]] = sixteenBits ? readShort() : readByte();
+            }
+        }
+    }
+
+    private void readHuffmanTables() {
+        int end = readLength() + pos;
+        while (pos < end) {
+            int info = readByte();
+            HuffmanTable table = ((info >> 4) == 0 ? dcTables : acTables)[info & 3];
+            int count = 0;
+            for (int i = 1; i <= 16; i++) {
+                table.counts[i] = readByte();
+                count += table.counts[i];
+            }
+            if (count > 256) {
+                throw new IllegalArgumentException("Invalid Huffman table");
+            }
+            for (int i = 0; i < count; i++) {
+                table.values[i] = (byte) readByte();
+            }
+            table.build();
+        }
+    }
+
+    private void readScan(int scale, boolean grayOnly) {
+        if (!frameRead) {
+            throw new IllegalArgumentException("Scan before frame header");
+        }
+        int end = readLength() + pos;
+        int scanComponents = readByte();
+        if (scanComponents != componentCount) {
+            throw new IllegalArgumentException("Non-interleaved scans are not supported");
+        }
+        for (int i = 0; i < scanComponents; i++) {
+            int id = readByte();
+            int tables = readByte();
+            Component c = findComponent(id);
+            c.dcTable = dcTables[tables >> 4 & 3];
+            c.acTable = acTables[tables & 3];
+        }
+        pos = end;
+
+        boolean gray = grayOnly || componentCount == 1;
+        prepareBlocks(8 / scale);
+        int mcusX = (width + 8 * hMax - 1) / (8 * hMax);
+        int mcusY = (height + 8 * vMax - 1) / (8 * vMax);
+        for (int i = 0; i < componentCount; i++) {
+            Component c = components[i];
+            c.planeWidth = mcusX * c.h * blockSize;
+            c.planeHeight = mcusY * c.v * blockSize;
+            c.predictor = 0;
+            c.decoded = i == 0 || !gray;
+            if (c.decoded && c.plane.length < c.planeWidth * c.planeHeight) {
+                c.plane = new byte[c.planeWidth * c.planeHeight];
+            }
+        }
+
+        bitBuffer = 0;
+        bitCount = 0;
+        int mcuCount = mcusX * mcusY;
+        for (int mcu = 0; mcu < mcuCount; mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                restart();
+            }
+            int mcuX = mcu % mcusX;
+            int mcuY = mcu / mcusX;
+            for (int i = 0; i < componentCount; i++) {
+                Component c = components[i];
+                for (int v = 0; v < c.v; v++) {
+                    for (int h = 0; h < c.h; h++) {
+                        if (decodeBlock(c)) {
+                            writeBlock(c, mcuX * c.h + h, mcuY * c.v + v);
+                        }
+                    }
+                }
+            }
+        }
+
+        outputWidth = (width + scale - 1) / scale;
+        outputHeight = (height + scale - 1) / scale;
+        if (gray) {
+            writeGray();
+        } else {
+            writeRgba();
+        }
+    }
+
+    private Component findComponent(int id) {
+        for (int i = 0; i < componentCount; i++) {
+            if (components[i].id == id) {
+                return components[i];
+            }
+        }
+        throw new IllegalArgumentException("Unknown component in scan: " + id);
+    }
+
+    // Sets up the inverse DCT from the n x n lowest frequencies to n x n pixels.
+    private void prepareBlocks(int n) {
+        if (blockSize == n) {
+            return;
+        }
+        blockSize = n;
+        basis = new float[n * n];
+        for (int u = 0; u < n; u++) {
+            for (int k = 0; k < n; k++) {
+                double c = k == 0 ? Math.sqrt(0.5) : 1;
+                basis[u * n + k] = (float) (0.5 * c * Math.cos((2 * u + 1) * k * Math.PI / (2 * n)));
+            }
+        }
+        for (int i = 0; i < 64; i++) {
+            kept[i] = (ZIGZAG[i] >> 3) < n && (ZIGZAG[i] & 7) < n;
+        }
+    }
+
+    // Entropy decodes one block. Returns whether its coefficients were kept for writeBlock().
+    private boolean decodeBlock(Component c) {
+        boolean keep = c.decoded;
+        int[] q = quantTables[c.quantTable];
+        int[] coef = coefficients;
+        if (keep) {
+            for (int i = 0; i < 64; i++) {
+                if (kept[i]) {
+                    coef[ZIGZAG[i]] = 0;
+                }
+            }
+        }
+
+        int t = decodeHuffman(c.dcTable);
+        c.predictor += t == 0 ? 0 : receiveExtend(t);
+        coef[0] = c.predictor * q[0];
+
+        HuffmanTable ac = c.acTable;
+        for (int k = 1; k < 64; ) {
+            int rs = decodeHuffman(ac);
+            int r = rs >> 4;
+            int s = rs & 15;
+            if (s == 0) {
+                if (r != 15) {
+                    break;
+                }
+                k += 16;
+                continue;
+            }
+            k += r;
+            if (k > 63) {
+                throw new IllegalArgumentException("Corrupt JPEG data");
+            }
+            if (keep && kept[k]) {
+                int z = ZIGZAG[k];
+                coef[z] = receiveExtend(s) * q[z];
+            } else {
+                skipBits(s);
+            }
+            k++;
+        }
+        return keep;
+    }
+
+    // Inverse DCT of the kept coefficients into the plane of the component.
+    private void writeBlock(Component c, int blockX, int blockY) {
+        int n = blockSize;
+        int[] coef = coefficients;
+        int offset = blockY * n * c.planeWidth + blockX * n;
+        byte[] plane = c.plane;
+
+        if (n == 1) {
+            plane[offset] = clamp(Math.round(coef[0] / 8f) + 128);
+            return;
+        }
+
+        // Horizontal pass over the frequency rows, then the vertical pass into pixels.
+        float[] b = basis;
+        for (int r = 0; r < n; r++) {
+            for (int u = 0; u < n; u++) {
+                float sum = 0;
+                for (int k = 0; k < n; k++) {
+                    sum += b[u * n + k] * coef[r * 8 + k];
+                }
+                rows[r * n + u] = sum;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            for (int u = 0; u < n; u++) {
+                float sum = 0;
+                for (int r = 0; r < n; r++) {
+                    sum += b[v * n + r] * rows[r * n + u];
+                }
+                plane[offset + v * c.planeWidth + u] = clamp(Math.round(sum) + 128);
+            }
+        }
+    }
+
+    private void writeGray() {
+        channels = 1;
+        Component y = components[0];
+        ensurePixels(outputWidth * outputHeight);
+        for (int row = 0; row < outputHeight; row++) {
+            System.arraycopy(y.plane, row * y.planeWidth, pixels, row * outputWidth, outputWidth);
+        }
+    }
+
+    // JFIF YCbCr to RGB in 16 bit fixed point.
+    private void writeRgba() {
+        channels = 4;
+        Component y = components[0];
+        Component cb = components[1];
+        Component cr = components[2];
+        ensurePixels(outputWidth * outputHeight * 4);
+        int out = 0;
+        for (int row = 0; row < outputHeight; row++) {
+            int yRow = row * y.planeWidth;
+            int cbRow = (row * cb.v / vMax) * cb.planeWidth;
+            int crRow = (row * cr.v / vMax) * cr.planeWidth;
+            for (int col = 0; col < outputWidth; col++) {
+                int luma = (y.plane[yRow + col] & 0xff) << 16;
+                int blue = (cb.plane[cbRow + col * cb.h / hMax] & 0xff) - 128;
+                int red = (cr.plane[crRow + col * cr.h / hMax] & 0xff) - 128;
+                pixels[out++] = clamp((luma + 91881 * red + 32768) >> 16);
+                pixels[out++] = clamp((luma - 22554 * blue - 46802 * red + 32768) >> 16);
+                pixels[out++] = clamp((luma + 116130 * blue + 32768) >> 16);
+                pixels[out++] = (byte) 0xff;
+            }
+        }
+    }
+
+    // Keeps the length a multiple of 4 for 4 channel Mat.put().
+    private void ensurePixels(int length) {
+        if (pixels.length < length) {
+            pixels = new byte[(length + 3) & ~3];
+        }
+    }
+
+    private static byte clamp(int value) {
+        return (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+    }
+
+    // Skips to the RSTn marker and resets the decoder state.
+    private void restart() {
+        bitBuffer = 0;
+        bitCount = 0;
+        while (pos + 1 < data.length &&
+                !((data[pos] & 0xff) == 0xff && (data[pos + 1] & 0xff) >= 0xd0 && (data[pos + 1] & 0xff) <= 0xd7)) {
+            pos++;
+        }
+        pos += 2;
+        for (int i = 0; i < componentCount; i++) {
+            components[i].predictor = 0;
+        }
+    }
+
+    // Keeps at least 25 bits buffered. Stuffed zero bytes are dropped and zeros are fed at markers
+    // and past the end of the data.
+    private void fillBits() {
+        while (bitCount <= 24) {
+            int b = 0;
+            if (pos < data.length) {
+                b = data[pos] & 0xff;
+                if (b != 0xff) {
+                    pos++;
+                } else if (pos + 1 < data.length && data[pos + 1] == 0) {
+                    pos += 2;
+                } else {
+                    // Marker. Leave it for restart().
+                    b = 0;
+                }
+            }
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+    }
+
+    private int peekBits(int n) {
+        if (bitCount < n) {
+            fillBits();
+        }
+        return (bitBuffer >>> (bitCount - n)) & ((1 << n) - 1);
+    }
+
+    private void skipBits(int n) {
+        if (bitCount < n) {
+            fillBits();
+        }
+        bitCount -= n;
+    }
+
+    // Reads an s bit coefficient and extends its sign.
+    private int receiveExtend(int s) {
+        int value = peekBits(s);
+        bitCount -= s;
+        return value < (1 << (s - 1)) ? value - (1 << s) + 1 : value;
+    }
+
+    private int decodeHuffman(HuffmanTable table) {
+        int entry = table.lookup[peekBits(LOOKUP_BITS)];
+        if (entry != 0) {
+            bitCount -= entry >> 8;
+            return entry & 0xff;
+        }
+        for (int length = LOOKUP_BITS + 1; length <= 16; length++) {
+            int code = peekBits(length);
+            if (code <= table.maxCode[length]) {
+                bitCount -= length;
+                return table.values[table.valueOffsets[length] + code - table.minCode[length]] & 0xff;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt JPEG data: invalid Huffman code");
+    }
+
+    private static class Component {
+        int id;
+        int h;
+        int v;
+        int quantTable;
+        HuffmanTable dcTable;
+        HuffmanTable acTable;
+        int predictor;
+        boolean decoded;
+        byte[] plane = new byte[0];
+        int planeWidth;
+        int planeHeight;
+    }
+
+    private static class HuffmanTable {
+        final int[] counts = new int[17];
+        final byte[] values = new byte[256];
+        final int[] minCode = new int[17];
+        final int[] maxCode = new int[17];
+        final int[] valueOffsets = new int[17];
+        // Code length << 8 | value for every LOOKUP_BITS bit prefix, 0 for longer codes.
+        final int[] lookup = new int[1 << LOOKUP_BITS];
+
+        void build() {
+            Arrays.fill(lookup, 0);
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffsets[length] = index;
+                minCode[length] = code;
+                for (int i = 0; i < counts[length]; i++) {
+                    if (length <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - length;
+                        int entry = (length << 8) | (values[index] & 0xff);
+                        for (int j = 0; j < 1 << shift; j++) {
+                            lookup[(code << shift) | j] = entry;
+                        }
+                    }
+                    code++;
+                    index++;
+                }
+                maxCode[length] = counts[length] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.shuheikagawa.rectify.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// Perspective warp with bilinear sampling, like Imgproc.warpPerspective with INTER_LINEAR and a
+// zero border. Each destination pixel (x, y) is sampled from the source at the given destination
+// to source homography applied to (x, y).
+//
+// Destination rows are split into bands warped in parallel, one of them on the calling thread.
+// Within a row the homogeneous source coordinates are stepped incrementally and the interpolation
+// runs in 8 bit fixed point.
+//
+// Warps write into caller-owned arrays, so the destination can be reused across frames. A 4 channel
+// RGBA byte destination can be handed to Bitmap.copyPixelsFromBuffer() through ByteBuffer.wrap().
+// Packed int ARGB pixels suit Bitmap.setPixels() instead.
+//
+// Thread safe. Warps started from several threads share the band threads. Call shutdown() when done.
+public class PerspectiveWarper {
+    // Called on the thread that warps each band, e.g. to trace the band threads.
+    public interface BandObserver {
+        // Returns a token that is handed to bandFinished(), e.g. a start time.
+        long bandStarted(int startRow, int endRow);
+
+        void bandFinished(long token);
+    }
+
+    // Fraction bits of the interpolation weights.
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    private static final int WEIGHT_MASK = WEIGHT_ONE - 1;
+
+    private final int bandCount;
+    // Null with a single band.
+    private final ExecutorService executor;
+    private volatile BandObserver bandObserver;
+
+    public PerspectiveWarper(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        bandCount = threadCount;
+        if (threadCount > 1) {
+            // The calling thread warps one band itself.
+            executor = Executors.newFixedThreadPool(threadCount - 1, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PerspectiveWarper-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    // One band per available processor.
+    public PerspectiveWarper() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // Null for none.
+    public void setBandObserver(BandObserver bandObserver) {
+        this.bandObserver = bandObserver;
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    // Warps packed ARGB pixels.
+    public void warp(final int[] src, final int srcWidth, final int srcHeight,
+                     final int[] dst, final int dstWidth, int dstHeight, Homography dstToSrc) {
+        checkLength(src.length, srcWidth * srcHeight);
+        checkLength(dst.length, dstWidth * dstHeight);
+        final double[] m = new double[9];
+        dstToSrc.toArray(m, 0);
+        run(dstHeight, new Band() {
+            @Override
+            public void warpRows(int startRow, int endRow) {
+                warpRowsArgb(src, srcWidth, srcHeight, dst, dstWidth, startRow, endRow, m);
+            }
+        });
+    }
+
+    // Warps interleaved 8 bit pixels with 1 to 4 channels, e.g. a gray plane or RGBA.
+    public void warp(byte[] src, int srcWidth, int srcHeight,
+                     byte[] dst, int dstWidth, int dstHeight, int channels, Homography dstToSrc) {
+        warp(src, 0, srcWidth * channels, srcWidth, srcHeight,
+                dst, 0, dstWidth * channels, dstWidth, dstHeight, channels, dstToSrc);
+    }
+
+    // Warps between heap backed GRAY, RGBA or VU images of the same format, within their regions
+    // only. Views from ImageBuffer.roi() work as well.
+    public void warp(ImageBuffer src, ImageBuffer dst, Homography dstToSrc) {
+        if (src.getFormat() != dst.getFormat() || src.getFormat() == ImageBuffer.Format.NV21) {
+            throw new IllegalArgumentException("Can't warp " + src.getFormat() + " to " + dst.getFormat());
+        }
+        warp(src.array(), src.arrayOffset(), src.getStride(), src.getWidth(), src.getHeight(),
+                dst.array(), dst.arrayOffset(), dst.getStride(), dst.getWidth(), dst.getHeight(),
+                src.getFormat().pixelStride, dstToSrc);
+    }
+
+    // Pixel (x, y) of an image is at offset + y * stride + x * channels.
+    private void warp(final byte[] src, final int srcOffset, final int srcStride,
+                      final int srcWidth, final int srcHeight,
+                      final byte[] dst, final int dstOffset, final int dstStride,
+                      final int dstWidth, int dstHeight,
+                      final int channels, Homography dstToSrc) {
+        if (channels < 1 || channels > 4) {
+            throw new IllegalArgumentException("channels must be from 1 to 4: " + channels);
+        }
+        checkRegion(src.length, srcOffset, srcStride, srcWidth * channels, srcHeight);
+        checkRegion(dst.length, dstOffset, dstStride, dstWidth * channels, dstHeight);
+        final double[] m = new double[9];
+        dstToSrc.toArray(m, 0);
+        run(dstHeight, new Band() {
+            @Override
+            public void warpRows(int startRow, int endRow) {
+                warpRowsBytes(src, srcOffset, srcStride, srcWidth, srcHeight, dst, dstOffset, dstStride, dstWidth,
+                        channels, startRow, endRow, m);
+            }
+        });
+    }
+
+    private interface Band {
+        void warpRows(int startRow, int endRow);
+    }
+
+    private void run(int rows, final Band band) {
+        final BandObserver observer = bandObserver;
+        int bands = Math.min(bandCount, rows);
+        if (bands <= 1) {
+            warpBand(band, 0, rows, observer);
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(bands - 1);
+        for (int i = 1; i < bands; i++) {
+            final int startRow = rows * i / bands;
+            final int endRow = rows * (i + 1) / bands;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    warpBand(band, startRow, endRow, observer);
+                }
+            }));
+        }
+        warpBand(band, 0, rows / bands, observer);
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while warping", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Warp failed", e.getCause());
+        }
+    }
+
+    private static void warpBand(Band band, int startRow, int endRow, BandObserver observer) {
+        if (observer == null) {
+            band.warpRows(startRow, endRow);
+            return;
+        }
+        long token = observer.bandStarted(startRow, endRow);
+        try {
+            band.warpRows(startRow, endRow);
+        } finally {
+            observer.bandFinished(token);
+        }
+    }
+
+    private static void warpRowsArgb(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth,
+                                     int startRow, int endRow, double[] m) {
+        int maxX = srcWidth - 1;
+        int maxY = srcHeight - 1;
+        for (int y = startRow; y < endRow; y++) {
+            // Homogeneous source coordinates of (0, y), stepped by the first column of m.
+            double hx = m[1] * y + m[2];
+            double hy = m[4] * y + m[5];
+            double hw = m[7] * y + m[8];
+            int out = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++, hx += m[0], hy += m[3], hw += m[6]) {
+                double w = 1 / hw;
+                double sx = hx * w;
+                double sy = hy * w;
+                if (!(sx >= 0 && sy >= 0 && sx <= maxX && sy <= maxY)) {
+                    dst[out + x] = 0;
+                    continue;
+                }
+
+                int fx = (int) (sx * WEIGHT_ONE);
+                int fy = (int) (sy * WEIGHT_ONE);
+                int x0 = fx >> WEIGHT_BITS;
+                int y0 = fy >> WEIGHT_BITS;
+                int ax = fx & WEIGHT_MASK;
+                int ay = fy & WEIGHT_MASK;
+                int i00 = y0 * srcWidth + x0;
+                int dx = x0 < maxX ? 1 : 0;
+                int dy = y0 < maxY ? srcWidth : 0;
+
+                int top = lerpArgb(src[i00], src[i00 + dx], ax);
+                int bottom = lerpArgb(src[i00 + dy], src[i00 + dy + dx], ax);
+                dst[out + x] = lerpArgb(top, bottom, ay);
+            }
+        }
+    }
+
+    // Interpolates all four channels at once, two per int with 16 bits each.
+    private static int lerpArgb(int p, int q, int a) {
+        int b = WEIGHT_ONE - a;
+        int rb = ((p & 0xff00ff) * b + (q & 0xff00ff) * a) >>> WEIGHT_BITS;
+        int ag = (((p >>> 8) & 0xff00ff) * b + ((q >>> 8) & 0xff00ff) * a) >>> WEIGHT_BITS;
+        return (rb & 0xff00ff) | ((ag & 0xff00ff) << 8);
+    }
+
+    private static void warpRowsBytes(byte[] src, int srcOffset, int stride, int srcWidth, int srcHeight,
+                                      byte[] dst, int dstOffset, int dstStride, int dstWidth,
+                                      int channels, int startRow, int endRow, double[] m) {
+        int maxX = srcWidth - 1;
+        int maxY = srcHeight - 1;
+        for (int y = startRow; y < endRow; y++) {
+            double hx = m[1] * y + m[2];
+            double hy = m[4] * y + m[5];
+            double hw = m[7] * y + m[8];
+            int out = dstOffset + y * dstStride;
+            for (int x = 0; x < dstWidth; x++, hx += m[0], hy += m[3], hw += m[6], out += channels) {
+                double w = 1 / hw;
+                double sx = hx * w;
+                double sy = hy * w;
+                if (!(sx >= 0 && sy >= 0 && sx <= maxX && sy <= maxY)) {
+                    for (int c = 0; c < channels; c++) {
+                        dst[out + c] = 0;
+                    }
+                    continue;
+                }
+
+                int fx = (int) (sx * WEIGHT_ONE);
+                int fy = (int) (sy * WEIGHT_ONE);
+                int x0 = fx >> WEIGHT_BITS;
+                int y0 = fy >> WEIGHT_BITS;
+                int ax = fx & WEIGHT_MASK;
+                int ay = fy & WEIGHT_MASK;
+                int i00 = srcOffset + y0 * stride + x0 * channels;
+                int dx = x0 < maxX ? channels : 0;
+                int dy = y0 < maxY ? stride : 0;
+
+                // Weights sum up to 1 << 16.
+                int w00 = (WEIGHT_ONE - ax) * (WEIGHT_ONE - ay);
+                int w01 = ax * (WEIGHT_ONE - ay);
+                int w10 = (WEIGHT_ONE - ax) * ay;
+                int w11 = ax * ay;
+                for (int c = 0; c < channels; c++) {
+                    int i = i00 + c;
+                    int sum = (src[i] & 0xff) * w00 + (src[i + dx] & 0xff) * w01
+                            + (src[i + dy] & 0xff) * w10 + (src[i + dy + dx] & 0xff) * w11;
+                    dst[out + c] = (byte) ((sum + (1 << (2 * WEIGHT_BITS - 1))) >>> (2 * WEIGHT_BITS));
+                }
+            }
+        }
+    }
+
+    private static void checkLength(int length, int required) {
+        if (length < required) {
+            throw new IllegalArgumentException("Buffer too short: " + length + " < " + required);
+        }
+    }
+
+    // The last row only needs rowLength bytes, as in a region of a larger image.
+    private static void checkRegion(int length, int offset, int stride, int rowLength, int rows) {
+        if (offset < 0 || stride < rowLength) {
+            throw new IllegalArgumentException("Invalid region: offset " + offset + ", stride " + stride +
+                    ", row length " + rowLength);
+        }
+        checkLength(length - offset, (rows - 1) * stride + rowLength);
+    }
+}
@@ -0,0 +1,270 @@
+package com.shuheikagawa.rectify.core;
+
+// Approximates closed contours with polygons like Imgproc.approxPolyDP with closed = true and an
+// epsilon of a fraction of Imgproc.arcLength, for callers that only want polygons with a few
+// vertices.
+//
+// The arc length is summed in the first pass over the points, which OpenCV makes anyway to find the
+// farthest point from the start. The Douglas-Peucker splitting then stops as soon as the result is
+// known to have more than maxVertices vertices, so most contours are rejected after a few splits.
+// A contour is also rejected right after the first pass when its perimeter is too short to enclose
+// minArea with maxVertices vertices.
+//
+// Not thread safe.
+public class PolygonApproximator {
+    // Returned when the contour was rejected before the approximation completed.
+    public static final int REJECTED = -1;
+    // Relative margin of the area precheck. The perimeter is summed from single precision segment
+    // lengths and may come out a little short, e.g. for a square at exactly minArea.
+    private static final double AREA_PRECHECK_MARGIN = 1e-5;
+
+    private final int maxVertices;
+    // Largest area of a polygon with maxVertices vertices per squared perimeter (the regular one).
+    private final double areaPerSquaredPerimeter;
+    // Before the final clean-up, which removes at most every other vertex.
+    private final int maxRawVertices;
+
+    // x0, y0, x1, y1, ... of the result.
+    private final int[] vertices;
+    // Start and end indices of the pending ranges of the contour.
+    private int[] stack = new int[64];
+    private double arcLength = 0;
+
+    public PolygonApproximator(int maxVertices) {
+        if (maxVertices < 3) {
+            throw new IllegalArgumentException("maxVertices must be at least 3: " + maxVertices);
+        }
+        this.maxVertices = maxVertices;
+        this.areaPerSquaredPerimeter = 1 / (4 * maxVertices * Math.tan(Math.PI / maxVertices));
+        this.maxRawVertices = maxVertices * 2 + 1;
+        this.vertices = new int[(maxRawVertices + 1) * 2];
+    }
+
+    public int getMaxVertices() {
+        return maxVertices;
+    }
+
+    public int[] getVertices() {
+        return vertices;
+    }
+
+    // Perimeter of the last contour, as Imgproc.arcLength with closed = true.
+    public double getArcLength() {
+        return arcLength;
+    }
+
+    // Approximates the closed contour of count points packed at points[offset] as x0, y0, x1, y1, ...
+    // Returns the number of vertices written to getVertices(), or REJECTED when the polygon would
+    // have more than maxVertices vertices or can't enclose minArea.
+    public int approximate(int[] points, int offset, int count, double epsilonRatio, double minArea) {
+        arcLength = 0;
+        if (count == 0) {
+            return 0;
+        }
+
+        // 1. Find approximately two farthest points of the contour, summing up the perimeter in the
+        // first iteration.
+        int pos = 0;
+        int farthest = 0;
+        int startX = 0;
+        int startY = 0;
+        boolean withinEpsilon = false;
+        double eps = 0;
+        for (int iteration = 0; iteration < 3; iteration++) {
+            pos = (pos + farthest) % count;
+            startX = points[offset + pos * 2];
+            startY = points[offset + pos * 2 + 1];
+            if (++pos >= count) {
+                pos = 0;
+            }
+
+            double maxDist = 0;
+            if (iteration == 0) {
+                // Single precision segment lengths in the order of arcLength.
+                float perimeter = segmentLength(points, offset, count - 1, 0);
+                double sum = perimeter;
+                int prevX = startX;
+                int prevY = startY;
+                for (int j = 1; j < count; j++) {
+                    int x = points[offset + pos * 2];
+                    int y = points[offset + pos * 2 + 1];
+                    if (++pos >= count) {
+                        pos = 0;
+                    }
+                    float sx = x - prevX;
+                    float sy = y - prevY;
+                    sum += (float) Math.sqrt(sx * sx + sy * sy);
+                    prevX = x;
+                    prevY = y;
+
+                    double dx = x - startX;
+                    double dy = y - startY;
+                    double dist = dx * dx + dy * dy;
+                    if (dist > maxDist) {
+                        maxDist = dist;
+                        farthest = j;
+                    }
+                }
+                arcLength = sum;
+
+                if (arcLength * arcLength * areaPerSquaredPerimeter * (1 + AREA_PRECHECK_MARGIN) < minArea) {
+                    return REJECTED;
+                }
+                eps = epsilonRatio * arcLength;
+                eps *= eps;
+            } else {
+                for (int j = 1; j < count; j++) {
+                    double dx = points[offset + pos * 2] - startX;
+                    double dy = points[offset + pos * 2 + 1] - startY;
+                    if (++pos >= count) {
+                        pos = 0;
+                    }
+                    double dist = dx * dx + dy * dy;
+                    if (dist > maxDist) {
+                        maxDist = dist;
+                        farthest = j;
+                    }
+                }
+            }
+            withinEpsilon = maxDist <= eps;
+        }
+
+        // 2. Initialize the stack with the two halves between the farthest points.
+        int top = 0;
+        int written = 0;
+        if (!withinEpsilon) {
+            int sliceStart = pos % count;
+            int sliceEnd = (farthest + sliceStart) % count;
+            stack[0] = sliceEnd;
+            stack[1] = sliceStart;
+            stack[2] = sliceStart;
+            stack[3] = sliceEnd;
+            top = 2;
+        } else {
+            vertices[0] = startX;
+            vertices[1] = startY;
+            written = 1;
+        }
+
+        // 3. Split the ranges until every point is within epsilon of its segment. Every pending range
+        // adds at least one vertex.
+        while (top > 0) {
+            if (written + top > maxRawVertices) {
+                return REJECTED;
+            }
+            top--;
+            int sliceStart = stack[top * 2];
+            int sliceEnd = stack[top * 2 + 1];
+            int endX = points[offset + sliceEnd * 2];
+            int endY = points[offset + sliceEnd * 2 + 1];
+            pos = sliceStart;
+            startX = points[offset + pos * 2];
+            startY = points[offset + pos * 2 + 1];
+            if (++pos >= count) {
+                pos = 0;
+            }
+
+            int split = 0;
+            if (pos != sliceEnd) {
+                double dx = endX - startX;
+                double dy = endY - startY;
+                double maxDist = 0;
+                while (pos != sliceEnd) {
+                    int x = points[offset + pos * 2];
+                    int y = points[offset + pos * 2 + 1];
+                    if (++pos >= count) {
+                        pos = 0;
+                    }
+                    double dist = Math.abs((y - startY) * dx - (x - startX) * dy);
+                    if (dist > maxDist) {
+                        maxDist = dist;
+                        split = (pos + count - 1) % count;
+                    }
+                }
+                withinEpsilon = maxDist * maxDist <= eps * (dx * dx + dy * dy);
+            } else {
+                withinEpsilon = true;
+            }
+
+            if (withinEpsilon) {
+                vertices[written * 2] = startX;
+                vertices[written * 2 + 1] = startY;
+                written++;
+            } else {
+                if ((top + 2) * 2 > stack.length) {
+                    int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, top * 2);
+                    stack = grown;
+                }
+                stack[top * 2] = split;
+                stack[top * 2 + 1] = sliceEnd;
+                stack[top * 2 + 2] = sliceStart;
+                stack[top * 2 + 3] = split;
+                top += 2;
+            }
+        }
+
+        int result = removeStraightVertices(written, eps);
+        return result > maxVertices ? REJECTED : result;
+    }
+
+    // Final clean-up of OpenCV: removes vertices on almost straight lines between their neighbours.
+    private int removeStraightVertices(int count, double eps) {
+        int[] v = vertices;
+        int newCount = count;
+        int pos = count - 1;
+        int startX = v[pos * 2];
+        int startY = v[pos * 2 + 1];
+        int writePos = 0;
+        int x = v[0];
+        int y = v[1];
+        pos = count > 1 ? 1 : 0;
+
+        for (int i = 0; i < count && newCount > 2; i++) {
+            int endX = v[pos * 2];
+            int endY = v[pos * 2 + 1];
+            if (++pos >= count) {
+                pos = 0;
+            }
+
+            double dx = endX - startX;
+            double dy = endY - startY;
+            double dist = Math.abs((x - startX) * dy - (y - startY) * dx);
+            double innerProduct = (double) (x - startX) * (endX - x) + (double) (y - startY) * (endY - y);
+
+            if (dist * dist <= 0.5 * eps * (dx * dx + dy * dy) && dx != 0 && dy != 0 && innerProduct >= 0) {
+                newCount--;
+                startX = endX;
+                startY = endY;
+                v[writePos * 2] = startX;
+                v[writePos * 2 + 1] = startY;
+                if (++writePos >= count) {
+                    writePos = 0;
+                }
+                x = v[pos * 2];
+                y = v[pos * 2 + 1];
+                if (++pos >= count) {
+                    pos = 0;
+                }
+                i++;
+                continue;
+            }
+            startX = x;
+            startY = y;
+            v[writePos * 2] = startX;
+            v[writePos * 2 + 1] = startY;
+            if (++writePos >= count) {
+                writePos = 0;
+            }
+            x = endX;
+            y = endY;
+        }
+        return newCount;
+    }
+
+    private static float segmentLength(int[] points, int offset, int from, int to) {
+        float dx = points[offset + to * 2] - points[offset + from * 2];
+        float dy = points[offset + to * 2 + 1] - points[offset + from * 2 + 1];
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,50 @@
+package com.shuheikagawa.rectify.core;
+
+// Geometry of polygons packed as x0, y0, x1, y1, ...
+public class Polygons {
+    private Polygons() {
+    }
+
+    // Cosine of the angle at point i0 between the points i1 and i2.
+    public static double angle(float[] points, int i1, int i2, int i0) {
+        double dx1 = points[i1 * 2] - points[i0 * 2];
+        double dy1 = points[i1 * 2 + 1] - points[i0 * 2 + 1];
+        double dx2 = points[i2 * 2] - points[i0 * 2];
+        double dy2 = points[i2 * 2 + 1] - points[i0 * 2 + 1];
+        return (dx1 * dx2 + dy1 * dy2) / Math.sqrt((dx1 * dx1 + dy1 * dy1) * (dx2 * dx2 + dy2 * dy2) + 1e-10);
+    }
+
+    // Signed area (shoelace formula like Imgproc.contourArea).
+    public static double area(float[] points, int offset, int count) {
+        double area = 0;
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            area += (double) points[offset + j * 2] * points[offset + i * 2 + 1]
+                    - (double) points[offset + i * 2] * points[offset + j * 2 + 1];
+        }
+        return area / 2;
+    }
+
+    // Checks convexity like Imgproc.isContourConvex does on the integer version of the polygon.
+    public static boolean isConvex(float[] points, int count) {
+        int sign = 0;
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            int k = (i + 2) % count;
+            long x0 = Math.round(points[i * 2]);
+            long y0 = Math.round(points[i * 2 + 1]);
+            long x1 = Math.round(points[j * 2]);
+            long y1 = Math.round(points[j * 2 + 1]);
+            long x2 = Math.round(points[k * 2]);
+            long y2 = Math.round(points[k * 2 + 1]);
+            long cross = (x1 - x0) * (y2 - y1) - (y1 - y0) * (x2 - x1);
+            if (cross != 0) {
+                int s = cross > 0 ? 1 : -1;
+                if (sign != 0 && s != sign) {
+                    return false;
+                }
+                sign = s;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,250 @@
+package com.shuheikagawa.rectify.core;
+
+// The rectangle detection of the JAVA backend of RectFinder without Android or OpenCV, for server
+// batch runs and benchmarks. Images are rows of width * channels bytes with the colour planes in
+// the first three channels, e.g. RGB or RGBA.
+//
+// detect() runs the whole pipeline. The stages are public as well, so that RectFinder can trace
+// them and benchmarks can measure them one by one:
+//
+//   downscale() or prepareImage(), then findCandidates(), or blur() followed by extractPlane(),
+//   binarize(), traceContours() and collectCandidates() for every plane and level, then
+//   selectLargest(). collectCandidates() is approximateQuads() followed by filterQuads().
+//
+// Not thread safe. Buffers are reused while the image size stays the same.
+public class RectDetector {
+    private final DetectionProfile profile;
+    private final ImageKernels kernels = new ImageKernels();
+    private final ContourTracer contourTracer = new ContourTracer();
+    private final PolygonApproximator approximator = new PolygonApproximator(4);
+    private final float[] corners = new float[8];
+
+    private int width;
+    private int height;
+    private int channels;
+    private byte[] pixels = new byte[0];
+    private byte[] blurredPixels = new byte[0];
+    private byte[] plane = new byte[0];
+    private byte[] binary = new byte[0];
+
+    // Quads of the last approximateQuads(), 8 floats each.
+    private float[] quads = new float[8 * 16];
+    private int quadCount = 0;
+
+    // Quads that passed the filter, 8 floats each, and their areas.
+    private float[] candidates = new float[8 * 16];
+    private double[] candidateAreas = new double[16];
+    private int candidateCount = 0;
+
+    public RectDetector(DetectionProfile profile) {
+        this.profile = profile;
+    }
+
+    public DetectionProfile getProfile() {
+        return profile;
+    }
+
+    // Ratio that brings the longer side of an image to the downscale image size of the profile.
+    // Smaller images are upscaled, as Imgproc.resize does in the OpenCV backend.
+    public double downscaleRatio(int width, int height) {
+        return profile.getDownscaleImageSize() / Math.max(width, height);
+    }
+
+    // Finds the largest rectangle like RectFinder.findRectangle() and writes its corners in image
+    // coordinates to quad. Returns false when there is none.
+    public boolean detect(byte[] image, int width, int height, int channels, float[] quad) {
+        double ratio = downscaleRatio(width, height);
+        downscale(image, width, height, channels, (int) (width * ratio), (int) (height * ratio));
+        findCandidates();
+
+        int best = selectLargest();
+        if (best < 0) {
+            return false;
+        }
+        // Take back the scale.
+        double scale = 1f / ratio;
+        for (int i = 0; i < 8; i++) {
+            quad[i] = (float) (candidates[best * 8 + i] * scale);
+        }
+        return true;
+    }
+
+    public void downscale(byte[] image, int srcWidth, int srcHeight, int channels, int dstWidth, int dstHeight) {
+        kernels.resizeArea(image, srcWidth, srcHeight, channels, prepareImage(dstWidth, dstHeight, channels),
+                dstWidth, dstHeight);
+    }
+
+    // Returns the buffer of the image to detect on, for the caller to fill with an image that is
+    // already at the detection size. Its length is exactly width * height * channels.
+    public byte[] prepareImage(int width, int height, int channels) {
+        if (channels < 3) {
+            throw new IllegalArgumentException("At least 3 channels are needed: " + channels);
+        }
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        int pixelCount = width * height;
+        pixels = resize(pixels, pixelCount * channels);
+        blurredPixels = resize(blurredPixels, pixelCount * channels);
+        plane = resize(plane, pixelCount);
+        binary = resize(binary, pixelCount);
+        return pixels;
+    }
+
+    public byte[] getImage() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    // All stages after the downscale.
+    public void findCandidates() {
+        clearCandidates();
+        blur();
+        for (int c = 0; c < 3; c++) {
+            extractPlane(c);
+            for (int l = 0; l < profile.getThresholdLevels(); l++) {
+                binarize(l);
+                traceContours();
+                collectCandidates(contourTracer.getPoints(), contourTracer.getOffsets(), contourTracer.getLengths(),
+                        contourTracer.size());
+            }
+        }
+    }
+
+    public void blur() {
+        kernels.medianBlur(pixels, blurredPixels, width, height, channels, DetectionProfile.MEDIAN_KERNEL_SIZE);
+    }
+
+    public void extractPlane(int channel) {
+        ImageKernels.extractChannel(blurredPixels, channels, channel, plane, width * height);
+    }
+
+    // Canny and dilation at level 0, a threshold otherwise.
+    public void binarize(int level) {
+        if (level == 0) {
+            kernels.canny(plane, binary, width, height, 0, profile.getCannyThreshold());
+            kernels.dilate3x3(binary, binary, width, height);
+        } else {
+            ImageKernels.threshold(plane, binary, width * height, profile.thresholdAt(level));
+        }
+    }
+
+    public void traceContours() {
+        contourTracer.findContours(binary, width, height);
+    }
+
+    public ContourTracer getContours() {
+        return contourTracer;
+    }
+
+    public void clearCandidates() {
+        candidateCount = 0;
+    }
+
+    // Approximates count contours packed like ContourTracer output and keeps the rectangles.
+    public void collectCandidates(int[] points, int[] offsets, int[] lengths, int count) {
+        collectCandidates(points, offsets, lengths, count, width * height);
+    }
+
+    // Same for contours found on another image of imageArea pixels, e.g. by Imgproc.findContours()
+    // into a ContourBuffer, which packs contours the same way.
+    public void collectCandidates(int[] points, int[] offsets, int[] lengths, int count, int imageArea) {
+        approximateQuads(points, offsets, lengths, count, imageArea);
+        filterQuads(imageArea);
+    }
+
+    // First half of collectCandidates(): approximates the contours and keeps the quads, replacing
+    // those of the previous call.
+    public void approximateQuads(int[] points, int[] offsets, int[] lengths, int count, int imageArea) {
+        double minArea = imageArea * profile.getAreaLowerThresholdRatio();
+        quadCount = 0;
+        for (int i = 0; i < count; i++) {
+            int vertexCount = approximator.approximate(points, offsets[i], lengths[i],
+                    DetectionProfile.APPROX_EPSILON_RATIO, minArea);
+            if (vertexCount != 4) {
+                continue;
+            }
+
+            if (quads.length == quadCount * 8) {
+                float[] grown = new float[quads.length * 2];
+                System.arraycopy(quads, 0, grown, 0, quads.length);
+                quads = grown;
+            }
+            int[] vertices = approximator.getVertices();
+            for (int j = 0; j < 8; j++) {
+                quads[quadCount * 8 + j] = vertices[j];
+            }
+            quadCount++;
+        }
+    }
+
+    // Second half of collectCandidates(): adds the quads that pass the rectangle filter of the
+    // profile to the candidates.
+    public void filterQuads(int imageArea) {
+        for (int i = 0; i < quadCount; i++) {
+            System.arraycopy(quads, i * 8, corners, 0, 8);
+            if (profile.isRectangle(corners, imageArea)) {
+                addCandidate(corners);
+            }
+        }
+    }
+
+    public int getQuadCount() {
+        return quadCount;
+    }
+
+    // Corners of quad i start at i * 8.
+    public float[] getQuads() {
+        return quads;
+    }
+
+    private void addCandidate(float[] quad) {
+        if (candidateAreas.length == candidateCount) {
+            float[] grownCandidates = new float[candidates.length * 2];
+            System.arraycopy(candidates, 0, grownCandidates, 0, candidates.length);
+            candidates = grownCandidates;
+            double[] grownAreas = new double[candidateAreas.length * 2];
+            System.arraycopy(candidateAreas, 0, grownAreas, 0, candidateAreas.length);
+            candidateAreas = grownAreas;
+        }
+        System.arraycopy(quad, 0, candidates, candidateCount * 8, 8);
+        candidateAreas[candidateCount] = Math.abs(Polygons.area(quad, 0, 4));
+        candidateCount++;
+    }
+
+    public int getCandidateCount() {
+        return candidateCount;
+    }
+
+    // Corners of candidate i start at i * 8.
+    public float[] getCandidates() {
+        return candidates;
+    }
+
+    // Index of the largest candidate, or -1 when there is none. Like the comparator of RectFinder,
+    // areas within one pixel of each other count as equal and the first one found wins.
+    public int selectLargest() {
+        int best = -1;
+        for (int i = 0; i < candidateCount; i++) {
+            if (best < 0 || Math.ceil(candidateAreas[i] - candidateAreas[best]) > 0) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static byte[] resize(byte[] buffer, int length) {
+        return buffer.length == length ? buffer : new byte[length];
+    }
+}
@@ -0,0 +1,476 @@
+package com.shuheikagawa.rectify.core;
+
+import java.util.Random;
+
+// Renders synthetic photos of a document with known corners, for tests, benchmarks and stress runs
+// of the detection. A textured page is mapped onto a background through a random homography, on
+// top of optional distractor rectangles and under an optional occluder, then shadowed, blurred and
+// made noisy as configured.
+//
+// Scenes depend on the seed and the settings only, so the same seed gives the same pixels on any
+// JVM and a dataset can be regenerated instead of stored. The geometry is drawn before the effects,
+// so changing blur, noise or shadow keeps the corners of a seed.
+//
+// Pixels are RGBA. Pixel (x, y) is sampled at the point (x, y), the coordinates the detection
+// reports corners in.
+//
+// Not thread safe. Use a generator per thread.
+public class SceneGenerator {
+    public static final int CHANNELS = 4;
+
+    // Random stream of the effects, independent of the geometry.
+    private static final long EFFECT_SEED_MIX = 0x9e3779b97f4a7c15L;
+    private static final int MAX_PLACEMENT_ATTEMPTS = 32;
+    // Gaussian samples the noise picks from. nextGaussian() per channel takes seconds on large images.
+    private static final int NOISE_TABLE_BITS = 12;
+    private static final int GRAIN_STEPS = 256;
+
+    private final int width;
+    private final int height;
+
+    private double perspective = 0.08;
+    private double maxRotationDegrees = 12;
+    private int blurRadius = 0;
+    private double noise = 0;
+    private double shadow = 0;
+    private double occlusion = 0;
+    private int distractorCount = 0;
+
+    public SceneGenerator(int width, int height) {
+        if (width < 16 || height < 16) {
+            throw new IllegalArgumentException("Image too small: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Maximum displacement of each page corner, as a fraction of the shorter page side. 0 keeps the
+    // page a rectangle.
+    public void setPerspective(double perspective) {
+        if (perspective < 0 || perspective > 0.2) {
+            throw new IllegalArgumentException("Perspective out of [0, 0.2]: " + perspective);
+        }
+        this.perspective = perspective;
+    }
+
+    public void setMaxRotationDegrees(double maxRotationDegrees) {
+        if (maxRotationDegrees < 0 || maxRotationDegrees > 45) {
+            throw new IllegalArgumentException("Rotation out of [0, 45]: " + maxRotationDegrees);
+        }
+        this.maxRotationDegrees = maxRotationDegrees;
+    }
+
+    // Radius of the box blur, applied twice. 0 for a sharp image.
+    public void setBlurRadius(int blurRadius) {
+        if (blurRadius < 0) {
+            throw new IllegalArgumentException("Negative blur radius: " + blurRadius);
+        }
+        this.blurRadius = blurRadius;
+    }
+
+    // Standard deviation of the gaussian noise in levels of 255.
+    public void setNoise(double noise) {
+        if (noise < 0) {
+            throw new IllegalArgumentException("Negative noise: " + noise);
+        }
+        this.noise = noise;
+    }
+
+    // Darkening at the dark end of a linear shadow across the image, from 0 to 1.
+    public void setShadow(double shadow) {
+        if (shadow < 0 || shadow > 1) {
+            throw new IllegalArgumentException("Shadow out of [0, 1]: " + shadow);
+        }
+        this.shadow = shadow;
+    }
+
+    // How far an occluder reaches into the page from one of its sides, as a fraction of the shorter
+    // page side. 0 for none. The ground truth stays the corners of the whole page.
+    public void setOcclusion(double occlusion) {
+        if (occlusion < 0 || occlusion > 0.5) {
+            throw new IllegalArgumentException("Occlusion out of [0, 0.5]: " + occlusion);
+        }
+        this.occlusion = occlusion;
+    }
+
+    // Rectangles of other colours behind the page, each smaller than the page.
+    public void setDistractorCount(int distractorCount) {
+        if (distractorCount < 0) {
+            throw new IllegalArgumentException("Negative distractor count: " + distractorCount);
+        }
+        this.distractorCount = distractorCount;
+    }
+
+    public Scene generate(long seed) {
+        Random random = new Random(seed);
+
+        // Geometry first, see the class comment.
+        float[] quad = placePage(random);
+        int paperColor = gray(random.nextInt(36) + 210);
+        int inkLevel = random.nextInt(40) + 30;
+        int textSeed = random.nextInt();
+        int backgroundColor = rgb(random.nextInt(100) + 30, random.nextInt(100) + 30, random.nextInt(100) + 30);
+        double grainAngle = random.nextDouble() * Math.PI;
+        double grainPeriod = 8 + random.nextDouble() * 24;
+
+        float[] distractors = new float[distractorCount * 8];
+        int[] distractorColors = new int[distractorCount];
+        for (int i = 0; i < distractorCount; i++) {
+            placeDistractor(random, quad, distractors, i * 8);
+            distractorColors[i] = rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+        }
+
+        float[] occluder = null;
+        int occluderColor = 0;
+        if (occlusion > 0) {
+            occluder = placeOccluder(random, quad);
+            occluderColor = rgb(random.nextInt(60) + 150, random.nextInt(50) + 100, random.nextInt(50) + 80);
+        }
+
+        double shadowAngle = random.nextDouble() * 2 * Math.PI;
+
+        byte[] pixels = new byte[width * height * CHANNELS];
+        Homography imageToPage = Homography.squareToQuad(quad, 0).invert();
+        double shadowX = StrictMath.cos(shadowAngle);
+        double shadowY = StrictMath.sin(shadowAngle);
+        double shadowMin = Math.min(0, shadowX * width) + Math.min(0, shadowY * height);
+        double shadowRange = Math.abs(shadowX) * width + Math.abs(shadowY) * height;
+        // Grain of the background along grainAngle, as a table over one period.
+        double grainX = StrictMath.cos(grainAngle) * GRAIN_STEPS / grainPeriod;
+        double grainY = StrictMath.sin(grainAngle) * GRAIN_STEPS / grainPeriod;
+        int[] grains = new int[GRAIN_STEPS];
+        for (int g = 0; g < GRAIN_STEPS; g++) {
+            grains[g] = (int) (8 * StrictMath.sin(g * 2 * Math.PI / GRAIN_STEPS));
+        }
+
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color;
+                if (occluder != null && contains(occluder, 0, x, y)) {
+                    color = occluderColor;
+                } else if (contains(quad, 0, x, y)) {
+                    double u = imageToPage.mapX(x, y);
+                    double v = imageToPage.mapY(x, y);
+                    color = isInk(u, v, textSeed) ? gray(inkLevel) : paperColor;
+                } else {
+                    int d = distractorCount - 1;
+                    while (d >= 0 && !contains(distractors, d * 8, x, y)) {
+                        d--;
+                    }
+                    if (d >= 0) {
+                        color = distractorColors[d];
+                    } else {
+                        int grain = grains[(int) Math.floor(x * grainX + y * grainY) & (GRAIN_STEPS - 1)];
+                        color = rgb(red(backgroundColor) + grain, green(backgroundColor) + grain,
+                                blue(backgroundColor) + grain);
+                    }
+                }
+
+                double light = 1;
+                if (shadow > 0) {
+                    light = 1 - shadow * (1 - (x * shadowX + y * shadowY - shadowMin) / shadowRange);
+                }
+                pixels[i++] = (byte) clamp((int) (red(color) * light));
+                pixels[i++] = (byte) clamp((int) (green(color) * light));
+                pixels[i++] = (byte) clamp((int) (blue(color) * light));
+                pixels[i++] = (byte) 0xff;
+            }
+        }
+
+        if (blurRadius > 0) {
+            byte[] scratch = new byte[pixels.length];
+            for (int pass = 0; pass < 2; pass++) {
+                boxBlurRows(pixels, scratch);
+                boxBlurColumns(scratch, pixels);
+            }
+        }
+
+        if (noise > 0) {
+            addNoise(pixels, new Random(seed ^ EFFECT_SEED_MIX));
+        }
+
+        return new Scene(seed, width, height, pixels, quad);
+    }
+
+    // Gaussian noise from a table of samples, with three random indices per pixel.
+    private void addNoise(byte[] pixels, Random random) {
+        int[] table = new int[1 << NOISE_TABLE_BITS];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (int) Math.round(random.nextGaussian() * noise);
+        }
+        int mask = table.length - 1;
+        for (int p = 0; p < pixels.length; p += CHANNELS) {
+            long indices = random.nextLong();
+            for (int c = 0; c < 3; c++) {
+                int value = (pixels[p + c] & 0xff) + table[(int) (indices >>> (c * NOISE_TABLE_BITS)) & mask];
+                pixels[p + c] = (byte) clamp(value);
+            }
+        }
+    }
+
+    // A rotated page of A4 or letter proportions, covering 25 to 65 percent of the image, with
+    // jittered corners. Top left, top right, bottom right and bottom left in page orientation.
+    private float[] placePage(Random random) {
+        double aspect = random.nextBoolean() ? 1 / Math.sqrt(2) : 8.5 / 11;
+        if (random.nextInt(4) == 0) {
+            aspect = 1 / aspect;
+        }
+        double coverage = 0.25 + random.nextDouble() * 0.4;
+        double pageHeight = Math.sqrt(coverage * width * height / aspect);
+        double pageWidth = pageHeight * aspect;
+        // Not Math.toRadians(), whose rounding differs between Java versions.
+        double angle = (random.nextDouble() * 2 - 1) * maxRotationDegrees / 180 * Math.PI;
+        double centerX = width * (0.5 + (random.nextDouble() - 0.5) * 0.1);
+        double centerY = height * (0.5 + (random.nextDouble() - 0.5) * 0.1);
+
+        double[] jitter = new double[8];
+        for (int i = 0; i < 8; i++) {
+            jitter[i] = (random.nextDouble() * 2 - 1) * perspective;
+        }
+
+        // Shrink until the page lies inside the image with a margin.
+        float[] quad = new float[8];
+        double margin = 0.03 * Math.min(width, height);
+        for (int attempt = 0; ; attempt++) {
+            double scale = StrictMath.pow(0.92, attempt);
+            double halfWidth = pageWidth * scale / 2;
+            double halfHeight = pageHeight * scale / 2;
+            double shorter = Math.min(pageWidth, pageHeight) * scale;
+            rotatedRectangle(centerX, centerY, halfWidth, halfHeight, angle, quad, 0);
+            for (int i = 0; i < 8; i++) {
+                quad[i] += (float) (jitter[i] * shorter);
+            }
+            if (isInside(quad, margin) && Polygons.isConvex(quad, 4)) {
+                return quad;
+            }
+            if (attempt == MAX_PLACEMENT_ATTEMPTS) {
+                throw new IllegalStateException("Can't place a page in a " + width + "x" + height + " image");
+            }
+        }
+    }
+
+    // A rectangle with sides of 5 to 30 percent of the shorter image side, anywhere in the image.
+    private void placeDistractor(Random random, float[] page, float[] quads, int offset) {
+        double pageShorter = Math.sqrt(Math.abs(Polygons.area(page, 0, 4)));
+        double shorter = Math.min(width, height);
+        double halfWidth = Math.min(shorter * (0.025 + random.nextDouble() * 0.125), pageShorter / 2);
+        double halfHeight = Math.min(shorter * (0.025 + random.nextDouble() * 0.125), pageShorter / 2);
+        double angle = random.nextDouble() * Math.PI;
+        rotatedRectangle(random.nextDouble() * width, random.nextDouble() * height, halfWidth, halfHeight, angle,
+                quads, offset);
+    }
+
+    // A bar, like a finger or a pen, entering the image from outside across one side of the page.
+    private float[] placeOccluder(Random random, float[] page) {
+        int side = random.nextInt(4);
+        float[] from = {page[side * 2], page[side * 2 + 1]};
+        float[] to = {page[(side + 1) % 4 * 2], page[(side + 1) % 4 * 2 + 1]};
+        double t = 0.2 + random.nextDouble() * 0.6;
+        double edgeX = from[0] + (to[0] - from[0]) * t;
+        double edgeY = from[1] + (to[1] - from[1]) * t;
+
+        double length = StrictMath.hypot(to[0] - from[0], to[1] - from[1]);
+        double alongX = (to[0] - from[0]) / length;
+        double alongY = (to[1] - from[1]) / length;
+        // Clockwise corners, so the outward normal is the side direction turned counterclockwise.
+        double outX = alongY;
+        double outY = -alongX;
+
+        double pageShorter = Math.sqrt(Math.abs(Polygons.area(page, 0, 4)));
+        double depth = occlusion * pageShorter;
+        double halfWidth = pageShorter * (0.05 + random.nextDouble() * 0.05);
+        double reach = width + height;
+        return new float[]{
+                (float) (edgeX - outX * depth + alongX * halfWidth), (float) (edgeY - outY * depth + alongY * halfWidth),
+                (float) (edgeX - outX * depth - alongX * halfWidth), (float) (edgeY - outY * depth - alongY * halfWidth),
+                (float) (edgeX + outX * reach - alongX * halfWidth), (float) (edgeY + outY * reach - alongY * halfWidth),
+                (float) (edgeX + outX * reach + alongX * halfWidth), (float) (edgeY + outY * reach + alongY * halfWidth)
+        };
+    }
+
+    // Lines of words in the page coordinates (0, 0) - (1, 1), inside margins.
+    private static boolean isInk(double u, double v, int textSeed) {
+        if (u < 0.1 || u > 0.9 || v < 0.08 || v > 0.92) {
+            return false;
+        }
+        double line = (v - 0.08) / 0.035;
+        int lineIndex = (int) line;
+        if (line - lineIndex > 0.45) {
+            return false;
+        }
+        int lineHash = mix(textSeed + lineIndex);
+        // Paragraph breaks and ragged line ends.
+        if ((lineHash & 7) == 0 || u > 0.9 - (lineHash >>> 8 & 0xff) / 255.0 * 0.3) {
+            return false;
+        }
+        double word = u / 0.045 + (lineHash >>> 16 & 0xf) / 16.0;
+        int wordIndex = (int) word;
+        // A gap after each word, and a few longer gaps.
+        return word - wordIndex < 0.8 && (mix(lineHash + wordIndex) & 7) != 0;
+    }
+
+    private static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x7feb352d;
+        value ^= value >>> 15;
+        value *= 0x846ca68b;
+        value ^= value >>> 16;
+        return value;
+    }
+
+    private static void rotatedRectangle(double centerX, double centerY, double halfWidth, double halfHeight,
+                                         double angle, float[] quad, int offset) {
+        double cos = StrictMath.cos(angle);
+        double sin = StrictMath.sin(angle);
+        double[] xs = {-halfWidth, halfWidth, halfWidth, -halfWidth};
+        double[] ys = {-halfHeight, -halfHeight, halfHeight, halfHeight};
+        for (int i = 0; i < 4; i++) {
+            quad[offset + i * 2] = (float) (centerX + xs[i] * cos - ys[i] * sin);
+            quad[offset + i * 2 + 1] = (float) (centerY + xs[i] * sin + ys[i] * cos);
+        }
+    }
+
+    private boolean isInside(float[] quad, double margin) {
+        for (int i = 0; i < 4; i++) {
+            float x = quad[i * 2];
+            float y = quad[i * 2 + 1];
+            if (x < margin || y < margin || x > width - 1 - margin || y > height - 1 - margin) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Inside test for a convex quad with clockwise corners in image coordinates.
+    private static boolean contains(float[] quad, int offset, float x, float y) {
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) % 4;
+            float cross = (quad[offset + j * 2] - quad[offset + i * 2]) * (y - quad[offset + i * 2 + 1])
+                    - (quad[offset + j * 2 + 1] - quad[offset + i * 2 + 1]) * (x - quad[offset + i * 2]);
+            if (cross < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void boxBlurRows(byte[] src, byte[] dst) {
+        int r = blurRadius;
+        int window = 2 * r + 1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width * CHANNELS;
+            for (int c = 0; c < CHANNELS; c++) {
+                // Edge pixels repeat outside of the image.
+                int sum = 0;
+                for (int k = -r; k <= r; k++) {
+                    sum += src[row + clampIndex(k, width) * CHANNELS + c] & 0xff;
+                }
+                for (int x = 0; x < width; x++) {
+                    dst[row + x * CHANNELS + c] = (byte) ((sum + window / 2) / window);
+                    sum += (src[row + clampIndex(x + r + 1, width) * CHANNELS + c] & 0xff)
+                            - (src[row + clampIndex(x - r, width) * CHANNELS + c] & 0xff);
+                }
+            }
+        }
+    }
+
+    // Row by row with a running sum per column, to stay in cache.
+    private void boxBlurColumns(byte[] src, byte[] dst) {
+        int r = blurRadius;
+        int window = 2 * r + 1;
+        int stride = width * CHANNELS;
+        int[] sums = new int[stride];
+        for (int k = -r; k <= r; k++) {
+            int row = clampIndex(k, height) * stride;
+            for (int j = 0; j < stride; j++) {
+                sums[j] += src[row + j] & 0xff;
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            int row = y * stride;
+            int added = clampIndex(y + r + 1, height) * stride;
+            int removed = clampIndex(y - r, height) * stride;
+            for (int j = 0; j < stride; j++) {
+                dst[row + j] = (byte) ((sums[j] + window / 2) / window);
+                sums[j] += (src[added + j] & 0xff) - (src[removed + j] & 0xff);
+            }
+        }
+    }
+
+    private static int clampIndex(int index, int length) {
+        return index < 0 ? 0 : index >= length ? length - 1 : index;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private static int gray(int level) {
+        return rgb(level, level, level);
+    }
+
+    private static int rgb(int r, int g, int b) {
+        return clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+
+    private static int red(int color) {
+        return color >> 16 & 0xff;
+    }
+
+    private static int green(int color) {
+        return color >> 8 & 0xff;
+    }
+
+    private static int blue(int color) {
+        return color & 0xff;
+    }
+
+    // A rendered image and the corners of its page.
+    public static final class Scene {
+        private final long seed;
+        private final int width;
+        private final int height;
+        private final byte[] pixels;
+        private final float[] quad;
+
+        Scene(long seed, int width, int height, byte[] pixels, float[] quad) {
+            this.seed = seed;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            this.quad = quad;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        // RGBA rows of width * CHANNELS bytes.
+        public byte[] getPixels() {
+            return pixels;
+        }
+
+        // Corners of the page packed as x0, y0, ..., x3, y3: top left, top right, bottom right and
+        // bottom left of the page, which is clockwise in the image.
+        public float[] getQuad() {
+            return quad;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.shuheikagawa.rectify.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// Expected contours follow icvFetchContour of OpenCV 2.4.9 with RETR_LIST and CHAIN_APPROX_SIMPLE:
+// outer borders start at their top left pixel and go down first, holes start at the pixel left of
+// their top left background pixel and go up first, diagonal steps around the corners of a hole are
+// kept, and the last contour found comes first.
+public class ContourTracerTest {
+
+    @Test
+    public void filledSquare() {
+        ContourTracer tracer = trace(
+                ".......",
+                ".......",
+                "..###..",
+                "..###..",
+                "..###..",
+                ".......",
+                ".......");
+
+        assertEquals(1, tracer.size());
+        assertContour(tracer, 0, 2, 2, 2, 4, 4, 4, 4, 2);
+        assertListHierarchy(tracer);
+    }
+
+    @Test
+    public void squareWithHole() {
+        ContourTracer tracer = trace(
+                "........",
+                ".######.",
+                ".######.",
+                ".##..##.",
+                ".##..##.",
+                ".######.",
+                ".######.",
+                "........");
+
+        assertEquals(2, tracer.size());
+        // The hole is found after the outer border.
+        assertContour(tracer, 0, 2, 3, 3, 2, 4, 2, 5, 3, 5, 4, 4, 5, 3, 5, 2, 4);
+        assertContour(tracer, 1, 1, 1, 1, 6, 6, 6, 6, 1);
+        assertListHierarchy(tracer);
+    }
+
+    @Test
+    public void nestedRings() {
+        ContourTracer tracer = trace(
+                "...........",
+                ".#########.",
+                ".#.......#.",
+                ".#.#####.#.",
+                ".#.#...#.#.",
+                ".#.#...#.#.",
+                ".#.#...#.#.",
+                ".#.#####.#.",
+                ".#.......#.",
+                ".#########.",
+                "...........");
+
+        // Found as outer ring, its hole, inner ring, its hole.
+        assertEquals(4, tracer.size());
+        assertContour(tracer, 0, 3, 4, 4, 3, 6, 3, 7, 4, 7, 6, 6, 7, 4, 7, 3, 6);
+        assertContour(tracer, 1, 3, 3, 3, 7, 7, 7, 7, 3);
+        assertContour(tracer, 2, 1, 2, 2, 1, 8, 1, 9, 2, 9, 8, 8, 9, 2, 9, 1, 8);
+        assertContour(tracer, 3, 1, 1, 1, 9, 9, 9, 9, 1);
+        assertListHierarchy(tracer);
+        assertEquals(24, tracer.totalPoints());
+    }
+
+    @Test
+    public void onePixelLines() {
+        ContourTracer tracer = trace(
+                "..........",
+                ".#####....",
+                "........#.",
+                ".#......#.",
+                "..#.....#.",
+                "...#....#.",
+                "..........");
+
+        // Lines are traced out and back, so only their ends remain.
+        assertEquals(3, tracer.size());
+        assertContour(tracer, 0, 1, 3, 3, 5);
+        assertContour(tracer, 1, 8, 2, 8, 5);
+        assertContour(tracer, 2, 1, 1, 5, 1);
+        assertListHierarchy(tracer);
+    }
+
+    @Test
+    public void singlePixel() {
+        ContourTracer tracer = trace(
+                ".....",
+                ".....",
+                "..#..",
+                ".....",
+                ".....");
+
+        assertEquals(1, tracer.size());
+        assertContour(tracer, 0, 2, 2);
+    }
+
+    @Test
+    public void shapesTouchingTheBorderAreCutByTheFrame() {
+        ContourTracer tracer = trace(
+                "###....",
+                "###....",
+                "###....",
+                ".......",
+                "....###",
+                "....###",
+                "....###");
+
+        // The outermost pixels count as background, as in OpenCV.
+        assertEquals(2, tracer.size());
+        assertContour(tracer, 0, 4, 4, 4, 5, 5, 5, 5, 4);
+        assertContour(tracer, 1, 1, 1, 1, 2, 2, 2, 2, 1);
+        assertListHierarchy(tracer);
+    }
+
+    @Test
+    public void fullImage() {
+        ContourTracer tracer = trace(
+                "#####",
+                "#####",
+                "#####",
+                "#####",
+                "#####");
+
+        assertEquals(1, tracer.size());
+        assertContour(tracer, 0, 1, 1, 1, 3, 3, 3, 3, 1);
+    }
+
+    @Test
+    public void anyNonzeroByteIsForeground() {
+        byte[] image = new byte[5 * 5];
+        image[2 * 5 + 1] = 1;
+        image[2 * 5 + 2] = (byte) 255;
+        image[2 * 5 + 3] = (byte) 128;
+        ContourTracer tracer = new ContourTracer();
+        tracer.findContours(image, 5, 5);
+
+        assertEquals(1, tracer.size());
+        assertContour(tracer, 0, 1, 2, 3, 2);
+    }
+
+    @Test
+    public void emptyAndTinyImages() {
+        ContourTracer tracer = trace(
+                "....",
+                "....",
+                "....");
+        assertEquals(0, tracer.size());
+        assertEquals(0, tracer.totalPoints());
+
+        tracer.findContours(new byte[]{1, 1, 1, 1}, 2, 2);
+        assertEquals(0, tracer.size());
+    }
+
+    @Test
+    public void resultsAreReplacedAndInputIsKept() {
+        String[] rows = {
+                ".......",
+                ".##.##.",
+                ".##.##.",
+                "......."};
+        byte[] image = image(rows);
+        byte[] copy = image.clone();
+        ContourTracer tracer = new ContourTracer();
+        tracer.findContours(image, 7, 4);
+        assertEquals(2, tracer.size());
+
+        tracer.findContours(image(
+                ".....",
+                ".###.",
+                ".###.",
+                ".###.",
+                "....."), 5, 5);
+        assertEquals(1, tracer.size());
+        assertEquals(4, tracer.totalPoints());
+        assertContour(tracer, 0, 1, 1, 1, 3, 3, 3, 3, 1);
+        assertArrayEquals(copy, image);
+    }
+
+    @Test
+    public void buffersGrowWithManyContours() {
+        // 400 separate pixels, more than the initial capacity of the contour arrays.
+        int width = 41;
+        int height = 41;
+        byte[] image = new byte[width * height];
+        for (int y = 1; y < height - 1; y += 2) {
+            for (int x = 1; x < width - 1; x += 2) {
+                image[y * width + x] = 1;
+            }
+        }
+        ContourTracer tracer = new ContourTracer();
+        tracer.findContours(image, width, height);
+
+        assertEquals(400, tracer.size());
+        assertEquals(400, tracer.totalPoints());
+        // The last pixel in scan order comes first.
+        assertContour(tracer, 0, 39, 39);
+        assertContour(tracer, 399, 1, 1);
+        assertListHierarchy(tracer);
+    }
+
+    private static ContourTracer trace(String... rows) {
+        ContourTracer tracer = new ContourTracer();
+        tracer.findContours(image(rows), rows[0].length(), rows.length);
+        return tracer;
+    }
+
+    // '#' is foreground, anything else background.
+    private static byte[] image(String... rows) {
+        int width = rows[0].length();
+        byte[] image = new byte[width * rows.length];
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < width; x++) {
+                image[y * width + x] = (byte) (rows[y].charAt(x) == '#' ? 255 : 0);
+            }
+        }
+        return image;
+    }
+
+    private static void assertContour(ContourTracer tracer, int index, int... expected) {
+        int offset = tracer.getOffsets()[index];
+        int length = tracer.getLengths()[index];
+        int[] actual = new int[length * 2];
+        System.arraycopy(tracer.getPoints(), offset, actual, 0, length * 2);
+        assertArrayEquals("contour " + index, expected, actual);
+    }
+
+    // With RETR_LIST, contours are siblings in order without parents or children.
+    private static void assertListHierarchy(ContourTracer tracer) {
+        int[] hierarchy = tracer.getHierarchy();
+        for (int i = 0; i < tracer.size(); i++) {
+            assertEquals(i + 1 < tracer.size() ? i + 1 : -1, hierarchy[i * 4]);
+            assertEquals(i - 1, hierarchy[i * 4 + 1]);
+            assertEquals(-1, hierarchy[i * 4 + 2]);
+            assertEquals(-1, hierarchy[i * 4 + 3]);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.shuheikagawa.rectify.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class HomographyTest {
+    private static final double EPSILON = 1e-9;
+    private static final float POINT_EPSILON = 1e-3f;
+
+    private static final float[] UNIT_SQUARE = {0, 0, 1, 0, 1, 1, 0, 1};
+    // A perspective quad, e.g. a page photographed from below.
+    private static final float[] QUAD = {112.5f, 40, 503, 71.25f, 561, 402, 68, 431.5f};
+    private static final float[] PARALLELOGRAM = {10, 20, 110, 30, 130, 90, 30, 80};
+
+    @Test
+    public void squareToQuadMapsTheCorners() {
+        assertMapsTo(Homography.squareToQuad(QUAD, 0), UNIT_SQUARE, QUAD);
+        assertMapsTo(Homography.squareToQuad(PARALLELOGRAM, 0), UNIT_SQUARE, PARALLELOGRAM);
+    }
+
+    @Test
+    public void parallelogramsStayAffine() {
+        double[] m = new double[9];
+        Homography.squareToQuad(PARALLELOGRAM, 0).toArray(m, 0);
+
+        assertEquals(0, m[6], 0);
+        assertEquals(0, m[7], 0);
+        assertEquals(1, m[8], 0);
+    }
+
+    @Test
+    public void quadToRectMapsTheCornersToTheOutline() {
+        Homography homography = Homography.quadToRect(QUAD, 0, 300, 400);
+
+        assertMapsTo(homography, QUAD, new float[]{0, 0, 300, 0, 300, 400, 0, 400});
+    }
+
+    @Test
+    public void quadToQuadMapsTheCorners() {
+        assertMapsTo(Homography.quadToQuad(QUAD, 0, PARALLELOGRAM, 0), QUAD, PARALLELOGRAM);
+    }
+
+    @Test
+    public void quadsAreReadFromTheOffset() {
+        float[] packed = new float[3 + 8];
+        System.arraycopy(QUAD, 0, packed, 3, 8);
+
+        assertEquals(Homography.squareToQuad(QUAD, 0).toString(), Homography.squareToQuad(packed, 3).toString());
+    }
+
+    @Test
+    public void inverseRoundTrips() {
+        Homography homography = Homography.quadToRect(QUAD, 0, 300, 400);
+
+        assertIdentity(homography.invert().multiply(homography));
+        assertIdentity(homography.multiply(homography.invert()));
+
+        float[] points = {0, 0, 123.25f, 456.5f, 640, 480, 300, 200};
+        float[] mapped = new float[points.length];
+        homography.map(points, 0, mapped, 0, 4);
+        float[] back = new float[points.length];
+        homography.mapInverse(mapped, 0, back, 0, 4);
+        assertArrayEquals(points, back, POINT_EPSILON);
+    }
+
+    @Test
+    public void inverseIsCached() {
+        Homography homography = Homography.squareToQuad(QUAD, 0);
+        Homography inverse = homography.invert();
+
+        assertSame(inverse, homography.invert());
+        assertSame(homography, inverse.invert());
+    }
+
+    @Test
+    public void mapWorksInPlaceAndAgreesWithMapXAndMapY() {
+        Homography homography = Homography.quadToSquare(QUAD, 0);
+        float[] points = {1, 2, 3, 300.5f, 250, 260};
+
+        float[] expected = new float[4];
+        for (int i = 0; i < 2; i++) {
+            double x = points[2 + i * 2];
+            double y = points[3 + i * 2];
+            expected[i * 2] = (float) homography.mapX(x, y);
+            expected[i * 2 + 1] = (float) homography.mapY(x, y);
+        }
+        homography.map(points, 2, points, 2, 2);
+
+        assertEquals(1, points[0], 0);
+        assertEquals(2, points[1], 0);
+        assertArrayEquals(expected, new float[]{points[2], points[3], points[4], points[5]}, 0);
+    }
+
+    @Test
+    public void multiplyAppliesTheArgumentFirst() {
+        Homography homography = Homography.translation(10, 20).multiply(Homography.scale(2, 3));
+
+        assertEquals(12, homography.mapX(1, 1), EPSILON);
+        assertEquals(23, homography.mapY(1, 1), EPSILON);
+    }
+
+    @Test
+    public void rotationTurnsXTowardY() {
+        Homography homography = Homography.rotation(Math.PI / 2);
+
+        assertEquals(0, homography.mapX(1, 0), EPSILON);
+        assertEquals(1, homography.mapY(1, 0), EPSILON);
+    }
+
+    @Test
+    public void toArrayIsRowMajor() {
+        double[] m = new double[10];
+        new Homography(1, 2, 3, 4, 5, 6, 7, 8, 9).toArray(m, 1);
+
+        assertArrayEquals(new double[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, m, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDegenerateQuads() {
+        Homography.squareToQuad(new float[]{0, 0, 4, 0, 4, 4, 4, 8}, 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void singularMatricesCantBeInverted() {
+        new Homography(1, 2, 3, 2, 4, 6, 0, 0, 1).invert();
+    }
+
+    private static void assertMapsTo(Homography homography, float[] src, float[] expected) {
+        float[] actual = new float[8];
+        homography.map(src, 0, actual, 0, 4);
+        assertArrayEquals(homography.toString(), expected, actual, POINT_EPSILON);
+    }
+
+    private static void assertIdentity(Homography homography) {
+        double[] m = new double[9];
+        homography.toArray(m, 0);
+        // Projective matrices are equal up to scale.
+        for (int i = 0; i < 9; i++) {
+            m[i] /= m[8];
+        }
+        assertArrayEquals(homography.toString(), new double[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, m, 1e-6);
+    }
+}
@@ -0,0 +1,200 @@
+package com.shuheikagawa.rectify.core;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImageBufferPoolTest {
+    private static final long MAX_RETAINED_BYTES = 1024 * 1024;
+
+    @Test
+    public void acquiredBuffersHaveTheRequestedShape() {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        ImageBuffer buffer = pool.acquire(ImageBuffer.Format.RGBA, 30, 20);
+
+        assertEquals(ImageBuffer.Format.RGBA, buffer.getFormat());
+        assertEquals(30, buffer.getWidth());
+        assertEquals(20, buffer.getHeight());
+        assertEquals(0, buffer.getOffset());
+        assertEquals(30 * 4, buffer.getStride());
+        assertTrue(buffer.isContinuous());
+        assertTrue(buffer.array().length >= 30 * 20 * 4);
+        assertEquals(1, pool.getOutstandingCount());
+        assertFalse(buffer.isReleased());
+    }
+
+    @Test
+    public void releasedStorageIsReused() {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        ImageBuffer first = pool.acquire(ImageBuffer.Format.RGBA, 64, 48);
+        byte[] array = first.array();
+        first.release();
+
+        assertTrue(first.isReleased());
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(array.length, pool.getRetainedBytes());
+
+        // Any size of the same power of two class takes the same storage.
+        ImageBuffer second = pool.acquire(ImageBuffer.Format.GRAY, 100, 100);
+        assertSame(array, second.array());
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(0, pool.getRetainedBytes());
+        second.release();
+    }
+
+    @Test
+    public void steadyStateAllocatesNothing() {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        for (int frame = 0; frame < 10; frame++) {
+            ImageBuffer nv21 = pool.acquire(ImageBuffer.Format.NV21, 64, 48);
+            ImageBuffer rgba = pool.acquire(ImageBuffer.Format.RGBA, 64, 48);
+            ImageBuffer gray = pool.acquire(ImageBuffer.Format.GRAY, 32, 24);
+            assertEquals(3, pool.getOutstandingCount());
+            gray.release();
+            rgba.release();
+            nv21.release();
+        }
+
+        assertEquals(3, pool.getAllocationCount());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void outstandingBuffersDontShareStorage() {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        ImageBuffer a = pool.acquire(ImageBuffer.Format.GRAY, 16, 16);
+        ImageBuffer b = pool.acquire(ImageBuffer.Format.GRAY, 16, 16);
+
+        assertNotSame(a.array(), b.array());
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    @Test
+    public void retainsUpToTheLimit() {
+        // Room for one 4096 byte buffer only.
+        ImageBufferPool pool = new ImageBufferPool(false, 6000);
+        ImageBuffer a = pool.acquire(ImageBuffer.Format.GRAY, 64, 64);
+        ImageBuffer b = pool.acquire(ImageBuffer.Format.GRAY, 64, 64);
+        a.release();
+        b.release();
+
+        assertEquals(4096, pool.getRetainedBytes());
+
+        pool.clear();
+        assertEquals(0, pool.getRetainedBytes());
+        pool.acquire(ImageBuffer.Format.GRAY, 64, 64).release();
+        assertEquals(3, pool.getAllocationCount());
+    }
+
+    @Test
+    public void directPoolsHaveNoArray() {
+        ImageBufferPool pool = new ImageBufferPool(true, MAX_RETAINED_BYTES);
+        ImageBuffer buffer = pool.acquire(ImageBuffer.Format.GRAY, 8, 8);
+
+        assertTrue(pool.isDirect());
+        assertTrue(buffer.buffer().isDirect());
+        try {
+            buffer.array();
+            fail("array() of a direct buffer");
+        } catch (UnsupportedOperationException expected) {
+        }
+        buffer.release();
+    }
+
+    @Test
+    public void viewsShareTheStorage() {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        ImageBuffer nv21 = pool.acquire(ImageBuffer.Format.NV21, 8, 6);
+        ImageBuffer vu = nv21.vuPlane();
+        ImageBuffer roi = vu.roi(1, 1, 2, 2);
+
+        assertSame(nv21.array(), roi.array());
+        assertEquals(8 * 6, vu.getOffset());
+        assertEquals(8 * 6 + 8 + 2, roi.arrayOffset());
+        assertFalse(roi.isContinuous());
+
+        nv21.release();
+        assertTrue(roi.isReleased());
+        try {
+            roi.array();
+            fail("View used after release");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void viewsCantBeReleased() {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        pool.acquire(ImageBuffer.Format.RGBA, 8, 8).roi(0, 0, 4, 4).release();
+    }
+
+    @Test
+    public void releasingTwiceFails() {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        ImageBuffer buffer = pool.acquire(ImageBuffer.Format.GRAY, 8, 8);
+        buffer.release();
+        try {
+            buffer.release();
+            fail("Released twice");
+        } catch (IllegalStateException expected) {
+        }
+
+        // The second release must not return the storage again.
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(4096, pool.getRetainedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyImages() {
+        new ImageBufferPool(false, MAX_RETAINED_BYTES).acquire(ImageBuffer.Format.GRAY, 0, 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddNv21Sizes() {
+        new ImageBufferPool(false, MAX_RETAINED_BYTES).acquire(ImageBuffer.Format.NV21, 7, 8);
+    }
+
+    @Test
+    public void reportsBuffersCollectedWithoutRelease() throws InterruptedException {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        pool.setLeakDetection(true);
+        pool.acquire(ImageBuffer.Format.GRAY, 8, 8).release();
+        leak(pool);
+
+        // Collection is up to the garbage collector, so give it a few chances.
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, pool.getLeakCount());
+        assertEquals(0, pool.getOutstandingCount());
+        List<String> leaks = pool.getLeaks();
+        assertEquals(1, leaks.size());
+        // The call site is the caller of acquire(), not the pool.
+        assertTrue(leaks.get(0), leaks.get(0).contains(ImageBufferPoolTest.class.getName() + ".leak"));
+    }
+
+    @Test
+    public void leaksAreNotTrackedWithDetectionOff() throws InterruptedException {
+        ImageBufferPool pool = new ImageBufferPool(false, MAX_RETAINED_BYTES);
+        leak(pool);
+        System.gc();
+        Thread.sleep(10);
+
+        assertEquals(0, pool.getLeakCount());
+        assertTrue(pool.getLeaks().isEmpty());
+        assertEquals(1, pool.getOutstandingCount());
+    }
+
+    private static void leak(ImageBufferPool pool) {
+        pool.acquire(ImageBuffer.Format.RGBA, 16, 16);
+    }
+}
@@ -0,0 +1,427 @@
+package com.shuheikagawa.rectify.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// The kernels against straightforward reference implementations in this class, on random images
+// and on small images with known results.
+public class ImageKernelsTest {
+    private final ImageKernels kernels = new ImageKernels();
+    private final Random random = new Random(42);
+
+    @Test
+    public void medianBlurMatchesBruteForce() {
+        int[] kernelSizes = {3, 5, 7, 9, 15};
+        int[] channelCounts = {1, 3, 4};
+        for (int i = 0; i < 200; i++) {
+            int width = 1 + random.nextInt(40);
+            int height = 1 + random.nextInt(40);
+            int channels = channelCounts[random.nextInt(channelCounts.length)];
+            int ksize = kernelSizes[random.nextInt(kernelSizes.length)];
+            byte[] src = randomImage(width, height, channels);
+            byte[] dst = new byte[src.length];
+
+            kernels.medianBlur(src, dst, width, height, channels, ksize);
+
+            assertArrayEquals("image " + i + ": " + width + "x" + height + "x" + channels + ", ksize " + ksize,
+                    referenceMedian(src, width, height, channels, ksize), dst);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void medianBlurRejectsEvenKernels() {
+        kernels.medianBlur(new byte[16], new byte[16], 4, 4, 1, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void medianBlurRejectsInPlaceFiltering() {
+        byte[] image = new byte[16];
+        kernels.medianBlur(image, image, 4, 4, 1, 3);
+    }
+
+    @Test
+    public void resizeAreaAveragesBlocks() {
+        byte[] src = {
+                10, 20, 30, 50,
+                30, 40, 70, 90};
+        byte[] dst = new byte[2];
+
+        kernels.resizeArea(src, 4, 2, 1, dst, 2, 1);
+
+        assertArrayEquals(new byte[]{25, 60}, dst);
+    }
+
+    @Test
+    public void resizeAreaMatchesTheCoveredAreaMean() {
+        for (int i = 0; i < 50; i++) {
+            int srcWidth = 10 + random.nextInt(50);
+            int srcHeight = 10 + random.nextInt(50);
+            int dstWidth = 1 + random.nextInt(srcWidth);
+            int dstHeight = 1 + random.nextInt(srcHeight);
+            int channels = 1 + random.nextInt(4);
+            byte[] src = randomImage(srcWidth, srcHeight, channels);
+            byte[] dst = new byte[dstWidth * dstHeight * channels];
+
+            kernels.resizeArea(src, srcWidth, srcHeight, channels, dst, dstWidth, dstHeight);
+
+            // The kernel sums in float.
+            assertClose(srcWidth + "x" + srcHeight + " to " + dstWidth + "x" + dstHeight,
+                    referenceArea(src, srcWidth, srcHeight, channels, dstWidth, dstHeight), dst, 1);
+        }
+    }
+
+    @Test
+    public void resizeAreaUpscalesBilinearly() {
+        for (int i = 0; i < 50; i++) {
+            int srcWidth = 1 + random.nextInt(30);
+            int srcHeight = 1 + random.nextInt(30);
+            int dstWidth = srcWidth + random.nextInt(40);
+            int dstHeight = srcHeight + 1 + random.nextInt(40);
+            int channels = 1 + random.nextInt(4);
+            byte[] src = randomImage(srcWidth, srcHeight, channels);
+            byte[] dst = new byte[dstWidth * dstHeight * channels];
+
+            kernels.resizeArea(src, srcWidth, srcHeight, channels, dst, dstWidth, dstHeight);
+
+            assertClose(srcWidth + "x" + srcHeight + " to " + dstWidth + "x" + dstHeight,
+                    referenceLinear(src, srcWidth, srcHeight, channels, dstWidth, dstHeight), dst, 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resizeAreaRejectsMixedScaling() {
+        kernels.resizeArea(new byte[16], 4, 4, 1, new byte[16], 8, 2);
+    }
+
+    @Test
+    public void cannyThinsAStepToOneColumn() {
+        int width = 12;
+        int height = 10;
+        byte[] src = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 6; x < width; x++) {
+                src[y * width + x] = (byte) 200;
+            }
+        }
+        byte[] dst = new byte[src.length];
+
+        kernels.canny(src, dst, width, height, 0, 50);
+
+        // Both columns beside the step have the same magnitude. Non-maximum suppression keeps the
+        // first one, as OpenCV does.
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(x + ", " + y, x == 5 ? (byte) 255 : 0, dst[y * width + x]);
+            }
+        }
+    }
+
+    @Test
+    public void cannyKeepsWeakEdgesConnectedToStrongOnes() {
+        // A step at column 4 that is weak all along, and a step at column 12 that is strong in
+        // rows 0 to 2 and weak below. The magnitude of a step of d is 4 d.
+        int width = 20;
+        int height = 12;
+        byte[] src = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 5; x < width; x++) {
+                src[y * width + x] = 20;
+            }
+            for (int x = 13; x < width; x++) {
+                src[y * width + x] = (byte) (y < 3 ? 120 : 40);
+            }
+        }
+        byte[] dst = new byte[src.length];
+
+        kernels.canny(src, dst, width, height, 50, 150);
+
+        assertArrayEquals(referenceCanny(src, width, height, 50, 150), dst);
+        for (int y = 0; y < height; y++) {
+            assertEquals("isolated weak edge at row " + y, 0, dst[y * width + 4]);
+        }
+        for (int y = 5; y < height; y++) {
+            assertEquals("connected weak edge at row " + y, (byte) 255, dst[y * width + 12]);
+        }
+    }
+
+    @Test
+    public void cannyMatchesTheReference() {
+        for (int i = 0; i < 100; i++) {
+            int width = 3 + random.nextInt(40);
+            int height = 3 + random.nextInt(40);
+            // Smoothed noise, so that there are edges of every direction and strength.
+            byte[] noise = randomImage(width, height, 1);
+            byte[] src = new byte[noise.length];
+            kernels.medianBlur(noise, src, width, height, 1, 3);
+            int low = random.nextInt(200);
+            int high = low + random.nextInt(300);
+            byte[] dst = new byte[src.length];
+
+            kernels.canny(src, dst, width, height, low, high);
+
+            assertArrayEquals("image " + i + ": " + width + "x" + height + ", " + low + " to " + high,
+                    referenceCanny(src, width, height, low, high), dst);
+        }
+    }
+
+    @Test
+    public void cannySwapsReversedThresholds() {
+        byte[] src = randomImage(20, 20, 1);
+        byte[] expected = new byte[src.length];
+        byte[] actual = new byte[src.length];
+
+        kernels.canny(src, expected, 20, 20, 100, 300);
+        kernels.canny(src, actual, 20, 20, 300, 100);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void dilateTakesTheMaximumOfTheNeighbourhood() {
+        for (int i = 0; i < 50; i++) {
+            int width = 1 + random.nextInt(30);
+            int height = 1 + random.nextInt(30);
+            byte[] src = randomImage(width, height, 1);
+            byte[] expected = new byte[src.length];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int max = 0;
+                    for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, height - 1); j++) {
+                        for (int k = Math.max(x - 1, 0); k <= Math.min(x + 1, width - 1); k++) {
+                            max = Math.max(max, src[j * width + k] & 0xff);
+                        }
+                    }
+                    expected[y * width + x] = (byte) max;
+                }
+            }
+
+            byte[] dst = new byte[src.length];
+            kernels.dilate3x3(src, dst, width, height);
+            assertArrayEquals(expected, dst);
+
+            // In place.
+            kernels.dilate3x3(src, src, width, height);
+            assertArrayEquals(expected, src);
+        }
+    }
+
+    @Test
+    public void thresholdIsStrictlyGreater() {
+        byte[] src = {0, 99, 100, 101, (byte) 200, (byte) 255};
+        byte[] dst = new byte[src.length];
+
+        ImageKernels.threshold(src, dst, src.length, 100);
+
+        assertArrayEquals(new byte[]{0, 0, 0, (byte) 255, (byte) 255, (byte) 255}, dst);
+    }
+
+    @Test
+    public void extractChannelCopiesOnePlane() {
+        byte[] src = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+        byte[] dst = new byte[3];
+
+        ImageKernels.extractChannel(src, 4, 2, dst, 3);
+        assertArrayEquals(new byte[]{3, 7, 11}, dst);
+
+        ImageKernels.extractChannel(src, 3, 0, dst, 3);
+        assertArrayEquals(new byte[]{1, 4, 7}, dst);
+    }
+
+    private byte[] randomImage(int width, int height, int channels) {
+        byte[] image = new byte[width * height * channels];
+        random.nextBytes(image);
+        return image;
+    }
+
+    private static void assertClose(String message, byte[] expected, byte[] actual, int tolerance) {
+        assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            int difference = Math.abs((expected[i] & 0xff) - (actual[i] & 0xff));
+            assertTrue(message + " at " + i + ": " + (expected[i] & 0xff) + " != " + (actual[i] & 0xff),
+                    difference <= tolerance);
+        }
+    }
+
+    // Sorts the kernel of every pixel, with replicated borders.
+    private static byte[] referenceMedian(byte[] src, int width, int height, int channels, int ksize) {
+        int radius = ksize / 2;
+        byte[] dst = new byte[src.length];
+        int[] values = new int[ksize * ksize];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int c = 0; c < channels; c++) {
+                    int n = 0;
+                    for (int j = y - radius; j <= y + radius; j++) {
+                        for (int k = x - radius; k <= x + radius; k++) {
+                            int sy = Math.min(Math.max(j, 0), height - 1);
+                            int sx = Math.min(Math.max(k, 0), width - 1);
+                            values[n++] = src[(sy * width + sx) * channels + c] & 0xff;
+                        }
+                    }
+                    Arrays.sort(values);
+                    dst[(y * width + x) * channels + c] = (byte) values[values.length / 2];
+                }
+            }
+        }
+        return dst;
+    }
+
+    // Mean over the source area under each destination pixel, from the overlap of every pixel.
+    private static byte[] referenceArea(byte[] src, int srcWidth, int srcHeight, int channels,
+                                        int dstWidth, int dstHeight) {
+        double scaleX = (double) srcWidth / dstWidth;
+        double scaleY = (double) srcHeight / dstHeight;
+        byte[] dst = new byte[dstWidth * dstHeight * channels];
+        for (int dy = 0; dy < dstHeight; dy++) {
+            for (int dx = 0; dx < dstWidth; dx++) {
+                for (int c = 0; c < channels; c++) {
+                    double sum = 0;
+                    for (int sy = 0; sy < srcHeight; sy++) {
+                        double overlapY = Math.min(sy + 1, (dy + 1) * scaleY) - Math.max(sy, dy * scaleY);
+                        if (overlapY <= 0) {
+                            continue;
+                        }
+                        for (int sx = 0; sx < srcWidth; sx++) {
+                            double overlapX = Math.min(sx + 1, (dx + 1) * scaleX) - Math.max(sx, dx * scaleX);
+                            if (overlapX > 0) {
+                                sum += overlapX * overlapY * (src[(sy * srcWidth + sx) * channels + c] & 0xff);
+                            }
+                        }
+                    }
+                    dst[(dy * dstWidth + dx) * channels + c] = (byte) Math.round(sum / (scaleX * scaleY));
+                }
+            }
+        }
+        return dst;
+    }
+
+    // Bilinear sample at the source position of the centre of each destination pixel.
+    private static byte[] referenceLinear(byte[] src, int srcWidth, int srcHeight, int channels,
+                                          int dstWidth, int dstHeight) {
+        byte[] dst = new byte[dstWidth * dstHeight * channels];
+        for (int dy = 0; dy < dstHeight; dy++) {
+            double sy = Math.min(Math.max((dy + 0.5) * srcHeight / dstHeight - 0.5, 0), srcHeight - 1);
+            int y0 = (int) sy;
+            int y1 = Math.min(y0 + 1, srcHeight - 1);
+            for (int dx = 0; dx < dstWidth; dx++) {
+                double sx = Math.min(Math.max((dx + 0.5) * srcWidth / dstWidth - 0.5, 0), srcWidth - 1);
+                int x0 = (int) sx;
+                int x1 = Math.min(x0 + 1, srcWidth - 1);
+                for (int c = 0; c < channels; c++) {
+                    double top = lerp(src[(y0 * srcWidth + x0) * channels + c] & 0xff,
+                            src[(y0 * srcWidth + x1) * channels + c] & 0xff, sx - x0);
+                    double bottom = lerp(src[(y1 * srcWidth + x0) * channels + c] & 0xff,
+                            src[(y1 * srcWidth + x1) * channels + c] & 0xff, sx - x0);
+                    dst[(dy * dstWidth + dx) * channels + c] = (byte) Math.round(lerp(top, bottom, sy - y0));
+                }
+            }
+        }
+        return dst;
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    // Canny as in OpenCV 2.4.9 with a 3x3 Sobel and L1 magnitudes, on 2D arrays: the same direction
+    // sectors in fixed point, magnitudes of 0 outside the image, and hysteresis repeated until
+    // nothing changes instead of following edges from a stack.
+    private static byte[] referenceCanny(byte[] src, int width, int height, int low, int high) {
+        int[][] gx = new int[height][width];
+        int[][] gy = new int[height][width];
+        int[][] magnitude = new int[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sumX = 0;
+                int sumY = 0;
+                for (int j = -1; j <= 1; j++) {
+                    for (int k = -1; k <= 1; k++) {
+                        int value = pixel(src, width, height, x + k, y + j);
+                        int weightX = k * (j == 0 ? 2 : 1);
+                        int weightY = j * (k == 0 ? 2 : 1);
+                        sumX += weightX * value;
+                        sumY += weightY * value;
+                    }
+                }
+                gx[y][x] = sumX;
+                gy[y][x] = sumY;
+                magnitude[y][x] = Math.abs(sumX) + Math.abs(sumY);
+            }
+        }
+
+        // 0 for none, 1 for weak and 2 for strong edges.
+        int[][] state = new int[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int m = magnitude[y][x];
+                if (m <= low) {
+                    continue;
+                }
+                long xs = Math.abs(gx[y][x]);
+                long ys = (long) Math.abs(gy[y][x]) << 15;
+                long tg22x = xs * 13573;
+                long tg67x = tg22x + (xs << 16);
+                boolean isMaximum;
+                if (ys < tg22x) {
+                    isMaximum = m > at(magnitude, x - 1, y) && m >= at(magnitude, x + 1, y);
+                } else if (ys > tg67x) {
+                    isMaximum = m > at(magnitude, x, y - 1) && m >= at(magnitude, x, y + 1);
+                } else {
+                    int s = (gx[y][x] < 0) != (gy[y][x] < 0) ? -1 : 1;
+                    isMaximum = m > at(magnitude, x - s, y - 1) && m > at(magnitude, x + s, y + 1);
+                }
+                if (isMaximum) {
+                    state[y][x] = m > high ? 2 : 1;
+                }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (state[y][x] == 1 && hasStrongNeighbour(state, x, y)) {
+                        state[y][x] = 2;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        byte[] dst = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                dst[y * width + x] = (byte) (state[y][x] == 2 ? 255 : 0);
+            }
+        }
+        return dst;
+    }
+
+    private static int pixel(byte[] image, int width, int height, int x, int y) {
+        int sx = Math.min(Math.max(x, 0), width - 1);
+        int sy = Math.min(Math.max(y, 0), height - 1);
+        return image[sy * width + sx] & 0xff;
+    }
+
+    private static int at(int[][] values, int x, int y) {
+        return y < 0 || y >= values.length || x < 0 || x >= values[0].length ? 0 : values[y][x];
+    }
+
+    private static boolean hasStrongNeighbour(int[][] state, int x, int y) {
+        for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, state.length - 1); j++) {
+            for (int k = Math.max(x - 1, 0); k <= Math.min(x + 1, state[0].length - 1); k++) {
+                if (state[j][k] == 2) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,243 @@
+package com.shuheikagawa.rectify.core;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// The fixtures in resources/.../jpeg are 61 x 45 baseline JPEGs written by ImageIO at quality 0.95,
+// a smooth gradient with a soft disc. The width and height are not multiples of the MCU size, so
+// every file has partial blocks on the right and bottom. The references are the full size ImageIO
+// decodes, averaged down to the footprint of each output sample for the scaled decodes.
+public class JpegDecoderTest {
+    private static final int WIDTH = 61;
+    private static final int HEIGHT = 45;
+    private static final int[] SCALES = {1, 2, 4, 8};
+
+    // Mean and largest absolute channel error against the reference. The reduced size inverse DCT
+    // is not quite a box filter, and libjpeg upsamples chroma by interpolation.
+    private static final double MAX_MEAN_ERROR = 2;
+    private static final int MAX_ERROR = 8;
+
+    @Test
+    public void readsTheHeaderOnly() throws IOException {
+        JpegDecoder decoder = new JpegDecoder();
+        decoder.readHeader(read("sampling-420.jpg"));
+
+        assertEquals(WIDTH, decoder.getWidth());
+        assertEquals(HEIGHT, decoder.getHeight());
+    }
+
+    @Test
+    public void decodes444() throws IOException {
+        assertDecodesAtEveryScale("sampling-444.jpg", 1, 1);
+    }
+
+    @Test
+    public void decodes422() throws IOException {
+        assertDecodesAtEveryScale("sampling-422.jpg", 2, 1);
+    }
+
+    @Test
+    public void decodes420() throws IOException {
+        assertDecodesAtEveryScale("sampling-420.jpg", 2, 2);
+    }
+
+    @Test
+    public void decodesRestartIntervals() throws IOException {
+        // Three MCUs per interval, so the 4 x 3 MCUs of the image span four intervals.
+        assertDecodesAtEveryScale("restart-420.jpg", 2, 2);
+
+        // The same coefficients as without restart markers.
+        JpegDecoder decoder = new JpegDecoder();
+        for (int scale : SCALES) {
+            decoder.decode(read("sampling-420.jpg"), scale, false);
+            byte[] expected = output(decoder);
+            decoder.decode(read("restart-420.jpg"), scale, false);
+            assertArrayEquals("scale " + scale, expected, output(decoder));
+        }
+    }
+
+    @Test
+    public void decodesGrayscale() throws IOException {
+        byte[] jpeg = read("gray.jpg");
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(jpeg));
+        JpegDecoder decoder = new JpegDecoder();
+        for (int scale : SCALES) {
+            // Single component images come out gray whether or not gray was asked for.
+            decoder.decode(jpeg, scale, false);
+            assertEquals(1, decoder.getChannels());
+            assertMatches("gray.jpg at scale " + scale, reference, scale, 1, 1, decoder);
+        }
+    }
+
+    @Test
+    public void decodesLumaOnly() throws IOException {
+        byte[] jpeg = read("sampling-420.jpg");
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(jpeg));
+        JpegDecoder decoder = new JpegDecoder();
+        for (int scale : SCALES) {
+            decoder.decode(jpeg, scale, true);
+            assertEquals(1, decoder.getChannels());
+            assertMatches("luma at scale " + scale, reference, scale, 1, 1, decoder);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsProgressive() throws IOException {
+        new JpegDecoder().decode(read("progressive.jpg"), 1, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsProgressiveHeader() throws IOException {
+        new JpegDecoder().readHeader(read("progressive.jpg"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedData() throws IOException {
+        byte[] jpeg = read("sampling-420.jpg");
+        byte[] truncated = new byte[jpeg.length / 2];
+        System.arraycopy(jpeg, 0, truncated, 0, truncated.length);
+        new JpegDecoder().decode(truncated, 1, false);
+    }
+
+    @Test
+    public void decoderIsReusedAcrossImages() throws IOException {
+        JpegDecoder decoder = new JpegDecoder();
+        decoder.decode(read("sampling-444.jpg"), 8, false);
+        decoder.decode(read("gray.jpg"), 1, false);
+        decoder.decode(read("sampling-422.jpg"), 2, false);
+
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(read("sampling-422.jpg")));
+        assertMatches("sampling-422.jpg after reuse", reference, 2, 2, 1, decoder);
+    }
+
+    private static void assertDecodesAtEveryScale(String name, int chromaWidth, int chromaHeight)
+            throws IOException {
+        byte[] jpeg = read(name);
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(jpeg));
+        JpegDecoder decoder = new JpegDecoder();
+        for (int scale : SCALES) {
+            decoder.decode(jpeg, scale, false);
+            assertEquals(4, decoder.getChannels());
+            assertMatches(name + " at scale " + scale, reference, scale, chromaWidth, chromaHeight, decoder);
+        }
+    }
+
+    // Compares every output pixel with the reference converted to JFIF YCbCr. Luma is the mean of
+    // the scale x scale reference pixels under the output pixel. Chroma is upsampled by repetition,
+    // so it is the mean over the chroma sample the output pixel lies in, chromaWidth x chromaHeight
+    // output pixels. Gray outputs compare luma only.
+    private static void assertMatches(String message, BufferedImage reference, int scale,
+                                      int chromaWidth, int chromaHeight, JpegDecoder decoder) {
+        int outputWidth = (WIDTH + scale - 1) / scale;
+        int outputHeight = (HEIGHT + scale - 1) / scale;
+        assertEquals(message, WIDTH, decoder.getWidth());
+        assertEquals(message, HEIGHT, decoder.getHeight());
+        assertEquals(message, outputWidth, decoder.getOutputWidth());
+        assertEquals(message, outputHeight, decoder.getOutputHeight());
+
+        int channels = decoder.getChannels();
+        byte[] pixels = decoder.getPixels();
+        assertTrue(message, pixels.length >= outputWidth * outputHeight * channels);
+        long errorSum = 0;
+        int maxError = 0;
+        for (int y = 0; y < outputHeight; y++) {
+            for (int x = 0; x < outputWidth; x++) {
+                double luma = average(reference, x * scale, y * scale, scale, scale)[0];
+                int offset = (y * outputWidth + x) * channels;
+                int[] expected;
+                if (channels == 1) {
+                    expected = new int[]{(int) Math.round(luma)};
+                } else {
+                    double[] chroma = average(reference, x / chromaWidth * chromaWidth * scale,
+                            y / chromaHeight * chromaHeight * scale, chromaWidth * scale, chromaHeight * scale);
+                    expected = toRgb(luma, chroma[1], chroma[2]);
+                    assertEquals(message, (byte) 0xff, pixels[offset + 3]);
+                }
+                for (int c = 0; c < expected.length; c++) {
+                    int error = Math.abs((pixels[offset + c] & 0xff) - expected[c]);
+                    errorSum += error;
+                    maxError = Math.max(maxError, error);
+                }
+            }
+        }
+        double meanError = (double) errorSum / (outputWidth * outputHeight * Math.min(channels, 3));
+        assertTrue(message + ": mean error " + meanError, meanError <= MAX_MEAN_ERROR);
+        assertTrue(message + ": max error " + maxError, maxError <= MAX_ERROR);
+    }
+
+    // JFIF YCbCr mean of the width x height block at (x, y), clipped to the image.
+    private static double[] average(BufferedImage image, int x, int y, int width, int height) {
+        double[] sum = new double[3];
+        int count = 0;
+        for (int j = y; j < Math.min(y + height, image.getHeight()); j++) {
+            for (int i = x; i < Math.min(x + width, image.getWidth()); i++) {
+                if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+                    // getRGB() would convert from the linear gray color space.
+                    sum[0] += image.getRaster().getSample(i, j, 0);
+                    sum[1] += 128;
+                    sum[2] += 128;
+                } else {
+                    int rgb = image.getRGB(i, j);
+                    int r = rgb >> 16 & 0xff;
+                    int g = rgb >> 8 & 0xff;
+                    int b = rgb & 0xff;
+                    sum[0] += 0.299 * r + 0.587 * g + 0.114 * b;
+                    sum[1] += 128 - 0.168736 * r - 0.331264 * g + 0.5 * b;
+                    sum[2] += 128 + 0.5 * r - 0.418688 * g - 0.081312 * b;
+                }
+                count++;
+            }
+        }
+        for (int c = 0; c < 3; c++) {
+            sum[c] /= count;
+        }
+        return sum;
+    }
+
+    private static int[] toRgb(double y, double cb, double cr) {
+        return new int[]{
+                clamp(y + 1.402 * (cr - 128)),
+                clamp(y - 0.344136 * (cb - 128) - 0.714136 * (cr - 128)),
+                clamp(y + 1.772 * (cb - 128))};
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    private static byte[] output(JpegDecoder decoder) {
+        int length = decoder.getOutputWidth() * decoder.getOutputHeight() * decoder.getChannels();
+        byte[] output = new byte[length];
+        System.arraycopy(decoder.getPixels(), 0, output, 0, length);
+        return output;
+    }
+
+    private static byte[] read(String name) throws IOException {
+        InputStream in = JpegDecoderTest.class.getResourceAsStream("jpeg/" + name);
+        if (in == null) {
+            throw new IOException("Missing test resource: jpeg/" + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.shuheikagawa.rectify.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PerspectiveWarperTest {
+    // The warp truncates source coordinates to 1/256 of a pixel and rounds in fixed point.
+    private static final int TOLERANCE = 2;
+    // Source coordinates this close to the image edge may fall on either side of it.
+    private static final double EDGE_MARGIN = 1e-6;
+
+    private static final float[] QUAD = {12.5f, 4, 70, 9.25f, 76, 52, 6, 57.5f};
+
+    private final Random random = new Random(7);
+    private final PerspectiveWarper warper = new PerspectiveWarper(1);
+    private final PerspectiveWarper parallelWarper = new PerspectiveWarper(4);
+
+    @After
+    public void tearDown() {
+        warper.shutdown();
+        parallelWarper.shutdown();
+    }
+
+    @Test
+    public void identityCopiesTheImage() {
+        for (int channels = 1; channels <= 4; channels++) {
+            byte[] src = randomBytes(37 * 23 * channels);
+            byte[] dst = new byte[src.length];
+
+            warper.warp(src, 37, 23, dst, 37, 23, channels, Homography.scale(1, 1));
+
+            assertArrayEquals("channels " + channels, src, dst);
+        }
+
+        int[] src = randomInts(37 * 23);
+        int[] dst = new int[src.length];
+        warper.warp(src, 37, 23, dst, 37, 23, Homography.scale(1, 1));
+        assertArrayEquals(src, dst);
+    }
+
+    @Test
+    public void affineWarpsMatchBilinearSampling() {
+        Homography[] homographies = {
+                Homography.translation(0.5, 0.25),
+                Homography.translation(-3.3, 2.7).multiply(Homography.scale(0.7, 1.3)),
+                Homography.translation(20, -5).multiply(Homography.rotation(0.3)),
+                Homography.squareToQuad(new float[]{3.5f, 2, 40, 6, 35.25f, 30, 1, 27}, 0)
+                        .multiply(Homography.scale(1 / 50.0, 1 / 40.0)),
+        };
+        for (Homography homography : homographies) {
+            for (int channels = 1; channels <= 4; channels++) {
+                byte[] src = randomBytes(41 * 33 * channels);
+                byte[] dst = new byte[50 * 40 * channels];
+
+                warper.warp(src, 41, 33, dst, 50, 40, channels, homography);
+
+                assertMatchesReference(homography + ", channels " + channels, src, 41, 33, channels,
+                        dst, 50, 40, homography);
+            }
+        }
+    }
+
+    @Test
+    public void perspectiveWarpsMatchBilinearSampling() {
+        Homography homography = Homography.quadToRect(QUAD, 0, 60, 80).invert();
+        byte[] src = randomBytes(80 * 64 * 4);
+        byte[] dst = new byte[60 * 80 * 4];
+
+        warper.warp(src, 80, 64, dst, 60, 80, 4, homography);
+
+        assertMatchesReference(homography.toString(), src, 80, 64, 4, dst, 60, 80, homography);
+    }
+
+    @Test
+    public void argbMatchesRgba() {
+        Homography homography = Homography.quadToRect(QUAD, 0, 60, 80).invert();
+        int[] argb = randomInts(80 * 64);
+        byte[] rgba = new byte[argb.length * 4];
+        for (int i = 0; i < argb.length; i++) {
+            for (int c = 0; c < 4; c++) {
+                rgba[i * 4 + c] = (byte) (argb[i] >>> (c * 8));
+            }
+        }
+        int[] argbOut = new int[60 * 80];
+        byte[] rgbaOut = new byte[argbOut.length * 4];
+
+        warper.warp(argb, 80, 64, argbOut, 60, 80, homography);
+        warper.warp(rgba, 80, 64, rgbaOut, 60, 80, 4, homography);
+
+        // Both sample the same points. The packed warp interpolates each row before the columns
+        // and truncates in between.
+        for (int i = 0; i < argbOut.length; i++) {
+            for (int c = 0; c < 4; c++) {
+                int packed = (argbOut[i] >>> (c * 8)) & 0xff;
+                int bytes = rgbaOut[i * 4 + c] & 0xff;
+                assertTrue("pixel " + i + ", channel " + c + ": " + packed + " != " + bytes,
+                        Math.abs(packed - bytes) <= TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void regionWarpsLeaveTheRestUntouched() {
+        ImageBufferPool pool = new ImageBufferPool(false, 1024 * 1024);
+        ImageBuffer src = pool.acquire(ImageBuffer.Format.RGBA, 64, 48);
+        ImageBuffer dst = pool.acquire(ImageBuffer.Format.RGBA, 50, 40);
+        random.nextBytes(src.array());
+        Arrays.fill(dst.array(), (byte) 0x5a);
+        ImageBuffer srcRegion = src.roi(10, 6, 41, 33);
+        ImageBuffer dstRegion = dst.roi(7, 5, 30, 20);
+        Homography homography = Homography.translation(-2.5, 1.75).multiply(Homography.scale(1.2, 1.4));
+
+        warper.warp(srcRegion, dstRegion, homography);
+
+        // The region holds the warp of the source region.
+        byte[] srcPixels = copyRegion(srcRegion);
+        byte[] expected = new byte[30 * 20 * 4];
+        warper.warp(srcPixels, 41, 33, expected, 30, 20, 4, homography);
+        assertArrayEquals(expected, copyRegion(dstRegion));
+
+        byte[] array = dst.array();
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 50; x++) {
+                if (x >= 7 && x < 37 && y >= 5 && y < 25) {
+                    continue;
+                }
+                for (int c = 0; c < 4; c++) {
+                    assertEquals(x + ", " + y, 0x5a, array[(y * 50 + x) * 4 + c]);
+                }
+            }
+        }
+        for (int i = 50 * 40 * 4; i < array.length; i++) {
+            assertEquals("past the image at " + i, 0x5a, array[i]);
+        }
+        src.release();
+        dst.release();
+    }
+
+    @Test
+    public void parallelWarpsMatchSingleThreadedOnes() {
+        Homography homography = Homography.quadToRect(QUAD, 0, 60, 81).invert();
+        // Row counts that do and don't split evenly into the bands, and fewer rows than bands.
+        int[] heights = {81, 80, 3};
+        for (int height : heights) {
+            byte[] src = randomBytes(80 * 64 * 3);
+            byte[] expected = new byte[60 * height * 3];
+            byte[] actual = new byte[expected.length];
+            warper.warp(src, 80, 64, expected, 60, height, 3, homography);
+            parallelWarper.warp(src, 80, 64, actual, 60, height, 3, homography);
+            assertArrayEquals("height " + height, expected, actual);
+
+            int[] argb = randomInts(80 * 64);
+            int[] expectedArgb = new int[60 * height];
+            int[] actualArgb = new int[expectedArgb.length];
+            warper.warp(argb, 80, 64, expectedArgb, 60, height, homography);
+            parallelWarper.warp(argb, 80, 64, actualArgb, 60, height, homography);
+            assertArrayEquals("height " + height, expectedArgb, actualArgb);
+        }
+    }
+
+    @Test
+    public void observerSeesEveryBandOnItsThread() {
+        final List<int[]> bands = Collections.synchronizedList(new ArrayList<int[]>());
+        final Set<Long> threadIds = Collections.synchronizedSet(new HashSet<Long>());
+        final AtomicInteger finished = new AtomicInteger();
+        parallelWarper.setBandObserver(new PerspectiveWarper.BandObserver() {
+            @Override
+            public long bandStarted(int startRow, int endRow) {
+                bands.add(new int[]{startRow, endRow});
+                threadIds.add(Thread.currentThread().getId());
+                return Thread.currentThread().getId();
+            }
+
+            @Override
+            public void bandFinished(long token) {
+                assertEquals(Thread.currentThread().getId(), token);
+                finished.incrementAndGet();
+            }
+        });
+
+        parallelWarper.warp(new byte[64 * 64], 64, 64, new byte[64 * 81], 64, 81, 1, Homography.scale(1, 1));
+
+        assertEquals(4, bands.size());
+        assertEquals(4, finished.get());
+        assertEquals(4, threadIds.size());
+        assertTrue(threadIds.contains(Thread.currentThread().getId()));
+        boolean[] covered = new boolean[81];
+        for (int[] band : bands) {
+            for (int row = band[0]; row < band[1]; row++) {
+                assertFalse("row " + row + " twice", covered[row]);
+                covered[row] = true;
+            }
+        }
+        for (int row = 0; row < covered.length; row++) {
+            assertTrue("row " + row, covered[row]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortDestinations() {
+        warper.warp(new byte[64], 8, 8, new byte[63], 8, 8, 1, Homography.scale(1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDifferentFormats() {
+        ImageBufferPool pool = new ImageBufferPool(false, 1024 * 1024);
+        warper.warp(pool.acquire(ImageBuffer.Format.RGBA, 8, 8), pool.acquire(ImageBuffer.Format.GRAY, 8, 8),
+                Homography.scale(1, 1));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private int[] randomInts(int length) {
+        int[] ints = new int[length];
+        for (int i = 0; i < length; i++) {
+            ints[i] = random.nextInt();
+        }
+        return ints;
+    }
+
+    private static byte[] copyRegion(ImageBuffer region) {
+        int rowLength = region.getWidth() * region.getFormat().pixelStride;
+        byte[] pixels = new byte[rowLength * region.getHeight()];
+        for (int y = 0; y < region.getHeight(); y++) {
+            System.arraycopy(region.array(), region.arrayOffset() + y * region.getStride(),
+                    pixels, y * rowLength, rowLength);
+        }
+        return pixels;
+    }
+
+    // Samples the source in double precision at the mapping of every destination pixel, with zeros
+    // outside the source.
+    private static void assertMatchesReference(String message, byte[] src, int srcWidth, int srcHeight,
+                                               int channels, byte[] dst, int dstWidth, int dstHeight,
+                                               Homography dstToSrc) {
+        int maxX = srcWidth - 1;
+        int maxY = srcHeight - 1;
+        int sampled = 0;
+        for (int y = 0; y < dstHeight; y++) {
+            for (int x = 0; x < dstWidth; x++) {
+                double sx = dstToSrc.mapX(x, y);
+                double sy = dstToSrc.mapY(x, y);
+                if (Math.abs(sx) < EDGE_MARGIN || Math.abs(sy) < EDGE_MARGIN
+                        || Math.abs(sx - maxX) < EDGE_MARGIN || Math.abs(sy - maxY) < EDGE_MARGIN) {
+                    continue;
+                }
+                boolean inside = sx >= 0 && sy >= 0 && sx <= maxX && sy <= maxY;
+                int x0 = (int) sx;
+                int y0 = (int) sy;
+                int x1 = Math.min(x0 + 1, maxX);
+                int y1 = Math.min(y0 + 1, maxY);
+                for (int c = 0; c < channels; c++) {
+                    int expected = 0;
+                    if (inside) {
+                        double top = lerp(src[(y0 * srcWidth + x0) * channels + c] & 0xff,
+                                src[(y0 * srcWidth + x1) * channels + c] & 0xff, sx - x0);
+                        double bottom = lerp(src[(y1 * srcWidth + x0) * channels + c] & 0xff,
+                                src[(y1 * srcWidth + x1) * channels + c] & 0xff, sx - x0);
+                        expected = (int) Math.round(lerp(top, bottom, sy - y0));
+                        sampled++;
+                    }
+                    int actual = dst[(y * dstWidth + x) * channels + c] & 0xff;
+                    assertTrue(message + " at " + x + ", " + y + ", channel " + c + ": " + expected + " != " + actual,
+                            Math.abs(expected - actual) <= TOLERANCE);
+                }
+            }
+        }
+        // Guards against homographies that map everything outside the source.
+        assertTrue(message, sampled > dstWidth * dstHeight * channels / 4);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+}
@@ -0,0 +1,393 @@
+package com.shuheikagawa.rectify.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PolygonApproximatorTest {
+    private static final double EPSILON_RATIO = DetectionProfile.APPROX_EPSILON_RATIO;
+
+    @Test
+    public void squareKeepsItsCornersInOrder() {
+        PolygonApproximator approximator = new PolygonApproximator(4);
+        int[] contour = {1, 1, 1, 3, 3, 3, 3, 1};
+
+        assertEquals(4, approximator.approximate(contour, 0, 4, EPSILON_RATIO, 0));
+        assertVertices(approximator, 4, 1, 1, 1, 3, 3, 3, 3, 1);
+        assertEquals(8, approximator.getArcLength(), 0);
+    }
+
+    @Test
+    public void pointsOnTheSidesAreDropped() {
+        PolygonApproximator approximator = new PolygonApproximator(4);
+        // A 40x20 rectangle traced with a point every 10 pixels and a one pixel dent.
+        int[] contour = {0, 0, 0, 10, 0, 20, 10, 20, 20, 21, 30, 20, 40, 20, 40, 10, 40, 0, 30, 0, 20, 0, 10, 0};
+
+        assertEquals(4, approximator.approximate(contour, 0, 12, EPSILON_RATIO, 0));
+        assertVertices(approximator, 4, 0, 0, 0, 20, 40, 20, 40, 0);
+    }
+
+    @Test
+    public void contourIsReadAtItsOffset() {
+        PolygonApproximator approximator = new PolygonApproximator(4);
+        int[] packed = {7, 7, 9, 9, 2, 2, 2, 8, 8, 8, 8, 2};
+
+        assertEquals(4, approximator.approximate(packed, 4, 4, EPSILON_RATIO, 0));
+        assertVertices(approximator, 4, 2, 2, 2, 8, 8, 8, 8, 2);
+    }
+
+    @Test
+    public void circleIsRejected() {
+        int[] contour = circle(100, 100, 60, 90);
+        PolygonApproximator approximator = new PolygonApproximator(4);
+
+        assertTrue(approxPolyDP(contour, 90, EPSILON_RATIO * arcLength(contour, 90)).length / 2 > 4);
+        assertEquals(PolygonApproximator.REJECTED, approximator.approximate(contour, 0, 90, EPSILON_RATIO, 0));
+        // Allowing more vertices gives the full result.
+        PolygonApproximator many = new PolygonApproximator(64);
+        int vertexCount = many.approximate(contour, 0, 90, EPSILON_RATIO, 0);
+        assertVertices(many, vertexCount, approxPolyDP(contour, 90, EPSILON_RATIO * arcLength(contour, 90)));
+    }
+
+    @Test
+    public void areaPrecheckRejectsOnlyContoursTooShortToEncloseTheArea() {
+        PolygonApproximator approximator = new PolygonApproximator(4);
+        // A square has the largest area of all quadrangles with its perimeter.
+        int[] square = {0, 0, 0, 10, 10, 10, 10, 0};
+
+        assertEquals(4, approximator.approximate(square, 0, 4, EPSILON_RATIO, 100));
+        assertEquals(PolygonApproximator.REJECTED, approximator.approximate(square, 0, 4, EPSILON_RATIO, 100.01));
+        // The perimeter is still reported.
+        assertEquals(40, approximator.getArcLength(), 0);
+    }
+
+    @Test
+    public void emptyContour() {
+        PolygonApproximator approximator = new PolygonApproximator(4);
+        assertEquals(0, approximator.approximate(new int[0], 0, 0, EPSILON_RATIO, 0));
+        assertEquals(0, approximator.getArcLength(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooFewVertices() {
+        new PolygonApproximator(2);
+    }
+
+    @Test
+    public void arcLengthMatchesOpenCv() {
+        PolygonApproximator approximator = new PolygonApproximator(4);
+        ContourTracer tracer = sceneContours(7);
+        for (int i = 0; i < tracer.size(); i++) {
+            int[] contour = contour(tracer, i);
+            int count = contour.length / 2;
+            approximator.approximate(contour, 0, count, EPSILON_RATIO, 0);
+            double expected = arcLength(contour, count);
+            assertEquals("contour " + i, expected, approximator.getArcLength(), expected * 1e-12);
+        }
+    }
+
+    // The early abort and the area precheck must not change any result of at most 4 vertices, and
+    // every other contour must be rejected.
+    @Test
+    public void matchesApproxPolyDpOnSceneContours() {
+        PolygonApproximator approximator = new PolygonApproximator(4);
+        int quadrangles = 0;
+        int rejected = 0;
+        for (long seed = 1; seed <= 6; seed++) {
+            ContourTracer tracer = sceneContours(seed);
+            for (int i = 0; i < tracer.size(); i++) {
+                int[] contour = contour(tracer, i);
+                int count = contour.length / 2;
+                int[] expected = approxPolyDP(contour, count, EPSILON_RATIO * arcLength(contour, count));
+                int expectedCount = expected.length / 2;
+                String message = "seed " + seed + ", contour " + i;
+
+                int vertexCount = approximator.approximate(contour, 0, count, EPSILON_RATIO, 0);
+                if (expectedCount > 4) {
+                    assertEquals(message, PolygonApproximator.REJECTED, vertexCount);
+                    rejected++;
+                    continue;
+                }
+                assertEquals(message, expectedCount, vertexCount);
+                assertVertices(approximator, vertexCount, expected);
+                if (expectedCount < 4) {
+                    continue;
+                }
+
+                // The precheck must keep the quadrangle when asking for exactly its area.
+                quadrangles++;
+                double area = Math.abs(area(expected));
+                vertexCount = approximator.approximate(contour, 0, count, EPSILON_RATIO, area);
+                if (vertexCount == PolygonApproximator.REJECTED) {
+                    fail(message + ": rejected a quadrangle of area " + area + " by its perimeter " +
+                            approximator.getArcLength());
+                }
+                assertVertices(approximator, vertexCount, expected);
+            }
+        }
+        // Make sure that both paths were exercised.
+        assertTrue("quadrangles: " + quadrangles, quadrangles >= 20);
+        assertTrue("rejected: " + rejected, rejected >= 100);
+    }
+
+    @Test
+    public void matchesApproxPolyDpOnRandomPolygons() {
+        Random random = new Random(11);
+        PolygonApproximator approximator = new PolygonApproximator(4);
+        for (int n = 0; n < 2000; n++) {
+            // Noisy regular polygons of 3 to 8 sides, sampled densely along the sides.
+            int sides = 3 + random.nextInt(6);
+            double radius = 20 + random.nextDouble() * 200;
+            double rotation = random.nextDouble() * Math.PI;
+            int perSide = 2 + random.nextInt(20);
+            int count = sides * perSide;
+            int[] contour = new int[count * 2];
+            for (int s = 0; s < sides; s++) {
+                double a0 = rotation + 2 * Math.PI * s / sides;
+                double a1 = rotation + 2 * Math.PI * (s + 1) / sides;
+                for (int k = 0; k < perSide; k++) {
+                    double t = (double) k / perSide;
+                    double x = 300 + radius * ((1 - t) * Math.cos(a0) + t * Math.cos(a1));
+                    double y = 300 + radius * ((1 - t) * Math.sin(a0) + t * Math.sin(a1));
+                    int index = (s * perSide + k) * 2;
+                    contour[index] = (int) Math.round(x + random.nextGaussian());
+                    contour[index + 1] = (int) Math.round(y + random.nextGaussian());
+                }
+            }
+
+            int[] expected = approxPolyDP(contour, count, EPSILON_RATIO * arcLength(contour, count));
+            int vertexCount = approximator.approximate(contour, 0, count, EPSILON_RATIO, 0);
+            if (expected.length / 2 > 4) {
+                assertEquals("polygon " + n, PolygonApproximator.REJECTED, vertexCount);
+            } else {
+                assertEquals("polygon " + n, expected.length / 2, vertexCount);
+                assertVertices(approximator, vertexCount, expected);
+                vertexCount = approximator.approximate(contour, 0, count, EPSILON_RATIO, Math.abs(area(expected)));
+                assertEquals("polygon " + n, expected.length / 2, vertexCount);
+            }
+        }
+    }
+
+    // Contours of the thresholded channels of a noisy synthetic scene, as the detection sees them.
+    private static ContourTracer sceneContours(long seed) {
+        SceneGenerator generator = new SceneGenerator(320, 240);
+        generator.setNoise(6);
+        generator.setBlurRadius(1);
+        generator.setDistractorCount(3);
+        SceneGenerator.Scene scene = generator.generate(seed);
+
+        int size = scene.getWidth() * scene.getHeight();
+        byte[] channel = new byte[size];
+        byte[] binary = new byte[size];
+        int channelIndex = (int) (seed % 3);
+        ImageKernels.extractChannel(scene.getPixels(), SceneGenerator.CHANNELS, channelIndex, channel, size);
+        ImageKernels.threshold(channel, binary, size, 60 + (int) (seed % 4) * 40);
+
+        ContourTracer tracer = new ContourTracer();
+        tracer.findContours(binary, scene.getWidth(), scene.getHeight());
+        return tracer;
+    }
+
+    private static int[] contour(ContourTracer tracer, int index) {
+        int offset = tracer.getOffsets()[index];
+        return Arrays.copyOfRange(tracer.getPoints(), offset, offset + tracer.getLengths()[index] * 2);
+    }
+
+    private static void assertVertices(PolygonApproximator approximator, int count, int... expected) {
+        assertArrayEquals(expected, Arrays.copyOf(approximator.getVertices(), count * 2));
+    }
+
+    private static int[] circle(int cx, int cy, int radius, int count) {
+        int[] points = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / count;
+            points[i * 2] = (int) Math.round(cx + radius * Math.cos(angle));
+            points[i * 2 + 1] = (int) Math.round(cy + radius * Math.sin(angle));
+        }
+        return points;
+    }
+
+    private static double area(int[] polygon) {
+        int count = polygon.length / 2;
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            sum += (double) polygon[i * 2] * polygon[j * 2 + 1] - (double) polygon[j * 2] * polygon[i * 2 + 1];
+        }
+        return sum / 2;
+    }
+
+    // cv::arcLength of OpenCV 2.4.9 for a closed contour of integer points: single precision segment
+    // lengths, summed in double in blocks of 16 from the last of each block.
+    private static double arcLength(int[] points, int count) {
+        if (count <= 1) {
+            return 0;
+        }
+        double perimeter = 0;
+        float[] buffer = new float[16];
+        int j = 0;
+        float prevX = points[(count - 1) * 2];
+        float prevY = points[(count - 1) * 2 + 1];
+        for (int i = 0; i < count; i++) {
+            float x = points[i * 2];
+            float y = points[i * 2 + 1];
+            float dx = x - prevX;
+            float dy = y - prevY;
+            buffer[j] = dx * dx + dy * dy;
+            if (++j == 16 || i == count - 1) {
+                for (int k = 0; k < j; k++) {
+                    buffer[k] = (float) Math.sqrt(buffer[k]);
+                }
+                for (; j > 0; j--) {
+                    perimeter += buffer[j - 1];
+                }
+            }
+            prevX = x;
+            prevY = y;
+        }
+        return perimeter;
+    }
+
+    // approxPolyDP_ of OpenCV 2.4.9 for a closed contour of integer points, without any shortcut.
+    private static int[] approxPolyDP(int[] src, int count, double eps) {
+        if (count == 0) {
+            return new int[0];
+        }
+        int[] dst = new int[count * 2];
+        int newCount = 0;
+        int[] stack = new int[count * 4 + 8];
+        int top = 0;
+        eps *= eps;
+
+        // 1. Find approximately two farthest points of the contour.
+        int rightStart = 0;
+        int pos = 0;
+        int startX = 0;
+        int startY = 0;
+        boolean leEps = false;
+        for (int i = 0; i < 3; i++) {
+            double maxDist = 0;
+            pos = (pos + rightStart) % count;
+            startX = src[pos * 2];
+            startY = src[pos * 2 + 1];
+            pos = (pos + 1) % count;
+            for (int j = 1; j < count; j++) {
+                double dx = src[pos * 2] - startX;
+                double dy = src[pos * 2 + 1] - startY;
+                pos = (pos + 1) % count;
+                double dist = dx * dx + dy * dy;
+                if (dist > maxDist) {
+                    maxDist = dist;
+                    rightStart = j;
+                }
+            }
+            leEps = maxDist <= eps;
+        }
+
+        // 2. Initialize the stack.
+        if (!leEps) {
+            int sliceStart = pos % count;
+            int sliceEnd = (rightStart + sliceStart) % count;
+            stack[top++] = sliceEnd;
+            stack[top++] = sliceStart;
+            stack[top++] = sliceStart;
+            stack[top++] = sliceEnd;
+        } else {
+            dst[newCount * 2] = startX;
+            dst[newCount * 2 + 1] = startY;
+            newCount++;
+        }
+
+        // 3. Split recursively.
+        while (top > 0) {
+            int sliceEnd = stack[--top];
+            int sliceStart = stack[--top];
+            int endX = src[sliceEnd * 2];
+            int endY = src[sliceEnd * 2 + 1];
+            pos = sliceStart;
+            startX = src[pos * 2];
+            startY = src[pos * 2 + 1];
+            pos = (pos + 1) % count;
+
+            int split = 0;
+            if (pos != sliceEnd) {
+                double dx = endX - startX;
+                double dy = endY - startY;
+                double maxDist = 0;
+                while (pos != sliceEnd) {
+                    int x = src[pos * 2];
+                    int y = src[pos * 2 + 1];
+                    pos = (pos + 1) % count;
+                    double dist = Math.abs((y - startY) * dx - (x - startX) * dy);
+                    if (dist > maxDist) {
+                        maxDist = dist;
+                        split = (pos + count - 1) % count;
+                    }
+                }
+                leEps = maxDist * maxDist <= eps * (dx * dx + dy * dy);
+            } else {
+                leEps = true;
+            }
+
+            if (leEps) {
+                dst[newCount * 2] = startX;
+                dst[newCount * 2 + 1] = startY;
+                newCount++;
+            } else {
+                stack[top++] = split;
+                stack[top++] = sliceEnd;
+                stack[top++] = sliceStart;
+                stack[top++] = split;
+            }
+        }
+
+        // 4. Remove the points on almost straight lines.
+        count = newCount;
+        pos = count - 1;
+        startX = dst[pos * 2];
+        startY = dst[pos * 2 + 1];
+        pos = (pos + 1) % count;
+        int wpos = pos;
+        int x = dst[pos * 2];
+        int y = dst[pos * 2 + 1];
+        pos = (pos + 1) % count;
+        for (int i = 0; i < count && newCount > 2; i++) {
+            int endX = dst[pos * 2];
+            int endY = dst[pos * 2 + 1];
+            pos = (pos + 1) % count;
+
+            double dx = endX - startX;
+            double dy = endY - startY;
+            double dist = Math.abs((x - startX) * dy - (y - startY) * dx);
+            double successiveInnerProduct = (double) (x - startX) * (endX - x) + (double) (y - startY) * (endY - y);
+
+            if (dist * dist <= 0.5 * eps * (dx * dx + dy * dy) && dx != 0 && dy != 0 && successiveInnerProduct >= 0) {
+                newCount--;
+                startX = endX;
+                startY = endY;
+                dst[wpos * 2] = startX;
+                dst[wpos * 2 + 1] = startY;
+                wpos = (wpos + 1) % count;
+                x = dst[pos * 2];
+                y = dst[pos * 2 + 1];
+                pos = (pos + 1) % count;
+                i++;
+                continue;
+            }
+            startX = x;
+            startY = y;
+            dst[wpos * 2] = startX;
+            dst[wpos * 2 + 1] = startY;
+            wpos = (wpos + 1) % count;
+            x = endX;
+            y = endY;
+        }
+        return Arrays.copyOf(dst, newCount * 2);
+    }
+}
@@ -0,0 +1,118 @@
+package com.shuheikagawa.rectify.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SceneGeneratorTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void sameSeedGivesTheSameScene() {
+        for (long seed = 0; seed < 5; seed++) {
+            SceneGenerator.Scene first = degraded(new SceneGenerator(WIDTH, HEIGHT)).generate(seed);
+            SceneGenerator.Scene second = degraded(new SceneGenerator(WIDTH, HEIGHT)).generate(seed);
+
+            assertArrayEquals("seed " + seed, first.getPixels(), second.getPixels());
+            assertArrayEquals("seed " + seed, first.getQuad(), second.getQuad(), 0);
+        }
+    }
+
+    @Test
+    public void otherSeedsGiveOtherScenes() {
+        SceneGenerator generator = new SceneGenerator(WIDTH, HEIGHT);
+        SceneGenerator.Scene first = generator.generate(1);
+        SceneGenerator.Scene second = generator.generate(2);
+
+        assertFalse(Arrays.equals(first.getPixels(), second.getPixels()));
+        assertFalse(Arrays.equals(first.getQuad(), second.getQuad()));
+    }
+
+    // Baselines of the regression harness are measured on regenerated scenes. Only update the
+    // checksum along with them.
+    @Test
+    public void pixelsMatchTheRecordedChecksum() {
+        SceneGenerator.Scene scene = degraded(new SceneGenerator(WIDTH, HEIGHT)).generate(42);
+        CRC32 crc = new CRC32();
+        crc.update(scene.getPixels());
+
+        assertEquals(1189566746L, crc.getValue());
+    }
+
+    @Test
+    public void effectsKeepTheCorners() {
+        for (long seed = 0; seed < 10; seed++) {
+            float[] quad = new SceneGenerator(WIDTH, HEIGHT).generate(seed).getQuad();
+
+            SceneGenerator blurred = new SceneGenerator(WIDTH, HEIGHT);
+            blurred.setBlurRadius(2);
+            assertArrayEquals("blur, seed " + seed, quad, blurred.generate(seed).getQuad(), 0);
+
+            SceneGenerator noisy = new SceneGenerator(WIDTH, HEIGHT);
+            noisy.setNoise(8);
+            assertArrayEquals("noise, seed " + seed, quad, noisy.generate(seed).getQuad(), 0);
+
+            SceneGenerator shadowed = new SceneGenerator(WIDTH, HEIGHT);
+            shadowed.setShadow(0.5);
+            assertArrayEquals("shadow, seed " + seed, quad, shadowed.generate(seed).getQuad(), 0);
+
+            SceneGenerator all = new SceneGenerator(WIDTH, HEIGHT);
+            all.setBlurRadius(1);
+            all.setNoise(4);
+            all.setShadow(0.3);
+            assertArrayEquals("all, seed " + seed, quad, all.generate(seed).getQuad(), 0);
+        }
+    }
+
+    @Test
+    public void effectsChangeThePixels() {
+        byte[] clean = new SceneGenerator(WIDTH, HEIGHT).generate(3).getPixels();
+        SceneGenerator generator = new SceneGenerator(WIDTH, HEIGHT);
+        generator.setNoise(4);
+
+        assertFalse(Arrays.equals(clean, generator.generate(3).getPixels()));
+    }
+
+    @Test
+    public void pageIsInsideTheImageAndClockwise() {
+        SceneGenerator generator = degraded(new SceneGenerator(WIDTH, HEIGHT));
+        for (long seed = 0; seed < 20; seed++) {
+            SceneGenerator.Scene scene = generator.generate(seed);
+            float[] quad = scene.getQuad();
+
+            assertEquals(WIDTH * HEIGHT * SceneGenerator.CHANNELS, scene.getPixels().length);
+            for (int i = 0; i < 4; i++) {
+                assertTrue("seed " + seed + ": " + Arrays.toString(quad),
+                        quad[i * 2] >= 0 && quad[i * 2] <= WIDTH && quad[i * 2 + 1] >= 0 && quad[i * 2 + 1] <= HEIGHT);
+            }
+            // Clockwise with y pointing down is a positive cross product.
+            double cross = 0;
+            for (int i = 0; i < 4; i++) {
+                int j = (i + 1) % 4;
+                cross += quad[i * 2] * quad[j * 2 + 1] - quad[j * 2] * quad[i * 2 + 1];
+            }
+            assertTrue("seed " + seed + ": " + Arrays.toString(quad), cross > 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinyImages() {
+        new SceneGenerator(15, 100);
+    }
+
+    private static SceneGenerator degraded(SceneGenerator generator) {
+        generator.setBlurRadius(1);
+        generator.setNoise(6);
+        generator.setShadow(0.4);
+        generator.setOcclusion(0.2);
+        generator.setDistractorCount(3);
+        return generator;
+    }
+}
@@ -1,6 +1,8 @@
 package org.opencv.android;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.opencv.R;
 import org.opencv.android.Utils;
@@ -15,6 +17,8 @@ import android.content.DialogInterface;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -35,12 +39,32 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     private static final int STOPPED = 0;
     private static final int STARTED = 1;
 
+    /* States of the analysis frame */
+    private static final int ANALYSIS_IDLE = 0;
+    private static final int ANALYSIS_FILLING = 1;
+    private static final int ANALYSIS_READY = 2;
+
     private int mState = STOPPED;
     private Bitmap mCacheBitmap;
     private CvCameraViewListener2 mListener;
     private boolean mSurfaceExist;
     private Object mSyncObject = new Object();
 
+    private CvCameraViewAnalyzer mAnalyzer;
+    private volatile Thread mAnalysisThread;
+    private volatile boolean mStopAnalysis;
+    private final AtomicInteger mAnalysisState = new AtomicInteger(ANALYSIS_IDLE);
+    private Mat mAnalysisFrame;
+    private volatile float[] mOverlayQuads;
+    /* Written by the analysis thread before mOverlaySequence is incremented */
+    private long mAnalysisCaptureNanos;
+    private long mOverlayCaptureNanos;
+    private volatile int mOverlaySequence;
+    private int mDrawnOverlaySequence;
+    private final Paint mOverlayPaint = new Paint();
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
+
     protected int mFrameWidth;
     protected int mFrameHeight;
     protected int mMaxHeight;
@@ -61,6 +85,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         getHolder().addCallback(this);
         mMaxWidth = MAX_UNSPECIFIED;
         mMaxHeight = MAX_UNSPECIFIED;
+        initOverlayPaint();
     }
 
     public CameraBridgeViewBase(Context context, AttributeSet attrs) {
@@ -79,6 +104,14 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         mMaxWidth = MAX_UNSPECIFIED;
         mMaxHeight = MAX_UNSPECIFIED;
         styledAttrs.recycle();
+        initOverlayPaint();
+    }
+
+    private void initOverlayPaint() {
+        mOverlayPaint.setColor(Color.GREEN);
+        mOverlayPaint.setStrokeWidth(4);
+        mOverlayPaint.setStyle(Paint.Style.STROKE);
+        mOverlayPaint.setAntiAlias(true);
     }
 
     /**
@@ -172,6 +205,21 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         private CvCameraViewListener mOldStyleListener;
     };
 
+    /**
+     * Analysis that runs on its own thread, at its own rate, decoupled from preview rendering.
+     * The preview keeps being drawn at camera rate and the latest result is drawn over it.
+     */
+    public interface CvCameraViewAnalyzer {
+        /**
+         * This method is invoked on the analysis thread with a copy of the newest RGBA frame.
+         * Frames that arrive while it runs are displayed but not analyzed.
+         * @param rgba - the frame to analyze. It is reused for the next frame, do not keep it.
+         * @return quadrilaterals to draw over the preview in frame coordinates, packed as
+         * x0, y0, ..., x3, y3 for each of them, or null to draw nothing
+         */
+        public float[] analyzeFrame(Mat rgba);
+    };
+
     /**
      * This class interface is abstract representation of single frame from camera for onCameraFrame callback
      * Attention: Do not use objects, that represents this interface out of onCameraFrame callback!
@@ -187,6 +235,11 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns RGBA Mat with frame downscaled by two in each dimension
+         */
+        public Mat rgbaHalf();
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -263,6 +316,23 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         mListener = listener;
     }
 
+    /**
+     * Sets the analyzer to run on a separate thread while the view is started.
+     * It must be set before the view is enabled. Pass null to analyze nothing.
+     * @param analyzer
+     */
+    public void setCvCameraViewAnalyzer(CvCameraViewAnalyzer analyzer) {
+        mAnalyzer = analyzer;
+    }
+
+    /**
+     * Sets the color of the quadrilaterals returned by the analyzer
+     * @param color
+     */
+    public void setOverlayColor(int color) {
+        mOverlayPaint.setColor(color);
+    }
+
     public void setCvCameraViewListener(CvCameraViewListener listener) {
         CvCameraViewListenerAdapter adapter = new CvCameraViewListenerAdapter(listener);
         adapter.setFrameFormat(mPreviewFormat);
@@ -364,23 +434,116 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             });
             ad.show();
 
+        } else {
+            startAnalysis();
         }
     }
 
     private void onExitStartedState() {
         disconnectCamera();
+        stopAnalysis();
         if (mCacheBitmap != null) {
             mCacheBitmap.recycle();
         }
     }
 
+    private void startAnalysis() {
+        if (mAnalyzer == null)
+            return;
+
+        Log.d(TAG, "Starting analysis thread");
+        mAnalysisFrame = new Mat();
+        mAnalysisState.set(ANALYSIS_IDLE);
+        mOverlayQuads = null;
+        mStopAnalysis = false;
+        mAnalysisThread = new Thread(new AnalysisWorker(mAnalyzer), "CameraAnalysis");
+        mAnalysisThread.start();
+    }
+
+    private void stopAnalysis() {
+        Thread thread = mAnalysisThread;
+        if (thread == null)
+            return;
+
+        Log.d(TAG, "Waiting for analysis thread");
+        mStopAnalysis = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            mAnalysisThread = null;
+        }
+        mAnalysisFrame.release();
+        mOverlayQuads = null;
+    }
+
+    /**
+     * Hands a copy of the frame to the analysis thread unless it is still busy with a previous one.
+     * Called on the thread that delivers frames.
+     */
+    private void submitForAnalysis(CvCameraViewFrame frame, long captureNanos) {
+        Thread thread = mAnalysisThread;
+        if (thread == null || !mAnalysisState.compareAndSet(ANALYSIS_IDLE, ANALYSIS_FILLING))
+            return;
+
+        frame.rgba().copyTo(mAnalysisFrame);
+        mAnalysisCaptureNanos = captureNanos;
+        mAnalysisState.set(ANALYSIS_READY);
+        LockSupport.unpark(thread);
+    }
+
+    private class AnalysisWorker implements Runnable {
+        private final CvCameraViewAnalyzer mWorkerAnalyzer;
+
+        public AnalysisWorker(CvCameraViewAnalyzer analyzer) {
+            mWorkerAnalyzer = analyzer;
+        }
+
+        public void run() {
+            do {
+                if (mAnalysisState.get() != ANALYSIS_READY) {
+                    /* May return spuriously, the loop checks again */
+                    LockSupport.park(CameraBridgeViewBase.this);
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    mOverlayQuads = mWorkerAnalyzer.analyzeFrame(mAnalysisFrame);
+                    mOverlayCaptureNanos = mAnalysisCaptureNanos;
+                    mOverlaySequence++;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Frame analysis failed", e);
+                }
+                FpsMeter fpsMeter = mFpsMeter;
+                if (fpsMeter != null)
+                    fpsMeter.recordAnalysisLatency(System.nanoTime() - start);
+                mAnalysisState.set(ANALYSIS_IDLE);
+            } while (!mStopAnalysis);
+            Log.d(TAG, "Finish analysis thread");
+        }
+    }
+
     /**
      * This method shall be called by the subclasses when they have valid
      * object and want it to be delivered to external client (via callback) and
      * then displayed on the screen.
+     * When an analyzer is set, the frame is also handed to the analysis thread if it is idle
+     * and the latest analysis result is drawn over the preview. Analysis never delays drawing.
      * @param frame - the current frame to be delivered
      */
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
+        deliverAndDrawFrame(frame, System.nanoTime());
+    }
+
+    /**
+     * Same as deliverAndDrawFrame(frame) for subclasses that know when the frame was captured.
+     * @param frame - the current frame to be delivered
+     * @param captureNanos - System.nanoTime() when the frame was received from the camera
+     */
+    protected void deliverAndDrawFrame(CvCameraViewFrame frame, long captureNanos) {
         Mat modified;
 
         if (mListener != null) {
@@ -389,6 +552,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             modified = frame.rgba();
         }
 
+        submitForAnalysis(frame, captureNanos);
+
         boolean bmpValid = true;
         if (modified != null) {
             try {
@@ -405,27 +570,53 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             Canvas canvas = getHolder().lockCanvas();
             if (canvas != null) {
                 canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
-                Log.d(TAG, "mStretch value: " + mScale);
 
+                mSrcRect.set(0, 0, mCacheBitmap.getWidth(), mCacheBitmap.getHeight());
                 if (mScale != 0) {
-                    canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
+                    mDstRect.set((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
                          (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2),
                          (int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2 + mScale*mCacheBitmap.getWidth()),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight())), null);
+                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight()));
                 } else {
-                     canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
+                    mDstRect.set((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
                          (canvas.getHeight() - mCacheBitmap.getHeight()) / 2,
                          (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
+                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight());
                 }
+                canvas.drawBitmap(mCacheBitmap, mSrcRect, mDstRect, null);
+
+                int overlaySequence = mOverlaySequence;
+                float[] quads = mOverlayQuads;
+                if (quads != null)
+                    drawOverlay(canvas, quads);
 
-                if (mFpsMeter != null) {
-                    mFpsMeter.measure();
-                    mFpsMeter.draw(canvas, 20, 30);
+                FpsMeter fpsMeter = mFpsMeter;
+                if (fpsMeter != null) {
+                    fpsMeter.measure();
+                    fpsMeter.draw(canvas, 20, 30);
                 }
                 getHolder().unlockCanvasAndPost(canvas);
+
+                if (overlaySequence != mDrawnOverlaySequence) {
+                    mDrawnOverlaySequence = overlaySequence;
+                    if (fpsMeter != null)
+                        fpsMeter.recordEndToEndLatency(System.nanoTime() - mOverlayCaptureNanos);
+                }
+            }
+        }
+    }
+
+    /* Maps the quads from frame coordinates to the rectangle the preview was drawn to */
+    private void drawOverlay(Canvas canvas, float[] quads) {
+        float scaleX = (float) mDstRect.width() / mFrameWidth;
+        float scaleY = (float) mDstRect.height() / mFrameHeight;
+
+        for (int q = 0; q + 8 <= quads.length; q += 8) {
+            for (int i = 0; i < 4; i++) {
+                int from = q + i * 2;
+                int to = q + ((i + 1) % 4) * 2;
+                canvas.drawLine(mDstRect.left + quads[from] * scaleX, mDstRect.top + quads[from + 1] * scaleY,
+                        mDstRect.left + quads[to] * scaleX, mDstRect.top + quads[to + 1] * scaleY, mOverlayPaint);
             }
         }
     }
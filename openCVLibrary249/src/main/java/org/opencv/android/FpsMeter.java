@@ -18,6 +18,11 @@ public class FpsMeter {
     private double              mFrequency;
     private long                mprevFrameTime;
     private String              mStrfps;
+    private String              mStrLatency;
+    private long                mPrevFrameNanos;
+    private final LatencyHistogram mFrameIntervals = new LatencyHistogram();
+    private final LatencyHistogram mAnalysisLatencies = new LatencyHistogram();
+    private final LatencyHistogram mEndToEndLatencies = new LatencyHistogram();
     Paint                       mPaint;
     boolean                     mIsInitialized = false;
     int                         mWidth = 0;
@@ -28,6 +33,8 @@ public class FpsMeter {
         mFrequency = Core.getTickFrequency();
         mprevFrameTime = Core.getTickCount();
         mStrfps = "";
+        mStrLatency = "";
+        mPrevFrameNanos = System.nanoTime();
 
         mPaint = new Paint();
         mPaint.setColor(Color.BLUE);
@@ -39,6 +46,10 @@ public class FpsMeter {
             init();
             mIsInitialized = true;
         } else {
+            long now = System.nanoTime();
+            mFrameIntervals.record(now - mPrevFrameNanos);
+            mPrevFrameNanos = now;
+
             mFramesCouner++;
             if (mFramesCouner % STEP == 0) {
                 long time = Core.getTickCount();
@@ -48,11 +59,60 @@ public class FpsMeter {
                     mStrfps = FPS_FORMAT.format(fps) + " FPS@" + Integer.valueOf(mWidth) + "x" + Integer.valueOf(mHeight);
                 else
                     mStrfps = FPS_FORMAT.format(fps) + " FPS";
-                Log.i(TAG, mStrfps);
+                mStrLatency = "frame " + formatPercentiles(mFrameIntervals);
+                Log.i(TAG, mStrfps + ", " + mStrLatency);
             }
         }
     }
 
+    /**
+     * Records the time the analysis of one frame took. May be called on the analysis thread.
+     */
+    public void recordAnalysisLatency(long nanos) {
+        mAnalysisLatencies.record(nanos);
+    }
+
+    /**
+     * Records the time from the capture of a frame to the first display of its analysis result.
+     */
+    public void recordEndToEndLatency(long nanos) {
+        mEndToEndLatencies.record(nanos);
+    }
+
+    public LatencyHistogram getFrameIntervals() {
+        return mFrameIntervals;
+    }
+
+    public LatencyHistogram getAnalysisLatencies() {
+        return mAnalysisLatencies;
+    }
+
+    public LatencyHistogram getEndToEndLatencies() {
+        return mEndToEndLatencies;
+    }
+
+    public void resetHistograms() {
+        mFrameIntervals.reset();
+        mAnalysisLatencies.reset();
+        mEndToEndLatencies.reset();
+    }
+
+    /**
+     * Returns p50/p95/p99/max of the frame interval, analysis and end-to-end latency histograms
+     */
+    public String report() {
+        return "frame " + formatPercentiles(mFrameIntervals) +
+                "\nanalysis " + formatPercentiles(mAnalysisLatencies) +
+                "\nend-to-end " + formatPercentiles(mEndToEndLatencies);
+    }
+
+    private static String formatPercentiles(LatencyHistogram histogram) {
+        return "p50 " + FPS_FORMAT.format(histogram.getPercentileNanos(50) / 1e6) +
+                " p95 " + FPS_FORMAT.format(histogram.getPercentileNanos(95) / 1e6) +
+                " p99 " + FPS_FORMAT.format(histogram.getPercentileNanos(99) / 1e6) +
+                " max " + FPS_FORMAT.format(histogram.getMaxNanos() / 1e6) + " ms";
+    }
+
     public void setResolution(int width, int height) {
         mWidth = width;
         mHeight = height;
@@ -61,6 +121,7 @@ public class FpsMeter {
     public void draw(Canvas canvas, float offsetx, float offsety) {
         Log.d(TAG, mStrfps);
         canvas.drawText(mStrfps, offsetx, offsety, mPaint);
+        canvas.drawText(mStrLatency, offsetx, offsety + mPaint.getTextSize(), mPaint);
     }
 
 }
@@ -1,6 +1,8 @@
 package org.opencv.android;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -31,11 +33,30 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
-    private byte mBuffer[];
+    /* Number of buffers queued to Camera.addCallbackBuffer */
+    private static final int CALLBACK_BUFFER_COUNT = 3;
+
+    /* Frames are handed over to the worker through three Mats without locking:
+     * the camera thread owns mWriteIdx, the worker owns mReadIdx and the third Mat
+     * holds the newest complete frame. Its index and whether it is fresh are packed
+     * in mReadyIdx and exchanged atomically. */
+    private static final int FRAME_CHAIN_SIZE = 3;
+    private static final int FRESH_FRAME = 0x4;
+    private static final int FRAME_INDEX_MASK = 0x3;
+
+    private byte mBuffers[][];
     private Mat[] mFrameChain;
-    private int mChainIdx = 0;
-    private Thread mThread;
-    private boolean mStopThread;
+    /* System.nanoTime() when the frame in each Mat of the chain was received */
+    private long[] mFrameTimestamps;
+    private int mWriteIdx;
+    private int mReadIdx;
+    private final AtomicInteger mReadyIdx = new AtomicInteger();
+    private volatile Thread mThread;
+    private volatile boolean mStopThread;
+
+    /* Each counter is written by a single thread */
+    private volatile long mFramesDropped;
+    private volatile long mFramesProcessed;
 
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
@@ -172,21 +193,28 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
-
-                    mCamera.addCallbackBuffer(mBuffer);
+                    mBuffers = new byte[CALLBACK_BUFFER_COUNT][];
+                    for (int i = 0; i < CALLBACK_BUFFER_COUNT; i++) {
+                        mBuffers[i] = new byte[size];
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                    }
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    mFrameChain = new Mat[FRAME_CHAIN_SIZE];
+                    mFrameTimestamps = new long[FRAME_CHAIN_SIZE];
+                    mCameraFrame = new JavaCameraFrame[FRAME_CHAIN_SIZE];
+                    for (int i = 0; i < FRAME_CHAIN_SIZE; i++) {
+                        mFrameChain[i] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                        mCameraFrame[i] = new JavaCameraFrame(mFrameChain[i], mFrameWidth, mFrameHeight);
+                    }
+                    mWriteIdx = 0;
+                    mReadyIdx.set(1);
+                    mReadIdx = 2;
+                    mFramesDropped = 0;
+                    mFramesProcessed = 0;
 
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
-
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
                         mCamera.setPreviewTexture(mSurfaceTexture);
@@ -218,12 +246,12 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             }
             mCamera = null;
             if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+                for (Mat frame : mFrameChain)
+                    frame.release();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (JavaCameraFrame frame : mCameraFrame)
+                    frame.release();
             }
         }
     }
@@ -256,12 +284,11 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
-            Log.d(TAG, "Wating for thread");
-            if (mThread != null)
+            if (mThread != null) {
+                LockSupport.unpark(mThread);
+                Log.d(TAG, "Wating for thread");
                 mThread.join();
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
@@ -272,40 +299,122 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         releaseCamera();
     }
 
+    /**
+     * Returns the number of preview frames that were replaced by a newer frame
+     * before the worker thread picked them up.
+     */
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    /**
+     * Returns the number of preview frames delivered to the listener.
+     */
+    public long getFramesProcessed() {
+        return mFramesProcessed;
+    }
+
     public void onPreviewFrame(byte[] frame, Camera arg1) {
-        Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[1 - mChainIdx].put(0, 0, frame);
-            this.notify();
-        }
+        /* Never blocks: the frame is copied into the Mat owned by this thread which is
+         * then swapped with the ready one. A ready frame that was not taken yet is dropped. */
+        mFrameTimestamps[mWriteIdx] = System.nanoTime();
+        mFrameChain[mWriteIdx].put(0, 0, frame);
+        int previous = mReadyIdx.getAndSet(mWriteIdx | FRESH_FRAME);
+        mWriteIdx = previous & FRAME_INDEX_MASK;
+        if ((previous & FRESH_FRAME) != 0)
+            mFramesDropped++;
+
+        Thread worker = mThread;
+        if (worker != null)
+            LockSupport.unpark(worker);
+
         if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+            mCamera.addCallbackBuffer(frame);
     }
 
+    /**
+     * Converts on first access and keeps the result until the next frame is written to
+     * the same buffer, so every listener of a frame shares a single conversion.
+     */
     private class JavaCameraFrame implements CvCameraViewFrame {
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
         }
 
         public Mat rgba() {
-            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            if (!mRgbaValid) {
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                mRgbaValid = true;
+            }
             return mRgba;
         }
 
+        public Mat rgbaHalf() {
+            if (!mRgbaHalfValid) {
+                if (mRgbaValid || mHalfYuv == null) {
+                    Imgproc.resize(rgba(), mRgbaHalf, new Size(mWidth / 2, mHeight / 2), 0, 0, Imgproc.INTER_AREA);
+                } else {
+                    /* Downscale the luma and the interleaved chroma planes separately and
+                     * convert a quarter of the pixels */
+                    Imgproc.resize(mGray, mHalfY, mHalfY.size(), 0, 0, Imgproc.INTER_AREA);
+                    Imgproc.resize(mUv, mHalfUv, mHalfUv.size(), 0, 0, Imgproc.INTER_AREA);
+                    Imgproc.cvtColor(mHalfYuv, mRgbaHalf, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                }
+                mRgbaHalfValid = true;
+            }
+            return mRgbaHalf;
+        }
+
+        /**
+         * Must be called whenever new data is written to the YUV Mat of this frame.
+         */
+        public void invalidate() {
+            mRgbaValid = false;
+            mRgbaHalfValid = false;
+        }
+
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
             mRgba = new Mat();
+            mRgbaHalf = new Mat();
+
+            /* The half size NV21 layout needs both dimensions of the frame to be multiples of 4 */
+            if (width % 4 == 0 && height % 4 == 0) {
+                mUv = mYuvFrameData.submat(mHeight, mHeight + mHeight / 2, 0, mWidth).reshape(2);
+                mHalfYuv = new Mat(mHeight / 2 + mHeight / 4, mWidth / 2, CvType.CV_8UC1);
+                mHalfY = mHalfYuv.submat(0, mHeight / 2, 0, mWidth / 2);
+                mHalfUv = mHalfYuv.submat(mHeight / 2, mHeight / 2 + mHeight / 4, 0, mWidth / 2).reshape(2);
+            }
         }
 
         public void release() {
+            mGray.release();
             mRgba.release();
+            mRgbaHalf.release();
+            if (mHalfYuv != null) {
+                mUv.release();
+                mHalfY.release();
+                mHalfUv.release();
+                mHalfYuv.release();
+            }
+            invalidate();
         }
 
         private Mat mYuvFrameData;
+        private Mat mGray;
         private Mat mRgba;
+        private Mat mRgbaHalf;
+        private boolean mRgbaValid;
+        private boolean mRgbaHalfValid;
+        /* Views of the full and half size NV21 data, null if the frame size does not allow it */
+        private Mat mUv;
+        private Mat mHalfYuv;
+        private Mat mHalfY;
+        private Mat mHalfUv;
         private int mWidth;
         private int mHeight;
     };
@@ -314,19 +423,18 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         public void run() {
             do {
-                synchronized (JavaCameraView.this) {
-                    try {
-                        JavaCameraView.this.wait();
-                    } catch (InterruptedException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
+                if ((mReadyIdx.get() & FRESH_FRAME) == 0) {
+                    /* May return spuriously, the loop checks again */
+                    LockSupport.park(JavaCameraView.this);
+                    continue;
                 }
 
-                if (!mStopThread) {
-                    if (!mFrameChain[mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[mChainIdx]);
-                    mChainIdx = 1 - mChainIdx;
+                /* Take the newest complete frame and give back the one just processed */
+                mReadIdx = mReadyIdx.getAndSet(mReadIdx) & FRAME_INDEX_MASK;
+                mCameraFrame[mReadIdx].invalidate();
+                if (!mFrameChain[mReadIdx].empty()) {
+                    deliverAndDrawFrame(mCameraFrame[mReadIdx], mFrameTimestamps[mReadIdx]);
+                    mFramesProcessed++;
                 }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
@@ -0,0 +1,82 @@
+package org.opencv.android;
+
+/**
+ * Fixed-bucket histogram of durations, used by FpsMeter.
+ * Values are kept in microseconds with 32 linear sub-buckets per power of two, so every
+ * recorded value is off by less than 3.2% and the memory use does not depend on the range.
+ * Recording does not allocate and takes no lock. Each histogram must have a single writer,
+ * readers on other threads may see a slightly stale state.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final long[] mCounts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT];
+    private volatile long mTotalCount;
+    private volatile long mMaxMicros;
+
+    /**
+     * Adds one duration to the histogram
+     * @param nanos - the duration in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        mCounts[indexOf(micros)]++;
+        if (micros > mMaxMicros)
+            mMaxMicros = micros;
+        mTotalCount++;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++)
+            mCounts[i] = 0;
+        mMaxMicros = 0;
+        mTotalCount = 0;
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    public long getMaxNanos() {
+        return mMaxMicros * 1000;
+    }
+
+    /**
+     * Returns the smallest duration that is greater than or equal to the given percentage of the
+     * recorded ones, rounded up to the bucket boundary, or 0 if nothing was recorded
+     * @param percentile - from 0 to 100
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = 0;
+        for (long count : mCounts)
+            total += count;
+        if (total == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target)
+                return Math.min(highestValueAt(i), mMaxMicros) * 1000;
+        }
+        return mMaxMicros * 1000;
+    }
+
+    /* Values below SUB_BUCKET_COUNT get a bucket each, above that the top bits select the bucket */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT)
+            return index;
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
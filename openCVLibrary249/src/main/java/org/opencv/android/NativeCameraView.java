@@ -4,6 +4,7 @@ import org.opencv.core.Mat;
 import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
 import org.opencv.highgui.VideoCapture;
+import org.opencv.imgproc.Imgproc;
 
 import android.content.Context;
 import android.util.AttributeSet;
@@ -149,19 +150,29 @@ public class NativeCameraView extends CameraBridgeViewBase {
             return mGray;
         }
 
+        @Override
+        public Mat rgbaHalf() {
+            Mat rgba = rgba();
+            Imgproc.resize(rgba, mRgbaHalf, new Size(rgba.cols() / 2, rgba.rows() / 2), 0, 0, Imgproc.INTER_AREA);
+            return mRgbaHalf;
+        }
+
         public NativeCameraFrame(VideoCapture capture) {
             mCapture = capture;
             mGray = new Mat();
             mRgba = new Mat();
+            mRgbaHalf = new Mat();
         }
 
         public void release() {
             if (mGray != null) mGray.release();
             if (mRgba != null) mRgba.release();
+            if (mRgbaHalf != null) mRgbaHalf.release();
         }
 
         private VideoCapture mCapture;
         private Mat mRgba;
+        private Mat mRgbaHalf;
         private Mat mGray;
     };
 
@@ -0,0 +1,138 @@
+package org.opencv.core;
+
+/**
+ * Contours packed into flat int arrays, filled by
+ * {@link org.opencv.imgproc.Imgproc#findContours(Mat, ContourBuffer, int, int)}.
+ *
+ * <p>All points of all contours are stored in one array as x0, y0, x1, y1, ...
+ * Contour <code>i</code> starts at <code>getOffsets()[i]</code> in that array and has
+ * <code>getLengths()[i]</code> points. The hierarchy holds four ints per contour:
+ * next, previous, first child and parent, as in the hierarchy Mat of findContours.</p>
+ *
+ * <p>The arrays grow as needed and are reused across calls, so a buffer that is kept
+ * around does not allocate in steady state. They may be longer than the data.</p>
+ */
+public class ContourBuffer {
+
+    private int size = 0;
+    private int totalPoints = 0;
+    private int[] points = new int[4096];
+    private int[] offsets = new int[256];
+    private int[] lengths = new int[256];
+    private int[] hierarchy = new int[256 * 4];
+
+    // Native contour addresses, two ints each.
+    private int[] addresses = new int[256 * 2];
+    // Native copies always start at index 0.
+    private int[] scratch = new int[1024];
+    private float[] floatScratch = new float[1024];
+
+    /**
+     * Returns the number of contours.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of points of all contours.
+     */
+    public int totalPoints() {
+        return totalPoints;
+    }
+
+    public int[] getPoints() {
+        return points;
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getLengths() {
+        return lengths;
+    }
+
+    public int[] getHierarchy() {
+        return hierarchy;
+    }
+
+    public void clear() {
+        size = 0;
+        totalPoints = 0;
+    }
+
+    /**
+     * Copies contour <code>index</code> into <code>dst</code> as floats, e.g. for
+     * Imgproc.approxPolyDP.
+     */
+    public void copyTo(int index, MatOfPoint2f dst) {
+        int length = lengths[index] * 2;
+        if (floatScratch.length < length)
+            floatScratch = new float[grow(floatScratch.length, length)];
+        int offset = offsets[index];
+        for (int i = 0; i < length; i++)
+            floatScratch[i] = points[offset + i];
+        dst.fromArray(floatScratch, 0, lengths[index]);
+    }
+
+    /**
+     * Replaces the content with the output of the native findContours: a CV_32SC2 Mat
+     * of contour addresses and a CV_32SC4 hierarchy Mat. The native contours are read
+     * and deleted without wrapping them in Java objects.
+     */
+    public void load(Mat contoursMat, Mat hierarchyMat) {
+        clear();
+        int count = contoursMat.rows();
+        if (count == 0)
+            return;
+        if (CvType.CV_32SC2 != contoursMat.type() || contoursMat.cols() != 1)
+            throw new IllegalArgumentException("CvType.CV_32SC2 != m.type() ||  m.cols()!=1\n" + contoursMat);
+
+        if (addresses.length < count * 2)
+            addresses = new int[grow(addresses.length, count * 2)];
+        contoursMat.getRaw(0, 0, addresses, count * 2);
+
+        if (offsets.length < count) {
+            offsets = new int[grow(offsets.length, count)];
+            lengths = new int[offsets.length];
+        }
+
+        for (int i = 0; i < count; i++) {
+            long addr = (((long) addresses[i * 2]) << 32) | (((long) addresses[i * 2 + 1]) & 0xffffffffL);
+            int length = (int) Mat.nativeTotal(addr) * 2;
+
+            if (scratch.length < length)
+                scratch = new int[grow(scratch.length, length)];
+            if (points.length < totalPoints * 2 + length) {
+                int[] grown = new int[grow(points.length, totalPoints * 2 + length)];
+                System.arraycopy(points, 0, grown, 0, totalPoints * 2);
+                points = grown;
+            }
+
+            if (length > 0)
+                Mat.nativeGet(addr, scratch, length);
+            Mat.nativeDelete(addr);
+
+            System.arraycopy(scratch, 0, points, totalPoints * 2, length);
+            offsets[i] = totalPoints * 2;
+            lengths[i] = length / 2;
+            totalPoints += length / 2;
+        }
+
+        if (hierarchy.length < count * 4)
+            hierarchy = new int[grow(hierarchy.length, count * 4)];
+        if (!hierarchyMat.empty())
+            hierarchyMat.getRaw(0, 0, hierarchy, count * 4);
+
+        size = count;
+    }
+
+    // Keeps lengths even so that 2- and 4-channel native copies accept them.
+    private static int grow(int current, int required) {
+        int length = Math.max(current, 4);
+        while (length < required)
+            length *= 2;
+        return length;
+    }
+}
@@ -414,7 +414,7 @@ package org.opencv.core;
  *
  * @see <a href="http://docs.opencv.org/modules/core/doc/basic_structures.html#mat">org.opencv.core.Mat</a>
  */
-public class Mat {
+public class Mat implements java.io.Closeable {
 
     public final long nativeObj;
 
@@ -423,6 +423,8 @@ public class Mat {
         if (addr == 0)
             throw new java.lang.UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
     }
 
     //
@@ -445,6 +447,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat();
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
 
         return;
     }
@@ -475,6 +479,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type);
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
 
         return;
     }
@@ -506,6 +512,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type);
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
 
         return;
     }
@@ -539,6 +547,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
 
         return;
     }
@@ -573,6 +583,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
 
         return;
     }
@@ -610,6 +622,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
 
         return;
     }
@@ -641,6 +655,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
 
         return;
     }
@@ -674,6 +690,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+        MatReclaimer.register(this);
+        MatTracker.onAllocate(this);
 
         return;
     }
@@ -1890,6 +1908,7 @@ public class Mat {
     public void release()
     {
 
+        MatTracker.onRelease(this);
         n_release(nativeObj);
 
         return;
@@ -2470,10 +2489,17 @@ public class Mat {
         return retVal;
     }
 
+/**
+ * <p>Releases the matrix data so that Mats can be scoped with try-with-resources.</p>
+ *
+ * <p>Equivalent to "Mat.release". Calling it more than once is safe. The header
+ * itself is deleted once the Mat becomes unreachable, so the Mat must not be used
+ * for anything but another <code>release()</code> afterwards.</p>
+ */
     @Override
-    protected void finalize() throws Throwable {
-        n_delete(nativeObj);
-        super.finalize();
+    public void close()
+    {
+        release();
     }
 
     @Override
@@ -2486,6 +2512,26 @@ public class Mat {
                 " ]";
     }
 
+    // Deletes the native object at addr. Used by MatReclaimer in place of finalize().
+    static void nativeDelete(long addr) {
+        n_delete(addr);
+    }
+
+    // Number of elements of the native object at addr. Used by ContourBuffer.
+    static long nativeTotal(long addr) {
+        return n_total(addr);
+    }
+
+    // Copies count ints from the native object at addr. Used by ContourBuffer.
+    static int nativeGet(long addr, int[] data, int count) {
+        return nGetI(addr, 0, 0, count, data);
+    }
+
+    // Bytes held by the native object at addr. Used by MatTracker.
+    static long nativeBytes(long addr) {
+        return n_total(addr) * n_elemSize(addr);
+    }
+
     public String dump() {
         return nDump(nativeObj);
     }
@@ -2529,6 +2575,24 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // Copies count elements from the beginning of data. Unlike put(), data may be longer than count.
+    int putRaw(int row, int col, float[] data, int count) {
+        return nPutF(nativeObj, row, col, count, data);
+    }
+
+    int putRaw(int row, int col, int[] data, int count) {
+        return nPutI(nativeObj, row, col, count, data);
+    }
+
+    // Copies count elements to the beginning of data. Unlike get(), data may be longer than count.
+    int getRaw(int row, int col, float[] data, int count) {
+        return nGetF(nativeObj, row, col, count, data);
+    }
+
+    int getRaw(int row, int col, int[] data, int count) {
+        return nGetI(nativeObj, row, col, count, data);
+    }
+
     public int put(int row, int col, short[] data) {
         int t = type();
         if (data == null || data.length % CvType.channels(t) != 0)
@@ -2835,7 +2899,7 @@ public class Mat {
     // C++: static Mat Mat::zeros(Size size, int type)
     private static native long n_zeros(double size_width, double size_height, int type);
 
-    // native support for java finalize()
+    // native support for MatReclaimer
     private static native void n_delete(long nativeObj);
 
     private static native int nPutD(long self, int row, int col, int count, double[] data);
@@ -66,6 +66,68 @@ public class MatOfPoint2f extends Mat {
         return ap;
     }
 
+    /**
+     * Returns the number of points without reading them.
+     */
+    public int vertexCount() {
+        return (int) total();
+    }
+
+    /**
+     * Copies all points into dst as x0, y0, x1, y1, ... starting at offset,
+     * without creating Point objects.
+     *
+     * @return the number of points copied.
+     */
+    public int toArray(float[] dst, int offset) {
+        int num = vertexCount();
+        int length = num * _channels;
+        if(offset < 0 || dst.length - offset < length)
+            throw new IllegalArgumentException("Buffer too small for " + num + " points");
+        if(num == 0)
+            return 0;
+        if(offset == 0) {
+            getRaw(0, 0, dst, length);
+        } else {
+            float[] buff = scratch(length);
+            getRaw(0, 0, buff, length);
+            System.arraycopy(buff, 0, dst, offset, length);
+        }
+        return num;
+    }
+
+    /**
+     * Replaces the content with count points read from src as x0, y0, x1, y1, ...
+     * starting at offset, without creating Point objects.
+     */
+    public void fromArray(float[] src, int offset, int count) {
+        int length = count * _channels;
+        if(offset < 0 || count < 0 || src.length - offset < length)
+            throw new IllegalArgumentException("Buffer too small for " + count + " points");
+        super.create(count, 1, CvType.makeType(_depth, _channels));
+        if(count == 0)
+            return;
+        if(offset == 0) {
+            putRaw(0, 0, src, length);
+        } else {
+            float[] buff = scratch(length);
+            System.arraycopy(src, offset, buff, 0, length);
+            putRaw(0, 0, buff, length);
+        }
+    }
+
+    // Native copies always start at index 0, so offsets go through a per-thread buffer.
+    private static final ThreadLocal<float[]> scratchBuffer = new ThreadLocal<float[]>();
+
+    private static float[] scratch(int length) {
+        float[] buff = scratchBuffer.get();
+        if(buff == null || buff.length < length) {
+            buff = new float[Math.max(length, buff == null ? 64 : buff.length * 2)];
+            scratchBuffer.set(buff);
+        }
+        return buff;
+    }
+
     public void fromList(List<Point> lp) {
         Point ap[] = lp.toArray(new Point[0]);
         fromArray(ap);
@@ -0,0 +1,78 @@
+package org.opencv.core;
+
+import android.util.Log;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deletes the native objects of unreachable {@link Mat}s on a daemon thread.
+ *
+ * <p>This replaces <code>Mat.finalize()</code>. Phantom references do not resurrect the Mat,
+ * do not go through the finalizer queue and are processed as soon as the garbage collector
+ * enqueues them. Pixel data should still be freed eagerly with {@link Mat#release()} or
+ * {@link Mat#close()}; this thread only deletes the remaining headers and whatever was left
+ * behind.</p>
+ */
+final class MatReclaimer {
+
+    private static final String TAG = "MatReclaimer";
+
+    private static final ReferenceQueue<Mat> queue = new ReferenceQueue<Mat>();
+    // Keeps the references reachable until they are enqueued.
+    private static final Set<MatReference> references =
+            Collections.newSetFromMap(new ConcurrentHashMap<MatReference, Boolean>());
+
+    static {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reclaimLoop();
+            }
+        }, "MatReclaimer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private MatReclaimer() {
+    }
+
+    static void register(Mat mat) {
+        references.add(new MatReference(mat, queue));
+    }
+
+    private static void reclaimLoop() {
+        while (true) {
+            try {
+                reclaim(queue.remove());
+            } catch (InterruptedException e) {
+                // Keep reclaiming. This thread lives as long as the process.
+            } catch (Throwable t) {
+                // A failure on one object must not stop the reclamation of the others.
+                Log.e(TAG, "Failed to reclaim a Mat", t);
+            }
+        }
+    }
+
+    private static void reclaim(Reference<? extends Mat> reference) {
+        MatReference matReference = (MatReference) reference;
+        // Each reference is enqueued only once, but be defensive about double deletion.
+        if (!references.remove(matReference))
+            return;
+        MatTracker.onReclaim(matReference.addr);
+        Mat.nativeDelete(matReference.addr);
+    }
+
+    private static class MatReference extends PhantomReference<Mat> {
+        final long addr;
+
+        MatReference(Mat mat, ReferenceQueue<Mat> queue) {
+            super(mat, queue);
+            this.addr = mat.nativeObj;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in tracker of native memory held by {@link Mat} objects.
+ *
+ * <p>When enabled, every Mat created afterwards is recorded together with the call site that
+ * created it. Byte counts are <code>total() * elemSize()</code> read from the native object,
+ * refreshed on {@link Mat#release()}, on reclamation and on every {@link #snapshot()}, so the
+ * peak is sampled at those points only.</p>
+ *
+ * <p>Mats that hold data when they are reclaimed by {@link MatReclaimer} without an explicit
+ * <code>release()</code> or <code>close()</code> are reported as leaks.</p>
+ *
+ * <p>Tracking records a stack trace per allocation. Keep it disabled in production.</p>
+ */
+public final class MatTracker {
+
+    private static final int MAX_LEAK_RECORDS = 256;
+
+    private static volatile boolean enabled = false;
+    // Whether anything was recorded since the last reset. Releases and reclamations must update the
+    // records even after tracking is disabled, or reclaimed addresses stay in the live map.
+    private static volatile boolean recorded = false;
+
+    private static final Object lock = new Object();
+    private static final Map<Long, Record> live = new HashMap<Long, Record>();
+    private static final List<Record> leaks = new ArrayList<Record>();
+    // Sum of the last seen byte counts of the live records.
+    private static long liveBytes = 0;
+    private static long peakBytes = 0;
+    private static long leakedCount = 0;
+    private static long leakedBytes = 0;
+
+    private MatTracker() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops tracking. Mats created while tracking is disabled are never tracked. Mats
+     * tracked before keep being followed until they are reclaimed or {@link #reset()} is called.
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Forgets all records, leaks and the peak.
+     */
+    public static void reset() {
+        synchronized (lock) {
+            recorded = false;
+            live.clear();
+            leaks.clear();
+            liveBytes = 0;
+            peakBytes = 0;
+            leakedCount = 0;
+            leakedBytes = 0;
+        }
+    }
+
+    static void onAllocate(Mat mat) {
+        if (!enabled)
+            return;
+        Record record = new Record(mat.nativeObj, findCallSite(new Throwable().getStackTrace()));
+        synchronized (lock) {
+            recorded = true;
+            live.put(record.addr, record);
+            updateBytes(record, Mat.nativeBytes(record.addr));
+        }
+    }
+
+    static void onRelease(Mat mat) {
+        if (!recorded)
+            return;
+        synchronized (lock) {
+            Record record = live.get(mat.nativeObj);
+            if (record == null)
+                return;
+            updateBytes(record, Mat.nativeBytes(record.addr));
+            updateBytes(record, 0);
+            record.released = true;
+        }
+    }
+
+    // Called right before the native object is deleted.
+    static void onReclaim(long addr) {
+        if (!recorded)
+            return;
+        synchronized (lock) {
+            Record record = live.remove(addr);
+            if (record == null)
+                return;
+            long bytes = Mat.nativeBytes(addr);
+            liveBytes -= record.bytes;
+            record.bytes = bytes;
+            if (!record.released && bytes > 0) {
+                leakedCount++;
+                leakedBytes += bytes;
+                if (leaks.size() >= MAX_LEAK_RECORDS)
+                    leaks.remove(0);
+                leaks.add(record);
+            }
+        }
+    }
+
+    // Must be called with the lock held.
+    private static void updateBytes(Record record, long bytes) {
+        liveBytes += bytes - record.bytes;
+        record.bytes = bytes;
+        if (liveBytes > peakBytes)
+            peakBytes = liveBytes;
+    }
+
+    private static String findCallSite(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            if (!element.getClassName().startsWith("org.opencv."))
+                return element.toString();
+        }
+        return stack.length > 0 ? stack[stack.length - 1].toString() : "unknown";
+    }
+
+    /**
+     * Takes a consistent view of the tracked Mats, refreshing the byte count of each of them.
+     */
+    public static Snapshot snapshot() {
+        synchronized (lock) {
+            Map<String, long[]> sites = new LinkedHashMap<String, long[]>();
+            for (Record record : live.values()) {
+                if (!record.released)
+                    updateBytes(record, Mat.nativeBytes(record.addr));
+                long[] site = sites.get(record.callSite);
+                if (site == null) {
+                    site = new long[2];
+                    sites.put(record.callSite, site);
+                }
+                site[0]++;
+                site[1] += record.bytes;
+            }
+
+            List<String> leakSites = new ArrayList<String>(leaks.size());
+            for (Record record : leaks)
+                leakSites.add(record.bytes + " bytes from " + record.callSite);
+
+            return new Snapshot(live.size(), liveBytes, peakBytes, leakedCount, leakedBytes, sites, leakSites);
+        }
+    }
+
+    private static class Record {
+        final long addr;
+        final String callSite;
+        long bytes;
+        boolean released;
+
+        Record(long addr, String callSite) {
+            this.addr = addr;
+            this.callSite = callSite;
+        }
+    }
+
+    public static class Snapshot {
+        public final int liveCount;
+        public final long liveBytes;
+        public final long peakBytes;
+        public final long leakedCount;
+        public final long leakedBytes;
+        // Call site -> {live count, live bytes}.
+        private final Map<String, long[]> liveSites;
+        // Latest leaks only. See leakedCount for the total.
+        private final List<String> leakSites;
+
+        Snapshot(int liveCount, long liveBytes, long peakBytes, long leakedCount, long leakedBytes,
+                 Map<String, long[]> liveSites, List<String> leakSites) {
+            this.liveCount = liveCount;
+            this.liveBytes = liveBytes;
+            this.peakBytes = peakBytes;
+            this.leakedCount = leakedCount;
+            this.leakedBytes = leakedBytes;
+            this.liveSites = liveSites;
+            this.leakSites = leakSites;
+        }
+
+        public String report() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("Live mats: ").append(liveCount).append(", ").append(liveBytes).append(" bytes")
+                    .append(" (peak ").append(peakBytes).append(" bytes)\n");
+            for (Map.Entry<String, long[]> entry : liveSites.entrySet()) {
+                builder.append("  ").append(entry.getValue()[0]).append(" mats, ").append(entry.getValue()[1])
+                        .append(" bytes at ").append(entry.getKey()).append('\n');
+            }
+            builder.append("Reclaimed without release(): ").append(leakedCount).append(" mats, ")
+                    .append(leakedBytes).append(" bytes\n");
+            for (String leak : leakSites)
+                builder.append("  ").append(leak).append('\n');
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return "MatTracker.Snapshot [ live=" + liveCount + ", liveBytes=" + liveBytes +
+                    ", peakBytes=" + peakBytes + ", leaked=" + leakedCount + ", leakedBytes=" + leakedBytes + " ]";
+        }
+    }
+}
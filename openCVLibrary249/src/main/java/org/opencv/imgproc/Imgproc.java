@@ -6,6 +6,7 @@ package org.opencv.imgproc;
 
 import java.util.ArrayList;
 import java.util.List;
+import org.opencv.core.ContourBuffer;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfFloat;
 import org.opencv.core.MatOfInt;
@@ -5860,6 +5861,32 @@ public class Imgproc {
         return;
     }
 
+/**
+ * <p>Finds contours in a binary image into a packed buffer.</p>
+ *
+ * <p>Same as "findContours" but the contours and the hierarchy are copied into
+ * <code>contours</code> instead of one <code>MatOfPoint</code> per contour, so no
+ * Java object is created per contour. Reuse the buffer across calls.</p>
+ *
+ * @param image Source, an 8-bit single-channel image. The function modifies the
+ * image while extracting the contours.
+ * @param contours Buffer that receives the contours and their hierarchy.
+ * @param mode Contour retrieval mode, e.g. <code>RETR_LIST</code>.
+ * @param method Contour approximation method, e.g. <code>CHAIN_APPROX_SIMPLE</code>.
+ *
+ * @see org.opencv.core.ContourBuffer
+ */
+    public static void findContours(Mat image, ContourBuffer contours, int mode, int method)
+    {
+        Mat contours_mat = new Mat();
+        Mat hierarchy = new Mat();
+        findContours_1(image.nativeObj, contours_mat.nativeObj, hierarchy.nativeObj, mode, method);
+        contours.load(contours_mat, hierarchy);
+        contours_mat.release();
+        hierarchy.release();
+        return;
+    }
+
 
     //
     // C++:  RotatedRect fitEllipse(vector_Point2f points)
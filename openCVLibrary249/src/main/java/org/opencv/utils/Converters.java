@@ -1,5 +1,9 @@
 package org.opencv.utils;
 
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,55 +36,143 @@ public class Converters {
     }
 
     public static Mat vector_Point_to_Mat(List<Point> pts, int typeDepth) {
-        Mat res;
         int count = (pts != null) ? pts.size() : 0;
-        if (count > 0) {
-            switch (typeDepth) {
-            case CvType.CV_32S: {
-                res = new Mat(count, 1, CvType.CV_32SC2);
-                int[] buff = new int[count * 2];
-                for (int i = 0; i < count; i++) {
-                    Point p = pts.get(i);
-                    buff[i * 2] = (int) p.x;
-                    buff[i * 2 + 1] = (int) p.y;
-                }
-                res.put(0, 0, buff);
-            }
-                break;
-
-            case CvType.CV_32F: {
-                res = new Mat(count, 1, CvType.CV_32FC2);
-                float[] buff = new float[count * 2];
-                for (int i = 0; i < count; i++) {
-                    Point p = pts.get(i);
-                    buff[i * 2] = (float) p.x;
-                    buff[i * 2 + 1] = (float) p.y;
-                }
-                res.put(0, 0, buff);
+        if (count == 0)
+            return new Mat();
+
+        switch (typeDepth) {
+        case CvType.CV_32S: {
+            int[] buff = new int[count * 2];
+            for (int i = 0; i < count; i++) {
+                Point p = pts.get(i);
+                buff[i * 2] = (int) p.x;
+                buff[i * 2 + 1] = (int) p.y;
             }
-                break;
-
-            case CvType.CV_64F: {
-                res = new Mat(count, 1, CvType.CV_64FC2);
-                double[] buff = new double[count * 2];
-                for (int i = 0; i < count; i++) {
-                    Point p = pts.get(i);
-                    buff[i * 2] = p.x;
-                    buff[i * 2 + 1] = p.y;
-                }
-                res.put(0, 0, buff);
+            return vector_Point_to_Mat(buff, count);
+        }
+
+        case CvType.CV_32F: {
+            float[] buff = new float[count * 2];
+            for (int i = 0; i < count; i++) {
+                Point p = pts.get(i);
+                buff[i * 2] = (float) p.x;
+                buff[i * 2 + 1] = (float) p.y;
             }
-                break;
+            return vector_Point2f_to_Mat(buff, count);
+        }
 
-            default:
-                throw new IllegalArgumentException("'typeDepth' can be CV_32S, CV_32F or CV_64F");
+        case CvType.CV_64F: {
+            double[] buff = new double[count * 2];
+            for (int i = 0; i < count; i++) {
+                Point p = pts.get(i);
+                buff[i * 2] = p.x;
+                buff[i * 2 + 1] = p.y;
             }
+            return vector_Point2d_to_Mat(buff, count);
+        }
+
+        default:
+            throw new IllegalArgumentException("'typeDepth' can be CV_32S, CV_32F or CV_64F");
+        }
+    }
+
+    // Points are packed as x0, y0, x1, y1, ... The buffers must have an even length.
+    public static Mat vector_Point_to_Mat(int[] buff, int count) {
+        Mat res = new Mat();
+        vector_Point_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_Point_to_Mat(int[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 2)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+        if (count > 0) {
+            res.create(count, 1, CvType.CV_32SC2);
+            res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
+        }
+    }
+
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_Point(Mat m, int[] buff) {
+        int count = m.rows();
+        if (CvType.CV_32SC2 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC2 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 2)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    public static Mat vector_Point2f_to_Mat(float[] buff, int count) {
+        Mat res = new Mat();
+        vector_Point2f_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_Point2f_to_Mat(float[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 2)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+        if (count > 0) {
+            res.create(count, 1, CvType.CV_32FC2);
+            res.put(0, 0, buff);
+        } else {
+            res.release();
         }
+    }
+
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_Point2f(Mat m, float[] buff) {
+        int count = m.rows();
+        if (CvType.CV_32FC2 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32FC2 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 2)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    public static Mat vector_Point2d_to_Mat(double[] buff, int count) {
+        Mat res = new Mat();
+        vector_Point2d_to_Mat(buff, count, res);
         return res;
     }
 
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_Point2d_to_Mat(double[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 2)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+        if (count > 0) {
+            res.create(count, 1, CvType.CV_64FC2);
+            res.put(0, 0, buff);
+        } else {
+            res.release();
+        }
+    }
+
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_Point2d(Mat m, double[] buff) {
+        int count = m.rows();
+        if (CvType.CV_64FC2 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_64FC2 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 2)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
     public static Mat vector_Point3i_to_Mat(List<Point3> pts) {
         return vector_Point3_to_Mat(pts, CvType.CV_32S);
     }
@@ -94,58 +186,146 @@ public class Converters {
     }
 
     public static Mat vector_Point3_to_Mat(List<Point3> pts, int typeDepth) {
-        Mat res;
         int count = (pts != null) ? pts.size() : 0;
-        if (count > 0) {
-            switch (typeDepth) {
-            case CvType.CV_32S: {
-                res = new Mat(count, 1, CvType.CV_32SC3);
-                int[] buff = new int[count * 3];
-                for (int i = 0; i < count; i++) {
-                    Point3 p = pts.get(i);
-                    buff[i * 3] = (int) p.x;
-                    buff[i * 3 + 1] = (int) p.y;
-                    buff[i * 3 + 2] = (int) p.z;
-                }
-                res.put(0, 0, buff);
-            }
-                break;
-
-            case CvType.CV_32F: {
-                res = new Mat(count, 1, CvType.CV_32FC3);
-                float[] buff = new float[count * 3];
-                for (int i = 0; i < count; i++) {
-                    Point3 p = pts.get(i);
-                    buff[i * 3] = (float) p.x;
-                    buff[i * 3 + 1] = (float) p.y;
-                    buff[i * 3 + 2] = (float) p.z;
-                }
-                res.put(0, 0, buff);
+        if (count == 0)
+            return new Mat();
+
+        switch (typeDepth) {
+        case CvType.CV_32S: {
+            int[] buff = new int[count * 3];
+            for (int i = 0; i < count; i++) {
+                Point3 p = pts.get(i);
+                buff[i * 3] = (int) p.x;
+                buff[i * 3 + 1] = (int) p.y;
+                buff[i * 3 + 2] = (int) p.z;
             }
-                break;
-
-            case CvType.CV_64F: {
-                res = new Mat(count, 1, CvType.CV_64FC3);
-                double[] buff = new double[count * 3];
-                for (int i = 0; i < count; i++) {
-                    Point3 p = pts.get(i);
-                    buff[i * 3] = p.x;
-                    buff[i * 3 + 1] = p.y;
-                    buff[i * 3 + 2] = p.z;
-                }
-                res.put(0, 0, buff);
+            return vector_Point3i_to_Mat(buff, count);
+        }
+
+        case CvType.CV_32F: {
+            float[] buff = new float[count * 3];
+            for (int i = 0; i < count; i++) {
+                Point3 p = pts.get(i);
+                buff[i * 3] = (float) p.x;
+                buff[i * 3 + 1] = (float) p.y;
+                buff[i * 3 + 2] = (float) p.z;
             }
-                break;
+            return vector_Point3f_to_Mat(buff, count);
+        }
 
-            default:
-                throw new IllegalArgumentException("'typeDepth' can be CV_32S, CV_32F or CV_64F");
+        case CvType.CV_64F: {
+            double[] buff = new double[count * 3];
+            for (int i = 0; i < count; i++) {
+                Point3 p = pts.get(i);
+                buff[i * 3] = p.x;
+                buff[i * 3 + 1] = p.y;
+                buff[i * 3 + 2] = p.z;
             }
+            return vector_Point3d_to_Mat(buff, count);
+        }
+
+        default:
+            throw new IllegalArgumentException("'typeDepth' can be CV_32S, CV_32F or CV_64F");
+        }
+    }
+
+    // Points are packed as x0, y0, z0, x1, y1, z1, ... The buffer lengths must be multiples of 3.
+    public static Mat vector_Point3i_to_Mat(int[] buff, int count) {
+        Mat res = new Mat();
+        vector_Point3i_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_Point3i_to_Mat(int[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 3)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+        if (count > 0) {
+            res.create(count, 1, CvType.CV_32SC3);
+            res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
+    }
+
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_Point3i(Mat m, int[] buff) {
+        int count = m.rows();
+        if (CvType.CV_32SC3 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC3 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 3)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    public static Mat vector_Point3f_to_Mat(float[] buff, int count) {
+        Mat res = new Mat();
+        vector_Point3f_to_Mat(buff, count, res);
         return res;
     }
 
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_Point3f_to_Mat(float[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 3)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+        if (count > 0) {
+            res.create(count, 1, CvType.CV_32FC3);
+            res.put(0, 0, buff);
+        } else {
+            res.release();
+        }
+    }
+
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_Point3f(Mat m, float[] buff) {
+        int count = m.rows();
+        if (CvType.CV_32FC3 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32FC3 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 3)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    public static Mat vector_Point3d_to_Mat(double[] buff, int count) {
+        Mat res = new Mat();
+        vector_Point3d_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_Point3d_to_Mat(double[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 3)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+        if (count > 0) {
+            res.create(count, 1, CvType.CV_64FC3);
+            res.put(0, 0, buff);
+        } else {
+            res.release();
+        }
+    }
+
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_Point3d(Mat m, double[] buff) {
+        int count = m.rows();
+        if (CvType.CV_64FC3 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_64FC3 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 3)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
     public static void Mat_to_vector_Point2f(Mat m, List<Point> pts) {
         Mat_to_vector_Point(m, pts);
     }
@@ -162,22 +342,24 @@ public class Converters {
         if (m.cols() != 1)
             throw new java.lang.IllegalArgumentException("Input Mat should have one column\n" + m);
 
-        pts.clear();
         if (type == CvType.CV_32SC2) {
             int[] buff = new int[2 * count];
-            m.get(0, 0, buff);
+            Mat_to_vector_Point(m, buff);
+            pts.clear();
             for (int i = 0; i < count; i++) {
                 pts.add(new Point(buff[i * 2], buff[i * 2 + 1]));
             }
         } else if (type == CvType.CV_32FC2) {
             float[] buff = new float[2 * count];
-            m.get(0, 0, buff);
+            Mat_to_vector_Point2f(m, buff);
+            pts.clear();
             for (int i = 0; i < count; i++) {
                 pts.add(new Point(buff[i * 2], buff[i * 2 + 1]));
             }
         } else if (type == CvType.CV_64FC2) {
             double[] buff = new double[2 * count];
-            m.get(0, 0, buff);
+            Mat_to_vector_Point2d(m, buff);
+            pts.clear();
             for (int i = 0; i < count; i++) {
                 pts.add(new Point(buff[i * 2], buff[i * 2 + 1]));
             }
@@ -207,22 +389,24 @@ public class Converters {
         if (m.cols() != 1)
             throw new java.lang.IllegalArgumentException("Input Mat should have one column\n" + m);
 
-        pts.clear();
         if (type == CvType.CV_32SC3) {
             int[] buff = new int[3 * count];
-            m.get(0, 0, buff);
+            Mat_to_vector_Point3i(m, buff);
+            pts.clear();
             for (int i = 0; i < count; i++) {
                 pts.add(new Point3(buff[i * 3], buff[i * 3 + 1], buff[i * 3 + 2]));
             }
         } else if (type == CvType.CV_32FC3) {
             float[] buff = new float[3 * count];
-            m.get(0, 0, buff);
+            Mat_to_vector_Point3f(m, buff);
+            pts.clear();
             for (int i = 0; i < count; i++) {
                 pts.add(new Point3(buff[i * 3], buff[i * 3 + 1], buff[i * 3 + 2]));
             }
         } else if (type == CvType.CV_64FC3) {
             double[] buff = new double[3 * count];
-            m.get(0, 0, buff);
+            Mat_to_vector_Point3d(m, buff);
+            pts.clear();
             for (int i = 0; i < count; i++) {
                 pts.add(new Point3(buff[i * 3], buff[i * 3 + 1], buff[i * 3 + 2]));
             }
@@ -233,21 +417,36 @@ public class Converters {
     }
 
     public static Mat vector_Mat_to_Mat(List<Mat> mats) {
-        Mat res;
         int count = (mats != null) ? mats.size() : 0;
+        Mat[] array = new Mat[count];
+        for (int i = 0; i < count; i++) {
+            array[i] = mats.get(i);
+        }
+        return vector_Mat_to_Mat(array, count);
+    }
+
+    public static Mat vector_Mat_to_Mat(Mat[] mats, int count) {
+        Mat res = new Mat();
+        vector_Mat_to_Mat(mats, count, res);
+        return res;
+    }
+
+    // Fills res with the addresses of the first count mats, reallocating res only if its size changes.
+    public static void vector_Mat_to_Mat(Mat[] mats, int count, Mat res) {
+        if (mats == null || mats.length < count)
+            throw new java.lang.IllegalArgumentException("mats is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_32SC2);
-            int[] buff = new int[count * 2];
+            int[] buff = intScratch(count * 2);
             for (int i = 0; i < count; i++) {
-                long addr = mats.get(i).nativeObj;
+                long addr = mats[i].nativeObj;
                 buff[i * 2] = (int) (addr >> 32);
                 buff[i * 2 + 1] = (int) (addr & 0xffffffff);
             }
+            res.create(count, 1, CvType.CV_32SC2);
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static void Mat_to_vector_Mat(Mat m, List<Mat> mats) {
@@ -268,213 +467,398 @@ public class Converters {
     }
 
     public static Mat vector_float_to_Mat(List<Float> fs) {
-        Mat res;
         int count = (fs != null) ? fs.size() : 0;
+        float[] buff = new float[count];
+        for (int i = 0; i < count; i++) {
+            buff[i] = fs.get(i);
+        }
+        return vector_float_to_Mat(buff, count);
+    }
+
+    public static Mat vector_float_to_Mat(float[] buff, int count) {
+        Mat res = new Mat();
+        vector_float_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_float_to_Mat(float[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_32FC1);
-            float[] buff = new float[count];
-            for (int i = 0; i < count; i++) {
-                float f = fs.get(i);
-                buff[i] = f;
-            }
+            res.create(count, 1, CvType.CV_32FC1);
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static void Mat_to_vector_float(Mat m, List<Float> fs) {
         if (fs == null)
             throw new java.lang.IllegalArgumentException("fs == null");
-        int count = m.rows();
-        if (CvType.CV_32FC1 != m.type() || m.cols() != 1)
-            throw new java.lang.IllegalArgumentException(
-                    "CvType.CV_32FC1 != m.type() ||  m.cols()!=1\n" + m);
 
+        float[] buff = new float[m.rows()];
+        int count = Mat_to_vector_float(m, buff);
         fs.clear();
-        float[] buff = new float[count];
-        m.get(0, 0, buff);
         for (int i = 0; i < count; i++) {
             fs.add(buff[i]);
         }
     }
 
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_float(Mat m, float[] buff) {
+        int count = m.rows();
+        if (CvType.CV_32FC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32FC1 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    // Reads count elements from the current position of buff.
+    public static void vector_float_to_Mat(FloatBuffer buff, int count, Mat res) {
+        float[] array = floatScratch(count);
+        buff.get(array, 0, count);
+        vector_float_to_Mat(array, count, res);
+    }
+
+    // Writes the elements of m at the current position of buff and returns their number.
+    public static int Mat_to_vector_float(Mat m, FloatBuffer buff) {
+        float[] array = floatScratch(m.rows());
+        int count = Mat_to_vector_float(m, array);
+        buff.put(array, 0, count);
+        return count;
+    }
+
     public static Mat vector_uchar_to_Mat(List<Byte> bs) {
-        Mat res;
         int count = (bs != null) ? bs.size() : 0;
+        byte[] buff = new byte[count];
+        for (int i = 0; i < count; i++) {
+            buff[i] = bs.get(i);
+        }
+        return vector_uchar_to_Mat(buff, count);
+    }
+
+    public static Mat vector_uchar_to_Mat(byte[] buff, int count) {
+        Mat res = new Mat();
+        vector_uchar_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_uchar_to_Mat(byte[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_8UC1);
-            byte[] buff = new byte[count];
-            for (int i = 0; i < count; i++) {
-                byte b = bs.get(i);
-                buff[i] = b;
-            }
+            res.create(count, 1, CvType.CV_8UC1);
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static void Mat_to_vector_uchar(Mat m, List<Byte> us) {
         if (us == null)
             throw new java.lang.IllegalArgumentException("Output List can't be null");
+
+        byte[] buff = new byte[m.rows()];
+        int count = Mat_to_vector_uchar(m, buff);
+        us.clear();
+        for (int i = 0; i < count; i++) {
+            us.add(buff[i]);
+        }
+    }
+
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_uchar(Mat m, byte[] buff) {
         int count = m.rows();
         if (CvType.CV_8UC1 != m.type() || m.cols() != 1)
             throw new java.lang.IllegalArgumentException(
                     "CvType.CV_8UC1 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
 
-        us.clear();
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    // Reads count elements from the current position of buff.
+    public static void vector_uchar_to_Mat(ByteBuffer buff, int count, Mat res) {
+        byte[] array = byteScratch(count);
+        buff.get(array, 0, count);
+        vector_uchar_to_Mat(array, count, res);
+    }
+
+    // Writes the elements of m at the current position of buff and returns their number.
+    public static int Mat_to_vector_uchar(Mat m, ByteBuffer buff) {
+        byte[] array = byteScratch(m.rows());
+        int count = Mat_to_vector_uchar(m, array);
+        buff.put(array, 0, count);
+        return count;
+    }
+
+    public static Mat vector_char_to_Mat(List<Byte> bs) {
+        int count = (bs != null) ? bs.size() : 0;
         byte[] buff = new byte[count];
-        m.get(0, 0, buff);
         for (int i = 0; i < count; i++) {
-            us.add(buff[i]);
+            buff[i] = bs.get(i);
         }
+        return vector_char_to_Mat(buff, count);
     }
 
-    public static Mat vector_char_to_Mat(List<Byte> bs) {
-        Mat res;
-        int count = (bs != null) ? bs.size() : 0;
+    public static Mat vector_char_to_Mat(byte[] buff, int count) {
+        Mat res = new Mat();
+        vector_char_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_char_to_Mat(byte[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_8SC1);
-            byte[] buff = new byte[count];
-            for (int i = 0; i < count; i++) {
-                byte b = bs.get(i);
-                buff[i] = b;
-            }
+            res.create(count, 1, CvType.CV_8SC1);
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static Mat vector_int_to_Mat(List<Integer> is) {
-        Mat res;
         int count = (is != null) ? is.size() : 0;
+        int[] buff = new int[count];
+        for (int i = 0; i < count; i++) {
+            buff[i] = is.get(i);
+        }
+        return vector_int_to_Mat(buff, count);
+    }
+
+    public static Mat vector_int_to_Mat(int[] buff, int count) {
+        Mat res = new Mat();
+        vector_int_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_int_to_Mat(int[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_32SC1);
-            int[] buff = new int[count];
-            for (int i = 0; i < count; i++) {
-                int v = is.get(i);
-                buff[i] = v;
-            }
+            res.create(count, 1, CvType.CV_32SC1);
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static void Mat_to_vector_int(Mat m, List<Integer> is) {
         if (is == null)
             throw new java.lang.IllegalArgumentException("is == null");
-        int count = m.rows();
-        if (CvType.CV_32SC1 != m.type() || m.cols() != 1)
-            throw new java.lang.IllegalArgumentException(
-                    "CvType.CV_32SC1 != m.type() ||  m.cols()!=1\n" + m);
 
+        int[] buff = new int[m.rows()];
+        int count = Mat_to_vector_int(m, buff);
         is.clear();
-        int[] buff = new int[count];
-        m.get(0, 0, buff);
         for (int i = 0; i < count; i++) {
             is.add(buff[i]);
         }
     }
 
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_int(Mat m, int[] buff) {
+        int count = m.rows();
+        if (CvType.CV_32SC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC1 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    // Reads count elements from the current position of buff.
+    public static void vector_int_to_Mat(IntBuffer buff, int count, Mat res) {
+        int[] array = intScratch(count);
+        buff.get(array, 0, count);
+        vector_int_to_Mat(array, count, res);
+    }
+
+    // Writes the elements of m at the current position of buff and returns their number.
+    public static int Mat_to_vector_int(Mat m, IntBuffer buff) {
+        int[] array = intScratch(m.rows());
+        int count = Mat_to_vector_int(m, array);
+        buff.put(array, 0, count);
+        return count;
+    }
+
     public static void Mat_to_vector_char(Mat m, List<Byte> bs) {
         if (bs == null)
             throw new java.lang.IllegalArgumentException("Output List can't be null");
-        int count = m.rows();
-        if (CvType.CV_8SC1 != m.type() || m.cols() != 1)
-            throw new java.lang.IllegalArgumentException(
-                    "CvType.CV_8SC1 != m.type() ||  m.cols()!=1\n" + m);
 
+        byte[] buff = new byte[m.rows()];
+        int count = Mat_to_vector_char(m, buff);
         bs.clear();
-        byte[] buff = new byte[count];
-        m.get(0, 0, buff);
         for (int i = 0; i < count; i++) {
             bs.add(buff[i]);
         }
     }
 
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_char(Mat m, byte[] buff) {
+        int count = m.rows();
+        if (CvType.CV_8SC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_8SC1 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    // Reads count elements from the current position of buff.
+    public static void vector_char_to_Mat(ByteBuffer buff, int count, Mat res) {
+        byte[] array = byteScratch(count);
+        buff.get(array, 0, count);
+        vector_char_to_Mat(array, count, res);
+    }
+
+    // Writes the elements of m at the current position of buff and returns their number.
+    public static int Mat_to_vector_char(Mat m, ByteBuffer buff) {
+        byte[] array = byteScratch(m.rows());
+        int count = Mat_to_vector_char(m, array);
+        buff.put(array, 0, count);
+        return count;
+    }
+
     public static Mat vector_Rect_to_Mat(List<Rect> rs) {
-        Mat res;
         int count = (rs != null) ? rs.size() : 0;
+        int[] buff = new int[4 * count];
+        for (int i = 0; i < count; i++) {
+            Rect r = rs.get(i);
+            buff[4 * i] = r.x;
+            buff[4 * i + 1] = r.y;
+            buff[4 * i + 2] = r.width;
+            buff[4 * i + 3] = r.height;
+        }
+        return vector_Rect_to_Mat(buff, count);
+    }
+
+    // Rects are packed as x, y, width, height. The buffer lengths must be multiples of 4.
+    public static Mat vector_Rect_to_Mat(int[] buff, int count) {
+        Mat res = new Mat();
+        vector_Rect_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_Rect_to_Mat(int[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 4)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_32SC4);
-            int[] buff = new int[4 * count];
-            for (int i = 0; i < count; i++) {
-                Rect r = rs.get(i);
-                buff[4 * i] = r.x;
-                buff[4 * i + 1] = r.y;
-                buff[4 * i + 2] = r.width;
-                buff[4 * i + 3] = r.height;
-            }
+            res.create(count, 1, CvType.CV_32SC4);
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static void Mat_to_vector_Rect(Mat m, List<Rect> rs) {
         if (rs == null)
             throw new java.lang.IllegalArgumentException("rs == null");
-        int count = m.rows();
-        if (CvType.CV_32SC4 != m.type() || m.cols() != 1)
-            throw new java.lang.IllegalArgumentException(
-                    "CvType.CV_32SC4 != m.type() ||  m.rows()!=1\n" + m);
 
+        int[] buff = new int[4 * m.rows()];
+        int count = Mat_to_vector_Rect(m, buff);
         rs.clear();
-        int[] buff = new int[4 * count];
-        m.get(0, 0, buff);
         for (int i = 0; i < count; i++) {
             rs.add(new Rect(buff[4 * i], buff[4 * i + 1], buff[4 * i + 2], buff[4 * i + 3]));
         }
     }
 
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_Rect(Mat m, int[] buff) {
+        int count = m.rows();
+        if (CvType.CV_32SC4 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC4 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 4)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
     public static Mat vector_KeyPoint_to_Mat(List<KeyPoint> kps) {
-        Mat res;
         int count = (kps != null) ? kps.size() : 0;
+        double[] buff = new double[count * 7];
+        for (int i = 0; i < count; i++) {
+            KeyPoint kp = kps.get(i);
+            buff[7 * i] = kp.pt.x;
+            buff[7 * i + 1] = kp.pt.y;
+            buff[7 * i + 2] = kp.size;
+            buff[7 * i + 3] = kp.angle;
+            buff[7 * i + 4] = kp.response;
+            buff[7 * i + 5] = kp.octave;
+            buff[7 * i + 6] = kp.class_id;
+        }
+        return vector_KeyPoint_to_Mat(buff, count);
+    }
+
+    // KeyPoints are packed as x, y, size, angle, response, octave, class_id.
+    // The buffer lengths must be multiples of 7.
+    public static Mat vector_KeyPoint_to_Mat(double[] buff, int count) {
+        Mat res = new Mat();
+        vector_KeyPoint_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_KeyPoint_to_Mat(double[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 7)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_64FC(7));
-            double[] buff = new double[count * 7];
-            for (int i = 0; i < count; i++) {
-                KeyPoint kp = kps.get(i);
-                buff[7 * i] = kp.pt.x;
-                buff[7 * i + 1] = kp.pt.y;
-                buff[7 * i + 2] = kp.size;
-                buff[7 * i + 3] = kp.angle;
-                buff[7 * i + 4] = kp.response;
-                buff[7 * i + 5] = kp.octave;
-                buff[7 * i + 6] = kp.class_id;
-            }
+            res.create(count, 1, CvType.CV_64FC(7));
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static void Mat_to_vector_KeyPoint(Mat m, List<KeyPoint> kps) {
         if (kps == null)
             throw new java.lang.IllegalArgumentException("Output List can't be null");
-        int count = m.rows();
-        if (CvType.CV_64FC(7) != m.type() || m.cols() != 1)
-            throw new java.lang.IllegalArgumentException(
-                    "CvType.CV_64FC(7) != m.type() ||  m.cols()!=1\n" + m);
 
+        double[] buff = new double[7 * m.rows()];
+        int count = Mat_to_vector_KeyPoint(m, buff);
         kps.clear();
-        double[] buff = new double[7 * count];
-        m.get(0, 0, buff);
         for (int i = 0; i < count; i++) {
             kps.add(new KeyPoint((float) buff[7 * i], (float) buff[7 * i + 1], (float) buff[7 * i + 2], (float) buff[7 * i + 3],
                     (float) buff[7 * i + 4], (int) buff[7 * i + 5], (int) buff[7 * i + 6]));
         }
     }
 
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_KeyPoint(Mat m, double[] buff) {
+        int count = m.rows();
+        if (CvType.CV_64FC(7) != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_64FC(7) != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 7)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
     // vector_vector_Point
     public static Mat vector_vector_Point_to_Mat(List<MatOfPoint> pts, List<Mat> mats) {
         Mat res;
@@ -594,74 +978,131 @@ public class Converters {
     }
 
     public static Mat vector_double_to_Mat(List<Double> ds) {
-        Mat res;
         int count = (ds != null) ? ds.size() : 0;
+        double[] buff = new double[count];
+        for (int i = 0; i < count; i++) {
+            buff[i] = ds.get(i);
+        }
+        return vector_double_to_Mat(buff, count);
+    }
+
+    public static Mat vector_double_to_Mat(double[] buff, int count) {
+        Mat res = new Mat();
+        vector_double_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_double_to_Mat(double[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_64FC1);
-            double[] buff = new double[count];
-            for (int i = 0; i < count; i++) {
-                double v = ds.get(i);
-                buff[i] = v;
-            }
+            res.create(count, 1, CvType.CV_64FC1);
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static void Mat_to_vector_double(Mat m, List<Double> ds) {
         if (ds == null)
             throw new java.lang.IllegalArgumentException("ds == null");
-        int count = m.rows();
-        if (CvType.CV_64FC1 != m.type() || m.cols() != 1)
-            throw new java.lang.IllegalArgumentException(
-                    "CvType.CV_64FC1 != m.type() ||  m.cols()!=1\n" + m);
 
+        double[] buff = new double[m.rows()];
+        int count = Mat_to_vector_double(m, buff);
         ds.clear();
-        double[] buff = new double[count];
-        m.get(0, 0, buff);
         for (int i = 0; i < count; i++) {
             ds.add(buff[i]);
         }
     }
 
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_double(Mat m, double[] buff) {
+        int count = m.rows();
+        if (CvType.CV_64FC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_64FC1 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    // Reads count elements from the current position of buff.
+    public static void vector_double_to_Mat(DoubleBuffer buff, int count, Mat res) {
+        double[] array = doubleScratch(count);
+        buff.get(array, 0, count);
+        vector_double_to_Mat(array, count, res);
+    }
+
+    // Writes the elements of m at the current position of buff and returns their number.
+    public static int Mat_to_vector_double(Mat m, DoubleBuffer buff) {
+        double[] array = doubleScratch(m.rows());
+        int count = Mat_to_vector_double(m, array);
+        buff.put(array, 0, count);
+        return count;
+    }
+
     public static Mat vector_DMatch_to_Mat(List<DMatch> matches) {
-        Mat res;
         int count = (matches != null) ? matches.size() : 0;
+        double[] buff = new double[count * 4];
+        for (int i = 0; i < count; i++) {
+            DMatch m = matches.get(i);
+            buff[4 * i] = m.queryIdx;
+            buff[4 * i + 1] = m.trainIdx;
+            buff[4 * i + 2] = m.imgIdx;
+            buff[4 * i + 3] = m.distance;
+        }
+        return vector_DMatch_to_Mat(buff, count);
+    }
+
+    // DMatches are packed as queryIdx, trainIdx, imgIdx, distance. The buffer lengths must be multiples of 4.
+    public static Mat vector_DMatch_to_Mat(double[] buff, int count) {
+        Mat res = new Mat();
+        vector_DMatch_to_Mat(buff, count, res);
+        return res;
+    }
+
+    // Fills res with the first count elements of buff, reallocating res only if its size or type changes.
+    public static void vector_DMatch_to_Mat(double[] buff, int count, Mat res) {
+        if (buff == null || buff.length < count * 4)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
         if (count > 0) {
-            res = new Mat(count, 1, CvType.CV_64FC4);
-            double[] buff = new double[count * 4];
-            for (int i = 0; i < count; i++) {
-                DMatch m = matches.get(i);
-                buff[4 * i] = m.queryIdx;
-                buff[4 * i + 1] = m.trainIdx;
-                buff[4 * i + 2] = m.imgIdx;
-                buff[4 * i + 3] = m.distance;
-            }
+            res.create(count, 1, CvType.CV_64FC4);
             res.put(0, 0, buff);
         } else {
-            res = new Mat();
+            res.release();
         }
-        return res;
     }
 
     public static void Mat_to_vector_DMatch(Mat m, List<DMatch> matches) {
         if (matches == null)
             throw new java.lang.IllegalArgumentException("Output List can't be null");
-        int count = m.rows();
-        if (CvType.CV_64FC4 != m.type() || m.cols() != 1)
-            throw new java.lang.IllegalArgumentException(
-                    "CvType.CV_64FC4 != m.type() ||  m.cols()!=1\n" + m);
 
+        double[] buff = new double[4 * m.rows()];
+        int count = Mat_to_vector_DMatch(m, buff);
         matches.clear();
-        double[] buff = new double[4 * count];
-        m.get(0, 0, buff);
         for (int i = 0; i < count; i++) {
             matches.add(new DMatch((int) buff[4 * i], (int) buff[4 * i + 1], (int) buff[4 * i + 2], (float) buff[4 * i + 3]));
         }
     }
 
+    // Copies the elements of m into buff and returns their number. buff may be longer than needed.
+    public static int Mat_to_vector_DMatch(Mat m, double[] buff) {
+        int count = m.rows();
+        if (CvType.CV_64FC4 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_64FC4 != m.type() ||  m.cols()!=1\n" + m);
+        if (buff == null || buff.length < count * 4)
+            throw new java.lang.IllegalArgumentException("buff is shorter than " + count + " elements");
+
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
     // vector_vector_DMatch
     public static Mat vector_vector_DMatch_to_Mat(List<MatOfDMatch> lvdm, List<Mat> mats) {
         Mat res;
@@ -721,4 +1162,57 @@ public class Converters {
             llb.add(lb);
         }
     }
+
+    // Per-thread buffers so that the buffer based variants do not allocate in steady state.
+    // Lengths are multiples of 8 to stay compatible with the channel count checks of Mat.put.
+    private static int scratchLength(int length) {
+        int result = 64;
+        while (result < length)
+            result *= 2;
+        return result;
+    }
+
+    private static final ThreadLocal<float[]> floatScratchBuffer = new ThreadLocal<float[]>();
+
+    private static float[] floatScratch(int length) {
+        float[] buff = floatScratchBuffer.get();
+        if (buff == null || buff.length < length) {
+            buff = new float[scratchLength(length)];
+            floatScratchBuffer.set(buff);
+        }
+        return buff;
+    }
+
+    private static final ThreadLocal<byte[]> byteScratchBuffer = new ThreadLocal<byte[]>();
+
+    private static byte[] byteScratch(int length) {
+        byte[] buff = byteScratchBuffer.get();
+        if (buff == null || buff.length < length) {
+            buff = new byte[scratchLength(length)];
+            byteScratchBuffer.set(buff);
+        }
+        return buff;
+    }
+
+    private static final ThreadLocal<int[]> intScratchBuffer = new ThreadLocal<int[]>();
+
+    private static int[] intScratch(int length) {
+        int[] buff = intScratchBuffer.get();
+        if (buff == null || buff.length < length) {
+            buff = new int[scratchLength(length)];
+            intScratchBuffer.set(buff);
+        }
+        return buff;
+    }
+
+    private static final ThreadLocal<double[]> doubleScratchBuffer = new ThreadLocal<double[]>();
+
+    private static double[] doubleScratch(int length) {
+        double[] buff = doubleScratchBuffer.get();
+        if (buff == null || buff.length < length) {
+            buff = new double[scratchLength(length)];
+            doubleScratchBuffer.set(buff);
+        }
+        return buff;
+    }
 }